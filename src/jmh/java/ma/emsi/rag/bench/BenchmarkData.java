@@ -0,0 +1,90 @@
+package ma.emsi.rag.bench;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import ma.emsi.rag.store.VectorMath;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Données des benchmarks : le PDF du projet (lu depuis le disque, sans réseau) et des vecteurs synthétiques
+ * reproductibles (graine fixe).
+ */
+final class BenchmarkData {
+
+    static final Path PDF = Paths.get("src/main/resources/support_rag.pdf");
+    static final int DIMENSION = 384;
+    static final long SEED = 42;
+
+    private BenchmarkData() {
+    }
+
+    static byte[] pdfBytes() {
+        try {
+            return Files.readAllBytes(PDF);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lancer les benchmarks depuis la racine du projet : " + PDF, e);
+        }
+    }
+
+    static Document parse(byte[] pdf) {
+        return new ApacheTikaDocumentParser().parse(new ByteArrayInputStream(pdf));
+    }
+
+    /**
+     * Segments du PDF avec le découpage des classes de test, répétés jusqu'à {@code count} segments.
+     */
+    static List<TextSegment> segments(int count) {
+        List<TextSegment> segments = DocumentSplitters.recursive(300, 30).split(parse(pdfBytes()));
+        List<TextSegment> repeated = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            repeated.add(segments.get(i % segments.size()));
+        }
+        return repeated;
+    }
+
+    /**
+     * Vecteurs normalisés regroupés autour de 64 centres, comme des embeddings de textes sur quelques thèmes :
+     * une distribution uniforme sur la sphère rendrait toutes les similarités presque nulles.
+     */
+    static List<Embedding> clusteredVectors(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        float[][] centers = new float[64][];
+        for (int c = 0; c < centers.length; c++) {
+            centers[c] = gaussian(random, 1);
+        }
+        random = new SplittableRandom(seed);
+        List<Embedding> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] center = centers[random.nextInt(centers.length)];
+            float[] noise = gaussian(random, 0.6f);
+            for (int d = 0; d < DIMENSION; d++) {
+                noise[d] += center[d];
+            }
+            vectors.add(Embedding.from(VectorMath.normalized(noise)));
+        }
+        return vectors;
+    }
+
+    private static float[] gaussian(SplittableRandom random, float scale) {
+        float[] vector = new float[DIMENSION];
+        for (int d = 0; d < DIMENSION; d++) {
+            // Box-Muller
+            double u = 1 - random.nextDouble();
+            double v = random.nextDouble();
+            vector[d] = (float) (scale * Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v) / Math.sqrt(DIMENSION));
+        }
+        return vector;
+    }
+}
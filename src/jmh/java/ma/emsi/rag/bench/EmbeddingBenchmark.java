@@ -0,0 +1,57 @@
+package ma.emsi.rag.bench;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code embedAll} d'all-MiniLM-L6-v2 selon la taille des lots. Chaque opération embedde les mêmes
+ * {@value #SEGMENTS} segments du PDF, découpés en lots de {@code batchSize} : le score est le temps par segment,
+ * directement comparable d'une taille de lot à l'autre.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class EmbeddingBenchmark {
+
+    static final int SEGMENTS = 128;
+
+    @Param({"1", "8", "32", "128"})
+    public int batchSize;
+
+    private EmbeddingModel model;
+    private List<TextSegment> segments;
+
+    @Setup
+    public void setUp() {
+        model = new AllMiniLmL6V2EmbeddingModel();
+        segments = BenchmarkData.segments(SEGMENTS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS)
+    public void embedAll(Blackhole blackhole) {
+        for (int from = 0; from < SEGMENTS; from += batchSize) {
+            blackhole.consume(model.embedAll(segments.subList(from, Math.min(from + batchSize, SEGMENTS))));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ma.emsi.rag.bench;
+
+import dev.langchain4j.data.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction du texte de support_rag.pdf par Tika (fichier déjà en mémoire : on ne mesure pas le disque).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ParsingBenchmark {
+
+    private byte[] pdf;
+
+    @Setup
+    public void setUp() {
+        pdf = BenchmarkData.pdfBytes();
+    }
+
+    @Benchmark
+    public Document parse() {
+        return BenchmarkData.parse(pdf);
+    }
+}
@@ -0,0 +1,52 @@
+package ma.emsi.rag.bench;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Découpage du texte extrait du PDF, pour plusieurs réglages autour de {@code recursive(300, 30)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class SplittingBenchmark {
+
+    @Param({"200", "300", "500"})
+    public int maxSegmentSize;
+
+    @Param({"0", "30"})
+    public int maxOverlap;
+
+    private Document document;
+    private DocumentSplitter splitter;
+
+    @Setup
+    public void setUp() {
+        document = BenchmarkData.parse(BenchmarkData.pdfBytes());
+        splitter = DocumentSplitters.recursive(maxSegmentSize, maxOverlap);
+    }
+
+    @Benchmark
+    public List<TextSegment> split() {
+        return splitter.split(document);
+    }
+}
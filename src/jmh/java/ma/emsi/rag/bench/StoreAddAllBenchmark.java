@@ -0,0 +1,72 @@
+package ma.emsi.rag.bench;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import ma.emsi.rag.store.EmbeddingStores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chargement de {@code corpusSize} vecteurs synthétiques dans un store vide, par un seul {@code addAll}.
+ * "memory" est l'{@code InMemoryEmbeddingStore} de LangChain4j, les autres types ceux d'{@link EmbeddingStores}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class StoreAddAllBenchmark {
+
+    @Param({"memory", "offheap", "int8", "binary", "hnsw"})
+    public String store;
+
+    @Param({"1000", "10000", "100000"})
+    public int corpusSize;
+
+    private List<Embedding> vectors;
+    private List<TextSegment> segments;
+    private EmbeddingStore<TextSegment> embeddingStore;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        vectors = BenchmarkData.clusteredVectors(corpusSize, BenchmarkData.SEED);
+        segments = new ArrayList<>(corpusSize);
+        for (int i = 0; i < corpusSize; i++) {
+            segments.add(TextSegment.from("segment " + i));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createStore() {
+        embeddingStore = EmbeddingStores.create(store);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeStore() throws Exception {
+        if (embeddingStore instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    @Benchmark
+    public List<String> addAll() {
+        return embeddingStore.addAll(vectors, segments);
+    }
+}
@@ -0,0 +1,87 @@
+package ma.emsi.rag.bench;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import ma.emsi.rag.store.EmbeddingStores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recherche des plus proches voisins dans un corpus synthétique de {@code corpusSize} vecteurs, avec des
+ * questions tirées de la même distribution (autre graine). Mêmes paramètres de recherche que les
+ * ContentRetriever, sauf {@code minScore} à 0 pour toujours renvoyer {@code maxResults} segments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class StoreSearchBenchmark {
+
+    private static final int QUERIES = 256;
+
+    @Param({"memory", "offheap", "int8", "binary", "hnsw"})
+    public String store;
+
+    @Param({"1000", "10000", "100000"})
+    public int corpusSize;
+
+    @Param({"2", "10"})
+    public int maxResults;
+
+    private EmbeddingStore<TextSegment> embeddingStore;
+    private List<EmbeddingSearchRequest> requests;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<Embedding> vectors = BenchmarkData.clusteredVectors(corpusSize, BenchmarkData.SEED);
+        List<TextSegment> segments = new ArrayList<>(corpusSize);
+        for (int i = 0; i < corpusSize; i++) {
+            segments.add(TextSegment.from("segment " + i));
+        }
+        embeddingStore = EmbeddingStores.create(store);
+        embeddingStore.addAll(vectors, segments);
+
+        requests = new ArrayList<>(QUERIES);
+        for (Embedding query : BenchmarkData.clusteredVectors(QUERIES, BenchmarkData.SEED + 1)) {
+            requests.add(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(query)
+                    .maxResults(maxResults)
+                    .minScore(0.0)
+                    .build());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (embeddingStore instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    @Benchmark
+    public EmbeddingSearchResult<TextSegment> search() {
+        EmbeddingSearchRequest request = requests.get(next);
+        next = (next + 1) % QUERIES;
+        return embeddingStore.search(request);
+    }
+}
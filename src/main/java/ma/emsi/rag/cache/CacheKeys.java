@@ -0,0 +1,21 @@
+package ma.emsi.rag.cache;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Normalisation des textes utilisés comme clés de cache : deux questions qui ne diffèrent que par les espaces
+ * (et la casse, si elle est ignorée) partagent la même entrée.
+ */
+public final class CacheKeys {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private CacheKeys() {
+    }
+
+    public static String normalize(String text, boolean ignoreCase) {
+        String normalized = WHITESPACE.matcher(text.strip()).replaceAll(" ");
+        return ignoreCase ? normalized.toLowerCase(Locale.ROOT) : normalized;
+    }
+}
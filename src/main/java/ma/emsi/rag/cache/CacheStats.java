@@ -0,0 +1,18 @@
+package ma.emsi.rag.cache;
+
+/**
+ * Compteurs d'un cache depuis sa création.
+ */
+public record CacheStats(long hits, long misses, long evictions, long expirations, int size) {
+
+    public double hitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : hits / (double) requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d succès, %d échecs (taux de succès %.1f %%), %d évictions, %d expirations, %d entrées",
+                hits, misses, hitRate() * 100, evictions, expirations, size);
+    }
+}
@@ -0,0 +1,134 @@
+package ma.emsi.rag.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * Cache borné en nombre d'entrées, avec éviction de l'entrée la moins récemment utilisée (LRU)
+ * et durée de vie optionnelle des entrées.
+ * <p>
+ * Les accès sont synchronisés : le calcul d'une valeur absente se fait hors du cache, par l'appelant,
+ * pour ne pas bloquer les autres threads pendant ce calcul.
+ *
+ * @param <K> Type des clés.
+ * @param <V> Type des valeurs.
+ */
+public class LruCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final BiConsumer<K, V> onRemoval;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * @param maxSize Nombre maximal d'entrées.
+     * @param ttl     Durée de vie d'une entrée, ou {@code null} pour des entrées sans expiration.
+     */
+    public LruCache(int maxSize, Duration ttl) {
+        this(maxSize, ttl, null);
+    }
+
+    /**
+     * @param onRemoval Notifié de chaque entrée que le cache retire de lui-même (éviction ou expiration), sous
+     *                  le verrou du cache ; {@code null} pour aucune notification.
+     */
+    public LruCache(int maxSize, Duration ttl, BiConsumer<K, V> onRemoval) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("La taille maximale du cache doit être positive : " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl == null ? Long.MAX_VALUE : ttl.toNanos();
+        this.onRemoval = onRemoval;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    evictions++;
+                    removed(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return La valeur associée à la clé, ou {@code null} si elle est absente ou expirée.
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.expired(System.nanoTime())) {
+            entries.remove(key);
+            expirations++;
+            removed(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        long now = System.nanoTime();
+        long expiresAt = ttlNanos == Long.MAX_VALUE || now + ttlNanos < now ? Long.MAX_VALUE : now + ttlNanos;
+        entries.put(key, new Entry<>(value, expiresAt));
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Supprime les entrées qui vérifient le prédicat.
+     *
+     * @return Nombre d'entrées supprimées.
+     */
+    public synchronized int invalidateIf(BiPredicate<K, V> predicate) {
+        int removed = 0;
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> entry = iterator.next();
+            if (predicate.test(entry.getKey(), entry.getValue().value)) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized CacheStats stats() {
+        return new CacheStats(hits, misses, evictions, expirations, entries.size());
+    }
+
+    private void removed(K key, Entry<V> entry) {
+        if (onRemoval != null) {
+            onRemoval.accept(key, entry.value);
+        }
+    }
+
+    private record Entry<V>(V value, long expiresAt) {
+        boolean expired(long now) {
+            return expiresAt != Long.MAX_VALUE && now - expiresAt >= 0;
+        }
+    }
+}
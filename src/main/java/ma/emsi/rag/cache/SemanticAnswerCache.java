@@ -0,0 +1,362 @@
+package ma.emsi.rag.cache;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import ma.emsi.rag.store.VectorMath;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Cache sémantique des réponses de l'assistant : une question proche d'une question déjà posée
+ * (similarité cosinus au moins égale au seuil) reçoit la même réponse sans appel au modèle de chat,
+ * à condition que le contexte récupéré dans le store soit resté le même.
+ * <p>
+ * Pour chaque réponse sont gardés l'embedding de la question et les identifiants des segments récupérés par le
+ * ContentRetriever de l'assistant lui-même ({@link Builder#contentRetriever}) : recherche hybride, seuils et
+ * nombre de candidats compris. Une réponse n'est réutilisée que si la nouvelle question récupère exactement ces
+ * segments : un document modifié, ou un segment plus pertinent ajouté depuis, invalide donc la réponse.
+ * <p>
+ * La récupération n'est faite qu'une fois par question : l'assistant reçoit {@link #contentRetriever()} au lieu
+ * du ContentRetriever d'origine, et en cas d'échec du cache il y retrouve les segments que le cache vient de
+ * récupérer pour la même question.
+ * <p>
+ * Seules les réponses appuyées sur au moins un segment sont mises en cache : une question sans contexte
+ * dépend de la conversation et non des documents. Avec la mémoire de conversation de l'assistant
+ * ({@link Builder#chatMemory}), une question qui renvoie à un échange antérieur ("et la seconde ?", "peux-tu
+ * détailler cela ?", voir {@link #looksLikeFollowUp(String)}) n'est ni cherchée dans le cache ni gardée ;
+ * une réponse tirée du cache est ajoutée à cette mémoire avec sa question, comme une réponse du modèle.
+ */
+public class SemanticAnswerCache {
+
+    /** Mots qui renvoient à un échange précédent. */
+    private static final Set<String> FOLLOW_UP_WORDS = Set.of(
+            "ça", "cela", "ceci", "celui", "celle", "ceux", "celles", "précédent", "précédente", "précédemment",
+            "dessus", "détailler", "détaille", "développer", "développe", "continue", "continuer", "encore",
+            "it", "that", "this", "those", "them", "previous", "above", "elaborate");
+    /** Premiers mots d'une question qui prolonge la précédente. */
+    private static final Set<String> FOLLOW_UP_STARTS = Set.of("et", "and", "aussi", "also", "mais", "but", "puis");
+
+    private final EmbeddingModel embeddingModel;
+    private final ContentRetriever contentRetriever;
+    private final ChatMemory chatMemory;
+    private final Predicate<String> followUpDetector;
+    private final float similarityThreshold;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, CachedAnswer> answers = new LinkedHashMap<>(16, 0.75f, true);
+    // Segments récupérés par chat() pour une question, en attente de la récupération de l'assistant
+    private final Map<String, List<Content>> retrieved = new ConcurrentHashMap<>();
+
+    private long hits;
+    private long misses;
+    private long staleContexts;
+    private long evictions;
+    private long invalidations;
+    private long followUps;
+
+    private SemanticAnswerCache(Builder builder) {
+        if (builder.embeddingModel == null || builder.contentRetriever == null) {
+            throw new IllegalArgumentException("Le modèle d'embedding et le ContentRetriever sont obligatoires");
+        }
+        this.embeddingModel = builder.embeddingModel;
+        this.contentRetriever = builder.contentRetriever;
+        this.chatMemory = builder.chatMemory;
+        this.followUpDetector = builder.followUpDetector;
+        this.similarityThreshold = (float) builder.similarityThreshold;
+        this.maxSize = builder.maxSize;
+        this.ttlNanos = builder.ttl == null ? Long.MAX_VALUE : builder.ttl.toNanos();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Retourne la réponse en cache si elle existe, sinon interroge l'assistant et garde sa réponse.
+     *
+     * @param question  Question de l'utilisateur.
+     * @param assistant Appel réel à l'assistant (retrieval par {@link #contentRetriever()} + modèle de chat).
+     */
+    public String chat(String question, UnaryOperator<String> assistant) {
+        // Une question de suite ne se comprend qu'avec la conversation : ni recherche dans le cache, ni stockage
+        if (chatMemory != null && followUpDetector.test(question)
+                && chatMemory.messages().stream().anyMatch(AiMessage.class::isInstance)) {
+            synchronized (this) {
+                misses++;
+                followUps++;
+            }
+            return assistant.apply(question);
+        }
+        float[] embedding = VectorMath.normalized(embeddingModel.embed(question).content().vector());
+        List<Content> contents = contentRetriever.retrieve(Query.from(question));
+        Set<String> context = idsOf(contents);
+        if (!context.isEmpty()) {
+            String cached = lookup(embedding, context);
+            if (cached != null) {
+                if (chatMemory != null) {
+                    // La suite de la conversation doit voir cet échange, comme s'il venait du modèle
+                    chatMemory.add(UserMessage.from(question));
+                    chatMemory.add(AiMessage.from(cached));
+                }
+                return cached;
+            }
+        } else {
+            synchronized (this) {
+                misses++;
+            }
+        }
+
+        String answer;
+        retrieved.put(question, contents);
+        try {
+            answer = assistant.apply(question);
+        } finally {
+            // Déjà consommés par l'assistant, sauf s'il n'a pas fait de récupération
+            retrieved.remove(question, contents);
+        }
+        if (!context.isEmpty()) {
+            store(question, embedding, context, answer);
+        }
+        return answer;
+    }
+
+    /**
+     * ContentRetriever à donner à l'assistant : pour la question en cours de {@link #chat}, il renvoie une fois les
+     * segments que le cache vient de récupérer ; sinon (question de suite, autre requête de l'assistant, question
+     * transformée par un gabarit), il interroge le ContentRetriever du cache.
+     */
+    public ContentRetriever contentRetriever() {
+        return query -> {
+            List<Content> contents = retrieved.remove(query.text());
+            return contents != null ? contents : contentRetriever.retrieve(query);
+        };
+    }
+
+    /**
+     * Détecteur par défaut des questions de suite : question de moins de trois mots, question qui commence par
+     * une conjonction ("et", "mais"...), ou qui contient un mot renvoyant à l'échange précédent ("cela",
+     * "précédent", "détailler"...).
+     */
+    public static boolean looksLikeFollowUp(String question) {
+        String[] words = question.toLowerCase(Locale.ROOT).split("[^\\p{L}]+");
+        int first = words.length > 0 && words[0].isEmpty() ? 1 : 0;
+        if (words.length - first < 3 || FOLLOW_UP_STARTS.contains(words[first])) {
+            return true;
+        }
+        for (int i = first; i < words.length; i++) {
+            if (FOLLOW_UP_WORDS.contains(words[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Identifiants des segments récupérés ({@link ContentMetadata#EMBEDDING_ID}).
+     */
+    private static Set<String> idsOf(List<Content> contents) {
+        Set<String> ids = new HashSet<>();
+        for (Content content : contents) {
+            if (content.metadata().get(ContentMetadata.EMBEDDING_ID) instanceof String id) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Invalide les réponses appuyées sur l'un de ces segments (par exemple, segments retirés du store).
+     */
+    public synchronized void invalidateSegments(Collection<String> segmentIds) {
+        if (segmentIds.isEmpty()) {
+            return;
+        }
+        Set<String> removed = new HashSet<>(segmentIds);
+        Iterator<CachedAnswer> iterator = answers.values().iterator();
+        while (iterator.hasNext()) {
+            CachedAnswer answer = iterator.next();
+            if (answer.context.stream().anyMatch(removed::contains)) {
+                iterator.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        invalidations += answers.size();
+        answers.clear();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, staleContexts, followUps, evictions, invalidations, answers.size());
+    }
+
+    private synchronized String lookup(float[] embedding, Set<String> context) {
+        long now = System.nanoTime();
+        String bestKey = null;
+        CachedAnswer best = null;
+        float bestSimilarity = similarityThreshold;
+        boolean stale = false;
+        Iterator<Map.Entry<String, CachedAnswer>> iterator = answers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, CachedAnswer> entry = iterator.next();
+            CachedAnswer answer = entry.getValue();
+            if (now - answer.createdAt >= ttlNanos) {
+                iterator.remove();
+                evictions++;
+                continue;
+            }
+            float similarity = VectorMath.dot(embedding, answer.embedding);
+            if (similarity < bestSimilarity) {
+                continue;
+            }
+            if (answer.context.equals(context)) {
+                bestKey = entry.getKey();
+                best = answer;
+                bestSimilarity = similarity;
+            } else {
+                stale = true;
+            }
+        }
+        if (best == null) {
+            misses++;
+            if (stale) {
+                staleContexts++;
+            }
+            return null;
+        }
+        // Accès qui place l'entrée en tête de l'ordre LRU
+        answers.get(bestKey);
+        hits++;
+        return best.answer;
+    }
+
+    private synchronized void store(String question, float[] embedding, Set<String> context, String answer) {
+        answers.put(question.strip(), new CachedAnswer(embedding, Set.copyOf(context), answer, System.nanoTime()));
+        Iterator<CachedAnswer> eldest = answers.values().iterator();
+        while (answers.size() > maxSize) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private record CachedAnswer(float[] embedding, Set<String> context, String answer, long createdAt) {
+    }
+
+    /**
+     * Compteurs du cache depuis sa création.
+     *
+     * @param staleContexts Questions proches d'une question en cache mais dont le contexte récupéré a changé.
+     * @param followUps     Questions de suite, servies par l'assistant sans passer par le cache.
+     */
+    public record Stats(long hits, long misses, long staleContexts, long followUps, long evictions,
+                        long invalidations, int size) {
+
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : hits / (double) requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d succès, %d échecs dont %d contextes modifiés et %d questions de suite "
+                            + "(taux de succès %.1f %%), %d évictions, %d invalidations, %d réponses",
+                    hits, misses, staleContexts, followUps, hitRate() * 100, evictions, invalidations, size);
+        }
+    }
+
+    public static class Builder {
+
+        private EmbeddingModel embeddingModel;
+        private ContentRetriever contentRetriever;
+        private ChatMemory chatMemory;
+        private Predicate<String> followUpDetector = SemanticAnswerCache::looksLikeFollowUp;
+        private double similarityThreshold = 0.95;
+        private int maxSize = 1000;
+        private Duration ttl = Duration.ofHours(24);
+
+        /**
+         * Modèle d'embedding des questions : de préférence le même {@code CachingEmbeddingModel} que le
+         * ContentRetriever, la question n'est alors embeddée qu'une fois.
+         */
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /**
+         * ContentRetriever de l'assistant : le contexte d'une réponse est l'ensemble des segments qu'il renvoie.
+         * L'assistant le reçoit à travers {@link SemanticAnswerCache#contentRetriever()}.
+         */
+        public Builder contentRetriever(ContentRetriever contentRetriever) {
+            this.contentRetriever = contentRetriever;
+            return this;
+        }
+
+        /**
+         * Mémoire de conversation de l'assistant : les questions de suite d'un échange antérieur contournent le
+         * cache, et les réponses tirées du cache y sont ajoutées.
+         */
+        public Builder chatMemory(ChatMemory chatMemory) {
+            this.chatMemory = chatMemory;
+            return this;
+        }
+
+        /**
+         * Reconnaît une question qui dépend de la conversation ({@link #looksLikeFollowUp(String)} par défaut).
+         */
+        public Builder followUpDetector(Predicate<String> followUpDetector) {
+            this.followUpDetector = followUpDetector;
+            return this;
+        }
+
+        /**
+         * Similarité cosinus minimale entre deux questions pour réutiliser une réponse (0,95 par défaut).
+         */
+        public Builder similarityThreshold(double similarityThreshold) {
+            if (similarityThreshold <= 0 || similarityThreshold > 1) {
+                throw new IllegalArgumentException("Le seuil de similarité doit être dans ]0, 1] : " + similarityThreshold);
+            }
+            this.similarityThreshold = similarityThreshold;
+            return this;
+        }
+
+        public Builder maxSize(int maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("La taille maximale du cache doit être positive : " + maxSize);
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Durée de vie d'une réponse (24 heures par défaut), {@code null} pour aucune limite.
+         */
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        public SemanticAnswerCache build() {
+            return new SemanticAnswerCache(this);
+        }
+    }
+}
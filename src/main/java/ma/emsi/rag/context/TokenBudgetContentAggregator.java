@@ -0,0 +1,342 @@
+package ma.emsi.rag.context;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.content.aggregator.DefaultContentAggregator;
+import dev.langchain4j.rag.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * ContentAggregator qui assemble le contexte du prompt dans un budget de tokens.
+ * <p>
+ * Partant des segments classés par l'agrégateur délégué (fusion par défaut, ou reranking), il :
+ * <ol>
+ *     <li>écarte les quasi-doublons (similarité de Jaccard des triplets de mots au-dessus de
+ *     {@code duplicateThreshold}), en gardant le mieux classé ;</li>
+ *     <li>recoud les segments consécutifs d'un même fichier (métadonnées {@code file_name} et {@code index} du
+ *     découpage) en un seul bloc, sans répéter leur chevauchement : le découpage {@code recursive(300, 30)}
+ *     répète jusqu'à 30 caractères d'un segment au suivant ;</li>
+ *     <li>remplit le budget avec les blocs dans l'ordre de classement (rang de leur meilleur segment) ; un bloc
+ *     trop grand est remplacé par son meilleur segment, et un bloc qui ne rentre pas laisse sa place aux
+ *     suivants.</li>
+ * </ol>
+ * Le nombre de tokens est estimé à 4 caractères par token, sauf estimateur fourni.
+ */
+public class TokenBudgetContentAggregator implements ContentAggregator {
+
+    private static final int SHINGLE_SIZE = 3;
+    /** Chevauchement minimal pour recoudre deux segments sans séparateur (évite les coïncidences). */
+    private static final int MIN_OVERLAP = 5;
+    private static final int MAX_OVERLAP = 200;
+
+    private final ContentAggregator delegate;
+    private final int tokenBudget;
+    private final double duplicateThreshold;
+    private final ToIntFunction<String> tokenEstimator;
+
+    private final LongAdder aggregations = new LongAdder();
+    private final LongAdder inputTokens = new LongAdder();
+    private final LongAdder outputTokens = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder stitched = new LongAdder();
+    private final LongAdder overBudget = new LongAdder();
+
+    private TokenBudgetContentAggregator(Builder builder) {
+        if (builder.tokenBudget <= 0) {
+            throw new IllegalArgumentException("Le budget de tokens doit être positif : " + builder.tokenBudget);
+        }
+        this.delegate = builder.delegate;
+        this.tokenBudget = builder.tokenBudget;
+        this.duplicateThreshold = builder.duplicateThreshold;
+        this.tokenEstimator = builder.tokenEstimator;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<Content> aggregate(Map<Query, Collection<List<Content>>> queryToContents) {
+        List<Content> ranked = delegate.aggregate(queryToContents);
+        if (ranked.isEmpty()) {
+            return ranked;
+        }
+
+        // 1. Quasi-doublons
+        List<Item> items = new ArrayList<>(ranked.size());
+        long candidateTokens = 0;
+        for (Content content : ranked) {
+            String text = content.textSegment().text();
+            candidateTokens += tokenEstimator.applyAsInt(text);
+            Set<String> shingles = shingles(text);
+            if (items.stream().anyMatch(kept -> jaccard(kept.shingles, shingles) >= duplicateThreshold)) {
+                duplicates.increment();
+                continue;
+            }
+            items.add(new Item(content, items.size(), shingles));
+        }
+
+        // 2. Segments consécutifs d'un même fichier
+        List<Block> blocks = stitch(items);
+        blocks.sort((a, b) -> Integer.compare(a.rank(), b.rank()));
+
+        // 3. Budget
+        List<Content> result = new ArrayList<>(blocks.size());
+        int used = 0;
+        for (Block block : blocks) {
+            Content content = block.toContent();
+            int merged = block.items().size();
+            int tokens = tokenEstimator.applyAsInt(content.textSegment().text());
+            if (used + tokens > tokenBudget && merged > 1) {
+                content = block.best().content;
+                merged = 1;
+                tokens = tokenEstimator.applyAsInt(content.textSegment().text());
+            }
+            if (used + tokens > tokenBudget) {
+                overBudget.increment();
+                continue;
+            }
+            if (merged > 1) {
+                stitched.add(merged);
+            }
+            result.add(content);
+            used += tokens;
+        }
+        if (result.isEmpty()) {
+            // Même le meilleur segment dépasse le budget : il est tronqué plutôt que de répondre sans contexte
+            Content best = blocks.get(0).best().content;
+            Content truncated = truncate(best);
+            result.add(truncated);
+            used = tokenEstimator.applyAsInt(truncated.textSegment().text());
+        }
+
+        aggregations.increment();
+        inputTokens.add(candidateTokens);
+        outputTokens.add(used);
+        return result;
+    }
+
+    /**
+     * @return Tokens de contexte avant et après assemblage, doublons écartés, segments recousus et blocs hors
+     * budget, en moyenne par question.
+     */
+    public String stats() {
+        long count = aggregations.sum();
+        if (count == 0) {
+            return "aucun assemblage";
+        }
+        return String.format("~%d tokens de contexte par question au lieu de ~%d (budget %d), "
+                        + "%d quasi-doublons écartés, %d segments recousus, %d blocs hors budget",
+                outputTokens.sum() / count, inputTokens.sum() / count, tokenBudget,
+                duplicates.sum(), stitched.sum(), overBudget.sum());
+    }
+
+    private List<Block> stitch(List<Item> items) {
+        List<Block> blocks = new ArrayList<>();
+        Map<String, TreeMap<Integer, Item>> bySource = new LinkedHashMap<>();
+        for (Item item : items) {
+            Metadata metadata = item.content.textSegment().metadata();
+            String source = metadata.getString("file_name");
+            Integer index = parseIndex(metadata.getString("index"));
+            if (source == null || index == null) {
+                blocks.add(new Block(List.of(item)));
+            } else {
+                bySource.computeIfAbsent(source, s -> new TreeMap<>()).putIfAbsent(index, item);
+            }
+        }
+        for (TreeMap<Integer, Item> segments : bySource.values()) {
+            List<Item> run = new ArrayList<>();
+            int previous = Integer.MIN_VALUE;
+            for (Map.Entry<Integer, Item> entry : segments.entrySet()) {
+                if (!run.isEmpty() && entry.getKey() != previous + 1) {
+                    blocks.add(new Block(run));
+                    run = new ArrayList<>();
+                }
+                run.add(entry.getValue());
+                previous = entry.getKey();
+            }
+            blocks.add(new Block(run));
+        }
+        return blocks;
+    }
+
+    private Content truncate(Content content) {
+        String text = content.textSegment().text();
+        int end = text.length();
+        while (end > 0 && tokenEstimator.applyAsInt(text.substring(0, end)) > tokenBudget) {
+            end = Math.max(0, end - Math.max(1, (end - 1) / 8));
+        }
+        return Content.from(TextSegment.from(text.substring(0, end), content.textSegment().metadata()),
+                copy(content.metadata()));
+    }
+
+    private static Integer parseIndex(String index) {
+        if (index == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(index);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Concatène deux segments consécutifs en retirant la partie du second qui répète la fin du premier.
+     */
+    private static String join(String first, String second) {
+        String a = first.stripTrailing();
+        String b = second.stripLeading();
+        for (int length = Math.min(MAX_OVERLAP, Math.min(a.length(), b.length())); length >= MIN_OVERLAP; length--) {
+            if (a.regionMatches(a.length() - length, b, 0, length)) {
+                return a + b.substring(length);
+            }
+        }
+        return a + "\n" + b;
+    }
+
+    private static Set<String> shingles(String text) {
+        String[] words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        Set<String> shingles = new HashSet<>();
+        StringBuilder shingle = new StringBuilder();
+        int start = words.length > 0 && words[0].isEmpty() ? 1 : 0;
+        for (int i = start; i + SHINGLE_SIZE <= words.length; i++) {
+            shingle.setLength(0);
+            for (int j = i; j < i + SHINGLE_SIZE; j++) {
+                shingle.append(words[j]).append(' ');
+            }
+            shingles.add(shingle.toString());
+        }
+        if (shingles.isEmpty()) {
+            // Texte de moins de trois mots : comparé en entier
+            shingles.add(String.join(" ", words).strip());
+        }
+        return shingles;
+    }
+
+    private static double jaccard(Set<String> a, Set<String> b) {
+        Set<String> smaller = a.size() <= b.size() ? a : b;
+        Set<String> larger = smaller == a ? b : a;
+        int common = 0;
+        for (String shingle : smaller) {
+            if (larger.contains(shingle)) {
+                common++;
+            }
+        }
+        return common / (double) (a.size() + b.size() - common);
+    }
+
+    private static Map<ContentMetadata, Object> copy(Map<ContentMetadata, Object> metadata) {
+        Map<ContentMetadata, Object> copy = new EnumMap<>(ContentMetadata.class);
+        if (metadata != null) {
+            copy.putAll(metadata);
+        }
+        return copy;
+    }
+
+    /**
+     * Segment retenu et son rang dans le classement de l'agrégateur délégué.
+     */
+    private record Item(Content content, int rank, Set<String> shingles) {
+    }
+
+    /**
+     * Segments consécutifs d'un même fichier, dans l'ordre du document.
+     */
+    private record Block(List<Item> items) {
+
+        int rank() {
+            return best().rank;
+        }
+
+        Item best() {
+            Item best = items.get(0);
+            for (Item item : items) {
+                if (item.rank < best.rank) {
+                    best = item;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Un seul contenu pour le bloc : textes recousus, métadonnées et scores du meilleur segment, index
+         * du premier au dernier segment ({@code "4-6"}).
+         */
+        Content toContent() {
+            Item best = best();
+            if (items.size() == 1) {
+                return best.content;
+            }
+            String text = items.get(0).content.textSegment().text();
+            for (int i = 1; i < items.size(); i++) {
+                text = join(text, items.get(i).content.textSegment().text());
+            }
+            Metadata metadata = best.content.textSegment().metadata().copy();
+            metadata.put("index", items.get(0).content.textSegment().metadata().getString("index")
+                    + "-" + items.get(items.size() - 1).content.textSegment().metadata().getString("index"));
+            return Content.from(TextSegment.from(text, metadata), copy(best.content.metadata()));
+        }
+    }
+
+    public static class Builder {
+
+        private ContentAggregator delegate = new DefaultContentAggregator();
+        private int tokenBudget = 800;
+        private double duplicateThreshold = 0.8;
+        private ToIntFunction<String> tokenEstimator = text -> (text.length() + 3) / 4;
+
+        /**
+         * Agrégateur qui classe les segments avant l'assemblage ({@code DefaultContentAggregator} par défaut ;
+         * un agrégateur de reranking par exemple).
+         */
+        public Builder delegate(ContentAggregator delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * Nombre maximal de tokens de contexte injectés dans le prompt (800 par défaut).
+         */
+        public Builder tokenBudget(int tokenBudget) {
+            this.tokenBudget = tokenBudget;
+            return this;
+        }
+
+        /**
+         * Similarité (Jaccard des triplets de mots) à partir de laquelle deux segments sont des doublons
+         * (0,8 par défaut).
+         */
+        public Builder duplicateThreshold(double duplicateThreshold) {
+            this.duplicateThreshold = duplicateThreshold;
+            return this;
+        }
+
+        /**
+         * Estimation du nombre de tokens d'un texte (4 caractères par token par défaut).
+         */
+        public Builder tokenEstimator(ToIntFunction<String> tokenEstimator) {
+            this.tokenEstimator = tokenEstimator;
+            return this;
+        }
+
+        public TokenBudgetContentAggregator build() {
+            return new TokenBudgetContentAggregator(this);
+        }
+    }
+}
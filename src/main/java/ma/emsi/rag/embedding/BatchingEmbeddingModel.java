@@ -0,0 +1,213 @@
+package ma.emsi.rag.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * EmbeddingModel qui regroupe les appels simultanés à {@code embed} en un seul {@code embedAll} du modèle délégué.
+ * <p>
+ * Chaque appel dépose son texte dans une file et attend son résultat. Un thread dédié prend le premier texte
+ * en attente, puis complète le lot avec ceux qui arrivent pendant au plus {@code maxWait} après lui, ou jusqu'à
+ * {@code maxBatchSize} textes ; le lot part alors en un seul appel. Le délai ajouté à une question est donc
+ * borné par {@code maxWait}, et pendant qu'un lot est calculé, le suivant se remplit. Sans appels simultanés
+ * (lot précédent d'un seul texte et file vide), le texte part aussitôt : un utilisateur seul n'attend pas.
+ * <p>
+ * Les appels à {@code embedAll} sur plusieurs segments (l'ingestion, déjà groupée) passent directement au délégué.
+ */
+public class BatchingEmbeddingModel implements EmbeddingModel, AutoCloseable {
+
+    private final EmbeddingModel delegate;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    private BatchingEmbeddingModel(Builder builder) {
+        if (builder.delegate == null) {
+            throw new IllegalArgumentException("Le modèle d'embedding délégué est obligatoire");
+        }
+        if (builder.maxBatchSize <= 0) {
+            throw new IllegalArgumentException("La taille maximale d'un lot doit être positive : " + builder.maxBatchSize);
+        }
+        this.delegate = builder.delegate;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxWaitNanos = builder.maxWait.toNanos();
+        this.dispatcher = Thread.ofPlatform()
+                .name("embedding-batcher")
+                .daemon(true)
+                .start(this::dispatch);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        return embed(TextSegment.from(text));
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        if (closed) {
+            throw new IllegalStateException("Le regroupement des embeddings est arrêté");
+        }
+        Pending pending = new Pending(textSegment, System.nanoTime(), new CompletableFuture<>());
+        queue.add(pending);
+        // Arrêt survenu entre le test et l'ajout : le thread de regroupement a pu vider la file avant cet ajout
+        if (closed && queue.remove(pending)) {
+            throw new IllegalStateException("Le regroupement des embeddings est arrêté");
+        }
+        try {
+            return Response.from(pending.result.join());
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        if (textSegments.size() == 1) {
+            return Response.from(List.of(embed(textSegments.get(0)).content()));
+        }
+        return delegate.embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    /**
+     * @return Nombre de textes, de lots, taille moyenne d'un lot et attente moyenne avant le départ du lot.
+     */
+    public String stats() {
+        long count = requests.sum();
+        long batchCount = batches.sum();
+        return String.format("%d textes en %d lots (%.1f par lot), attente moyenne %d µs",
+                count, batchCount, batchCount == 0 ? 0 : count / (double) batchCount,
+                count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.sum() / count));
+    }
+
+    /**
+     * Arrête le thread de regroupement ; les appels encore en file échouent. Une erreur du modèle qui n'est pas une
+     * RuntimeException l'arrête de la même façon.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+    }
+
+    private void dispatch() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        int lastBatchSize = 0;
+        Throwable failure = null;
+        try {
+            while (!closed) {
+                Pending first = queue.take();
+                batch.add(first);
+                // Utilisateur seul (lot précédent d'un texte, file vide) : le lot part sans attendre
+                boolean concurrent = lastBatchSize > 1 || !queue.isEmpty();
+                long deadline = first.enqueuedAt + maxWaitNanos;
+                while (concurrent && batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                run(batch);
+                lastBatchSize = batch.size();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | Error e) {
+            // Erreur du modèle hors RuntimeException (échec natif d'ONNX, mémoire épuisée) : le thread s'arrête,
+            // mais sans laisser d'appelant bloqué
+            failure = e;
+            throw e;
+        } finally {
+            closed = true;
+            IllegalStateException stopped =
+                    new IllegalStateException("Le regroupement des embeddings est arrêté", failure);
+            batch.forEach(pending -> pending.result.completeExceptionally(stopped));
+            for (Pending pending = queue.poll(); pending != null; pending = queue.poll()) {
+                pending.result.completeExceptionally(stopped);
+            }
+        }
+    }
+
+    private void run(List<Pending> batch) {
+        long start = System.nanoTime();
+        List<TextSegment> segments = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            segments.add(pending.segment);
+            totalWaitNanos.add(start - pending.enqueuedAt);
+        }
+        requests.add(batch.size());
+        batches.increment();
+        try {
+            List<Embedding> embeddings = delegate.embedAll(segments).content();
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(embeddings.get(i));
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(pending -> pending.result.completeExceptionally(e));
+        }
+    }
+
+    private record Pending(TextSegment segment, long enqueuedAt, CompletableFuture<Embedding> result) {
+    }
+
+    public static class Builder {
+
+        private EmbeddingModel delegate;
+        private int maxBatchSize = 32;
+        private Duration maxWait = Duration.ofMillis(3);
+
+        public Builder delegate(EmbeddingModel delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * Nombre maximal de textes par lot (32 par défaut) : un lot plein part sans attendre.
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Attente maximale, après le premier texte d'un lot, des textes suivants (3 ms par défaut).
+         */
+        public Builder maxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        public BatchingEmbeddingModel build() {
+            return new BatchingEmbeddingModel(this);
+        }
+    }
+}
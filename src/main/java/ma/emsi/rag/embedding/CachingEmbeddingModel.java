@@ -0,0 +1,146 @@
+package ma.emsi.rag.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import ma.emsi.rag.cache.CacheKeys;
+import ma.emsi.rag.cache.CacheStats;
+import ma.emsi.rag.cache.LruCache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * EmbeddingModel qui garde en cache les embeddings déjà calculés, indexés par le texte normalisé
+ * (espaces superflus retirés, et casse ignorée pour un modèle "uncased" comme all-MiniLM-L6-v2).
+ * <p>
+ * Destiné au modèle utilisé par les ContentRetriever : une question déjà posée ne repasse pas
+ * par l'inférence ONNX. Ne pas l'utiliser pour l'ingestion, dont les segments ne se répètent pas
+ * et chasseraient les questions du cache.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final boolean ignoreCase;
+    private final LruCache<String, Embedding> cache;
+
+    private CachingEmbeddingModel(Builder builder) {
+        if (builder.delegate == null) {
+            throw new IllegalArgumentException("Le modèle d'embedding à mettre en cache est obligatoire");
+        }
+        this.delegate = builder.delegate;
+        this.ignoreCase = builder.ignoreCase;
+        this.cache = new LruCache<>(builder.maxSize, builder.ttl);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        return embed(TextSegment.from(text));
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        Response<List<Embedding>> response = embedAll(List.of(textSegment));
+        return Response.from(response.content().get(0), response.tokenUsage());
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        List<Embedding> embeddings = new ArrayList<>(textSegments.size());
+        // Textes absents du cache, sans doublon, dans l'ordre de la requête
+        Map<String, TextSegment> missing = new LinkedHashMap<>();
+        for (TextSegment segment : textSegments) {
+            String key = normalize(segment.text());
+            Embedding cached = missing.containsKey(key) ? null : cache.get(key);
+            if (cached == null) {
+                missing.putIfAbsent(key, segment);
+            }
+            embeddings.add(cached);
+        }
+        if (missing.isEmpty()) {
+            return Response.from(embeddings);
+        }
+
+        Response<List<Embedding>> response = delegate.embedAll(new ArrayList<>(missing.values()));
+        Map<String, Embedding> computed = new LinkedHashMap<>();
+        int i = 0;
+        for (String key : missing.keySet()) {
+            Embedding embedding = response.content().get(i++);
+            computed.put(key, embedding);
+            cache.put(key, embedding);
+        }
+        for (int j = 0; j < embeddings.size(); j++) {
+            if (embeddings.get(j) == null) {
+                embeddings.set(j, computed.get(normalize(textSegments.get(j).text())));
+            }
+        }
+        return Response.from(embeddings, response.tokenUsage());
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private String normalize(String text) {
+        return CacheKeys.normalize(text, ignoreCase);
+    }
+
+    public static class Builder {
+
+        private EmbeddingModel delegate;
+        private int maxSize = 10_000;
+        private Duration ttl = Duration.ofHours(1);
+        private boolean ignoreCase;
+
+        public Builder delegate(EmbeddingModel delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * Nombre maximal d'embeddings gardés (10 000 par défaut, environ 15 Mo en dimension 384).
+         */
+        public Builder maxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Durée de vie d'un embedding en cache (1 heure par défaut), {@code null} pour aucune limite.
+         */
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * Ignore la casse dans la clé du cache : à n'activer que pour un modèle qui met lui-même le texte
+         * en minuscules (modèle "uncased"), sinon deux textes différents partageraient un embedding.
+         */
+        public Builder ignoreCase(boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+            return this;
+        }
+
+        public CachingEmbeddingModel build() {
+            return new CachingEmbeddingModel(this);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package ma.emsi.rag.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Moteur d'embedding ONNX chargé une seule fois par JVM, avec un pool de threads d'inférence dimensionné
+ * sur les cœurs et un préchauffage au démarrage.
+ * <p>
+ * Le modèle all-MiniLM-L6-v2 garde une seule session ONNX, qui accepte des inférences concurrentes : le pool
+ * porte donc sur les threads et non sur des copies du modèle. Le modèle répartit un {@code embedAll} sur les
+ * {@code poolSize} threads, et au plus {@code poolSize} inférences s'exécutent à la fois : des centaines
+ * d'appelants simultanés attendent une place au lieu de se disputer les cœurs.
+ * <p>
+ * À la construction, un thread de fond embedde quelques phrases, une à une puis en lot, pour charger les
+ * chemins de code de l'inférence et laisser le JIT les compiler. {@link #ready()} est complété à la fin de ce
+ * préchauffage : une première vraie question a alors la latence du régime établi.
+ */
+public class PooledEmbeddingEngine implements EmbeddingModel, AutoCloseable {
+
+    private static final List<String> DEFAULT_WARM_UP_TEXTS = List.of(
+            "Qu'est-ce que la génération augmentée par récupération ?",
+            "Comment découper un document PDF en segments ?",
+            "Quelle est la différence entre un embedding et un token ?",
+            "Le modèle répond à partir des passages les plus pertinents du document.",
+            "What is retrieval-augmented generation?",
+            "Donne-moi un résumé de la section sur les bases de données vectorielles.");
+
+    private final EmbeddingModel model;
+    private final ExecutorService workers;
+    private final Semaphore permits;
+    private final int poolSize;
+    private final long loadNanos;
+    private final CompletableFuture<Void> ready;
+    private volatile String warmUpReport = "préchauffage en cours";
+
+    private PooledEmbeddingEngine(Builder builder) {
+        if (builder.poolSize <= 0) {
+            throw new IllegalArgumentException("La taille du pool doit être positive : " + builder.poolSize);
+        }
+        this.poolSize = builder.poolSize;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(poolSize, runnable -> Thread.ofPlatform()
+                .name("onnx-inference-" + threadIndex.incrementAndGet())
+                .daemon(true)
+                .unstarted(runnable));
+        this.permits = new Semaphore(poolSize, true);
+
+        long start = System.nanoTime();
+        this.model = builder.modelFactory.apply(workers);
+        this.loadNanos = System.nanoTime() - start;
+
+        List<String> warmUpTexts = List.copyOf(builder.warmUpTexts);
+        int rounds = builder.warmUpRounds;
+        this.ready = CompletableFuture.runAsync(() -> warmUp(warmUpTexts, rounds),
+                runnable -> Thread.ofPlatform().name("onnx-warm-up").daemon(true).start(runnable));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Moteur partagé par toute la JVM (all-MiniLM-L6-v2, un thread d'inférence par cœur), créé au premier appel.
+     */
+    public static PooledEmbeddingEngine shared() {
+        return Shared.INSTANCE;
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        return embed(TextSegment.from(text));
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        Response<List<Embedding>> response = embedAll(List.of(textSegment));
+        return Response.from(response.content().get(0), response.tokenUsage());
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        permits.acquireUninterruptibly();
+        try {
+            return model.embedAll(textSegments);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public int dimension() {
+        return model.dimension();
+    }
+
+    /**
+     * @return Complété à la fin du préchauffage (exceptionnellement s'il a échoué).
+     */
+    public CompletableFuture<Void> ready() {
+        return ready;
+    }
+
+    public boolean isReady() {
+        return ready.isDone() && !ready.isCompletedExceptionally();
+    }
+
+    /**
+     * Attend la fin du préchauffage.
+     *
+     * @throws IllegalStateException Si le préchauffage a échoué ou n'est pas terminé dans le délai.
+     */
+    public void awaitReady(Duration timeout) {
+        try {
+            ready.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Échec du préchauffage du modèle d'embedding", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Préchauffage du modèle d'embedding non terminé après " + timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Attente du préchauffage interrompue", e);
+        }
+    }
+
+    /**
+     * @return Temps de chargement du modèle et bilan du préchauffage.
+     */
+    public String warmUpReport() {
+        return String.format("modèle chargé en %d ms, %d threads d'inférence, %s",
+                TimeUnit.NANOSECONDS.toMillis(loadNanos), poolSize, warmUpReport);
+    }
+
+    /**
+     * Arrête les threads d'inférence : à n'appeler que pour un moteur créé par {@link #builder()}.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    private void warmUp(List<String> texts, int rounds) {
+        if (texts.isEmpty()) {
+            warmUpReport = "sans préchauffage";
+            return;
+        }
+        long start = System.nanoTime();
+        long first = 0;
+        long last = 0;
+        try {
+            List<TextSegment> segments = texts.stream().map(TextSegment::from).toList();
+            for (int round = 0; round < rounds; round++) {
+                for (TextSegment segment : segments) {
+                    long callStart = System.nanoTime();
+                    embed(segment);
+                    last = System.nanoTime() - callStart;
+                    if (first == 0) {
+                        first = last;
+                    }
+                }
+                embedAll(segments);
+            }
+        } catch (RuntimeException e) {
+            warmUpReport = "échec du préchauffage : " + e.getMessage();
+            throw new CompletionException(e);
+        }
+        warmUpReport = String.format("préchauffage en %d ms (premier embedding %.1f ms, dernier %.1f ms)",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), first / 1e6, last / 1e6);
+    }
+
+    private static final class Shared {
+        static final PooledEmbeddingEngine INSTANCE = builder().build();
+    }
+
+    public static class Builder {
+
+        private Function<Executor, EmbeddingModel> modelFactory = AllMiniLmL6V2EmbeddingModel::new;
+        private int poolSize = Runtime.getRuntime().availableProcessors();
+        private List<String> warmUpTexts = DEFAULT_WARM_UP_TEXTS;
+        private int warmUpRounds = 5;
+
+        /**
+         * Création du modèle, à partir de l'exécuteur de ses inférences (all-MiniLM-L6-v2 par défaut).
+         */
+        public Builder modelFactory(Function<Executor, EmbeddingModel> modelFactory) {
+            this.modelFactory = modelFactory;
+            return this;
+        }
+
+        /**
+         * Nombre de threads d'inférence et d'inférences simultanées (nombre de cœurs par défaut).
+         */
+        public Builder poolSize(int poolSize) {
+            this.poolSize = poolSize;
+            return this;
+        }
+
+        /**
+         * Phrases embeddées au démarrage ; une liste vide désactive le préchauffage.
+         */
+        public Builder warmUpTexts(List<String> warmUpTexts) {
+            this.warmUpTexts = warmUpTexts;
+            return this;
+        }
+
+        /**
+         * Nombre de passages sur les phrases de préchauffage (5 par défaut).
+         */
+        public Builder warmUpRounds(int warmUpRounds) {
+            this.warmUpRounds = warmUpRounds;
+            return this;
+        }
+
+        public PooledEmbeddingEngine build() {
+            return new PooledEmbeddingEngine(this);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ma.emsi.rag.index;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Écrit une entrée de l'index au fil de l'eau : les couples (segment, embedding) sont ajoutés
+ * dans des fichiers temporaires, puis rendus visibles de façon atomique par {@link #commit()}.
+ * <p>
+ * Format des fichiers :
+ * <ul>
+ *     <li>".vec" : magic, version, nombre de vecteurs, dimension, puis les floats (little-endian)</li>
+ *     <li>".seg" : magic, version, nombre de segments, puis chaque segment encodé par {@link SegmentCodec}</li>
+ * </ul>
+ */
+public class EntryWriter implements AutoCloseable {
+
+    static final int VECTORS_MAGIC = 0x52414756; // "RAGV"
+    static final int SEGMENTS_MAGIC = 0x52414753; // "RAGS"
+    static final int HEADER_SIZE = 16;
+
+    private final PersistentEmbeddingIndex index;
+    private final Path documentPath;
+    private final String key;
+    private final Path vectorsFile;
+    private final Path segmentsFile;
+    private final Path vectorsTmp;
+    private final Path segmentsTmp;
+    private final FileChannel vectors;
+    private final FileChannel segments;
+
+    private int count;
+    private int dimension = -1;
+    private boolean committed;
+
+    EntryWriter(PersistentEmbeddingIndex index, Path documentPath, String key, Path vectorsFile, Path segmentsFile) {
+        this.index = index;
+        this.documentPath = documentPath;
+        this.key = key;
+        this.vectorsFile = vectorsFile;
+        this.segmentsFile = segmentsFile;
+        try {
+            this.vectorsTmp = Files.createTempFile(vectorsFile.getParent(), key, ".vec.tmp");
+            this.segmentsTmp = Files.createTempFile(segmentsFile.getParent(), key, ".seg.tmp");
+            this.vectors = FileChannel.open(vectorsTmp, StandardOpenOption.WRITE);
+            this.segments = FileChannel.open(segmentsTmp, StandardOpenOption.WRITE);
+            // En-têtes provisoires, complétés au commit
+            vectors.write(ByteBuffer.allocate(HEADER_SIZE));
+            segments.write(ByteBuffer.allocate(HEADER_SIZE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de créer l'entrée d'index " + key, e);
+        }
+    }
+
+    public synchronized void append(TextSegment segment, Embedding embedding) {
+        float[] vector = embedding.vector();
+        if (dimension == -1) {
+            dimension = vector.length;
+        } else if (dimension != vector.length) {
+            throw new IllegalArgumentException("Dimension incohérente : " + vector.length + " au lieu de " + dimension);
+        }
+        try {
+            ByteBuffer vectorBuffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            vectorBuffer.asFloatBuffer().put(vector);
+            writeFully(vectors, vectorBuffer);
+
+            byte[] encoded = SegmentCodec.encode(segment);
+            writeFully(segments, ByteBuffer.wrap(encoded));
+            count++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Écriture de l'entrée d'index " + key + " impossible", e);
+        }
+    }
+
+    /**
+     * Finalise les en-têtes, publie les fichiers et enregistre l'entrée dans le manifeste.
+     */
+    public synchronized IndexEntry commit() {
+        try {
+            writeHeader(vectors, ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(VECTORS_MAGIC).putInt(PersistentEmbeddingIndex.FORMAT_VERSION)
+                    .putInt(count).putInt(Math.max(dimension, 0)));
+            writeHeader(segments, ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(SEGMENTS_MAGIC).putInt(PersistentEmbeddingIndex.FORMAT_VERSION)
+                    .putInt(count).putInt(0));
+            vectors.force(true);
+            segments.force(true);
+            vectors.close();
+            segments.close();
+
+            Files.move(vectorsTmp, vectorsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(segmentsTmp, segmentsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+
+            index.register(documentPath, key);
+            return IndexEntry.open(key, vectorsFile, segmentsFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Publication de l'entrée d'index " + key + " impossible", e);
+        }
+    }
+
+    /**
+     * Abandonne l'entrée si elle n'a pas été publiée.
+     */
+    @Override
+    public synchronized void close() {
+        if (committed) {
+            return;
+        }
+        try {
+            vectors.close();
+            segments.close();
+            Files.deleteIfExists(vectorsTmp);
+            Files.deleteIfExists(segmentsTmp);
+        } catch (IOException e) {
+            System.err.println("Nettoyage de l'entrée d'index " + key + " impossible : " + e.getMessage());
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, ByteBuffer header) throws IOException {
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
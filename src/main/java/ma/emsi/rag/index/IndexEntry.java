@@ -0,0 +1,129 @@
+package ma.emsi.rag.index;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Entrée de l'index projetée en mémoire : les vecteurs sont lus directement dans le fichier ".vec",
+ * les segments sont décodés depuis le fichier ".seg" à la demande.
+ */
+public class IndexEntry {
+
+    private final String key;
+    private final int size;
+    private final int dimension;
+    private final FloatBuffer vectors;
+    private final MappedByteBuffer segmentsBuffer;
+    private volatile List<TextSegment> segments;
+
+    private IndexEntry(String key, int size, int dimension, FloatBuffer vectors, MappedByteBuffer segmentsBuffer) {
+        this.key = key;
+        this.size = size;
+        this.dimension = dimension;
+        this.vectors = vectors;
+        this.segmentsBuffer = segmentsBuffer;
+    }
+
+    static IndexEntry open(String key, Path vectorsFile, Path segmentsFile) throws IOException {
+        MappedByteBuffer vectorsBuffer = map(vectorsFile);
+        vectorsBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        checkHeader(vectorsBuffer, EntryWriter.VECTORS_MAGIC, vectorsFile);
+        int size = vectorsBuffer.getInt(8);
+        int dimension = vectorsBuffer.getInt(12);
+        if (vectorsBuffer.capacity() != EntryWriter.HEADER_SIZE + (long) size * dimension * Float.BYTES) {
+            throw new IllegalStateException("Taille de fichier incohérente : " + vectorsFile.getFileName());
+        }
+
+        MappedByteBuffer segmentsBuffer = map(segmentsFile);
+        checkHeader(segmentsBuffer, EntryWriter.SEGMENTS_MAGIC, segmentsFile);
+        if (segmentsBuffer.getInt(8) != size) {
+            throw new IllegalStateException("Nombre de segments incohérent : " + segmentsFile.getFileName());
+        }
+
+        FloatBuffer vectors = vectorsBuffer.position(EntryWriter.HEADER_SIZE).slice()
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer();
+        return new IndexEntry(key, size, dimension, vectors, segmentsBuffer);
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Lit le i-ème vecteur directement depuis le fichier projeté.
+     */
+    public Embedding embedding(int i) {
+        float[] vector = new float[dimension];
+        vectors.get(i * dimension, vector);
+        return Embedding.from(vector);
+    }
+
+    public List<Embedding> embeddings() {
+        List<Embedding> embeddings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            embeddings.add(embedding(i));
+        }
+        return embeddings;
+    }
+
+    public List<TextSegment> segments() {
+        List<TextSegment> result = segments;
+        if (result == null) {
+            synchronized (this) {
+                result = segments;
+                if (result == null) {
+                    ByteBuffer buffer = segmentsBuffer.duplicate().position(EntryWriter.HEADER_SIZE);
+                    List<TextSegment> decoded = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        decoded.add(SegmentCodec.decode(buffer));
+                    }
+                    segments = result = Collections.unmodifiableList(decoded);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ajoute tous les couples (embedding, segment) de l'entrée dans un store.
+     */
+    public List<String> addTo(EmbeddingStore<TextSegment> embeddingStore) {
+        return embeddingStore.addAll(embeddings(), segments());
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static void checkHeader(ByteBuffer buffer, int magic, Path file) {
+        if (buffer.capacity() < EntryWriter.HEADER_SIZE
+                || buffer.getInt(0) != magic
+                || buffer.getInt(4) != PersistentEmbeddingIndex.FORMAT_VERSION) {
+            throw new IllegalStateException("En-tête invalide : " + file.getFileName());
+        }
+    }
+}
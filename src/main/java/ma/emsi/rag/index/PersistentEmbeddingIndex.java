@@ -0,0 +1,275 @@
+package ma.emsi.rag.index;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Index d'embeddings persistant sur disque.
+ * <p>
+ * Chaque document source correspond à une entrée identifiée par une clé calculée à partir
+ * du hash SHA-256 de son contenu, du nom du modèle d'embedding et des paramètres du découpage
+ * récursif. Au redémarrage, les vecteurs et les segments sont projetés en mémoire (memory-mapped) :
+ * ni le parsing Tika ni le calcul des embeddings ne sont relancés.
+ * <p>
+ * Un document modifié (ou des paramètres modifiés) produit une nouvelle clé : seule l'entrée
+ * de ce document est recalculée, l'ancienne est supprimée du disque.
+ */
+public class PersistentEmbeddingIndex {
+
+    static final int FORMAT_VERSION = 1;
+
+    private static final String MANIFEST_FILE = "manifest.properties";
+    private static final String MANIFEST_LOCK_FILE = "manifest.lock";
+
+    /**
+     * Les verrous de fichier sont tenus par la JVM : deux index sur le même répertoire dans une même JVM
+     * se synchronisent d'abord ici.
+     */
+    private static final Object MANIFEST_LOCK = new Object();
+
+    private final Path directory;
+    private final String embeddingModelName;
+    private final int maxSegmentSizeInChars;
+    private final int maxOverlapSizeInChars;
+
+    public PersistentEmbeddingIndex(Path directory,
+                                    String embeddingModelName,
+                                    int maxSegmentSizeInChars,
+                                    int maxOverlapSizeInChars) {
+        this.directory = directory;
+        this.embeddingModelName = embeddingModelName;
+        this.maxSegmentSizeInChars = maxSegmentSizeInChars;
+        this.maxOverlapSizeInChars = maxOverlapSizeInChars;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de créer le répertoire de l'index : " + directory, e);
+        }
+    }
+
+    /**
+     * Index utilisé par les classes de test : répertoire "rag-index", modèle all-MiniLM-L6-v2
+     * et découpage récursif (300, 30).
+     */
+    public static PersistentEmbeddingIndex defaultIndex() {
+        return new PersistentEmbeddingIndex(Paths.get("rag-index"), "all-minilm-l6-v2", 300, 30);
+    }
+
+    /**
+     * @return Le splitter correspondant aux paramètres de l'index.
+     */
+    public DocumentSplitter splitter() {
+        return DocumentSplitters.recursive(maxSegmentSizeInChars, maxOverlapSizeInChars);
+    }
+
+    /**
+     * Charge l'entrée d'un document si elle existe et correspond encore à son contenu actuel.
+     */
+    public Optional<IndexEntry> load(Path documentPath) {
+        return open(documentPath, keyOf(documentPath));
+    }
+
+    /**
+     * Charge l'entrée enregistrée pour ce document lors de sa dernière sauvegarde, même si son contenu
+     * a changé depuis : une ré-ingestion y relit les embeddings des segments conservés.
+     */
+    public Optional<IndexEntry> loadRegistered(Path documentPath) {
+        String key = readManifest().getProperty(documentPath.toAbsolutePath().normalize().toString());
+        return key == null ? Optional.empty() : open(documentPath, key);
+    }
+
+    private Optional<IndexEntry> open(Path documentPath, String key) {
+        Path vectorsFile = vectorsFile(key);
+        Path segmentsFile = segmentsFile(key);
+        if (!Files.exists(vectorsFile) || !Files.exists(segmentsFile)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(IndexEntry.open(key, vectorsFile, segmentsFile));
+        } catch (IOException | IllegalStateException e) {
+            // Entrée corrompue ou d'un ancien format : elle sera recalculée
+            System.err.println("Entrée d'index illisible pour " + documentPath.getFileName() + " : " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Ouvre un writer pour une nouvelle entrée. L'entrée n'est visible qu'après {@link EntryWriter#commit()}.
+     */
+    public EntryWriter writer(Path documentPath) {
+        String key = keyOf(documentPath);
+        return new EntryWriter(this, documentPath, key, vectorsFile(key), segmentsFile(key));
+    }
+
+    /**
+     * Enregistre les segments et embeddings d'un document.
+     */
+    public IndexEntry save(Path documentPath, List<TextSegment> segments, List<Embedding> embeddings) {
+        if (segments.size() != embeddings.size()) {
+            throw new IllegalArgumentException("Le nombre de segments et d'embeddings doit être identique");
+        }
+        try (EntryWriter writer = writer(documentPath)) {
+            for (int i = 0; i < segments.size(); i++) {
+                writer.append(segments.get(i), embeddings.get(i));
+            }
+            return writer.commit();
+        }
+    }
+
+    /**
+     * Ingère un document dans le store : depuis l'index si possible, sinon en le parsant,
+     * le découpant et en calculant ses embeddings (puis en enregistrant le résultat).
+     */
+    public EmbeddingStore<TextSegment> ingest(Path documentPath,
+                                              DocumentParser parser,
+                                              EmbeddingModel embeddingModel,
+                                              EmbeddingStore<TextSegment> embeddingStore) {
+        Optional<IndexEntry> cached = load(documentPath);
+        if (cached.isPresent()) {
+            IndexEntry entry = cached.get();
+            entry.addTo(embeddingStore);
+            System.out.println("  - " + entry.size() + " segments chargés depuis l'index");
+            return embeddingStore;
+        }
+
+        Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
+        List<TextSegment> segments = splitter().split(document);
+        System.out.println("  - " + segments.size() + " segments créés");
+
+        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+        embeddingStore.addAll(embeddings, segments);
+        save(documentPath, segments, embeddings);
+        System.out.println("  - Embeddings stockés et indexés sur disque");
+        return embeddingStore;
+    }
+
+    /**
+     * Clé d'une entrée : hash du contenu du fichier + modèle + paramètres de découpage + version du format.
+     */
+    String keyOf(Path documentPath) {
+        try (InputStream in = Files.newInputStream(documentPath)) {
+            MessageDigest contentDigest = sha256();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                contentDigest.update(buffer, 0, read);
+            }
+            String parameters = HexFormat.of().formatHex(contentDigest.digest())
+                    + "|" + embeddingModelName
+                    + "|" + maxSegmentSizeInChars
+                    + "|" + maxOverlapSizeInChars
+                    + "|" + FORMAT_VERSION;
+            byte[] key = sha256().digest(parameters.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(key, 0, 16);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de lire le document : " + documentPath, e);
+        }
+    }
+
+    /**
+     * Associe le document à sa nouvelle clé et supprime l'ancienne entrée si plus aucun document ne l'utilise.
+     * <p>
+     * La lecture-modification-écriture du manifeste se fait sous un verrou de fichier : plusieurs programmes
+     * peuvent partager le même index ({@link #defaultIndex()}) sans perdre l'enregistrement de l'un d'eux.
+     */
+    void register(Path documentPath, String key) {
+        synchronized (MANIFEST_LOCK) {
+            try (FileChannel channel = FileChannel.open(directory.resolve(MANIFEST_LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                Properties manifest = readManifest();
+                String source = documentPath.toAbsolutePath().normalize().toString();
+                String previousKey = manifest.getProperty(source);
+                manifest.setProperty(source, key);
+                writeManifest(manifest);
+
+                if (previousKey != null && !previousKey.equals(key) && !manifest.containsValue(previousKey)) {
+                    deleteQuietly(vectorsFile(previousKey));
+                    deleteQuietly(segmentsFile(previousKey));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Impossible de verrouiller le manifeste de l'index", e);
+            }
+        }
+    }
+
+    private Properties readManifest() {
+        Properties manifest = new Properties();
+        Path file = directory.resolve(MANIFEST_FILE);
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                manifest.load(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Impossible de lire le manifeste de l'index", e);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Écrit dans un fichier temporaire puis le renomme : un arrêt brutal ne laisse jamais un manifeste à moitié écrit.
+     */
+    private void writeManifest(Properties manifest) {
+        Path file = directory.resolve(MANIFEST_FILE);
+        try {
+            Path temporary = Files.createTempFile(directory, "manifest", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                manifest.store(out, "Index d'embeddings : document source -> clé d'entrée");
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'écrire le manifeste de l'index", e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Sous Windows un fichier encore projeté en mémoire ne peut pas être supprimé
+            System.err.println("Suppression impossible de " + file.getFileName() + " : " + e.getMessage());
+        }
+    }
+
+    private Path vectorsFile(String key) {
+        return directory.resolve(key + ".vec");
+    }
+
+    private Path segmentsFile(String key) {
+        return directory.resolve(key + ".seg");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
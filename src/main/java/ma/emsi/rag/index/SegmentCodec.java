@@ -0,0 +1,103 @@
+package ma.emsi.rag.index;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Encodage binaire d'un {@link TextSegment} (texte + métadonnées typées), utilisé par les fichiers ".seg"
+ * de l'index et par la table de textes hors tas d'{@code OffHeapEmbeddingStore}.
+ */
+public final class SegmentCodec {
+
+    private static final byte STRING = 'S';
+    private static final byte INTEGER = 'I';
+    private static final byte LONG = 'L';
+    private static final byte FLOAT = 'F';
+    private static final byte DOUBLE = 'D';
+    private static final byte UUID_VALUE = 'U';
+
+    private SegmentCodec() {
+    }
+
+    public static byte[] encode(TextSegment segment) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(segment.text().length() + 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeString(out, segment.text());
+            Map<String, Object> metadata = segment.metadata().toMap();
+            out.writeInt(metadata.size());
+            for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+                writeString(out, entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof Integer i) {
+                    out.writeByte(INTEGER);
+                    out.writeInt(i);
+                } else if (value instanceof Long l) {
+                    out.writeByte(LONG);
+                    out.writeLong(l);
+                } else if (value instanceof Float f) {
+                    out.writeByte(FLOAT);
+                    out.writeFloat(f);
+                } else if (value instanceof Double d) {
+                    out.writeByte(DOUBLE);
+                    out.writeDouble(d);
+                } else if (value instanceof UUID u) {
+                    out.writeByte(UUID_VALUE);
+                    out.writeLong(u.getMostSignificantBits());
+                    out.writeLong(u.getLeastSignificantBits());
+                } else {
+                    out.writeByte(STRING);
+                    writeString(out, String.valueOf(value));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Décode le segment situé à la position courante du buffer et avance celle-ci.
+     */
+    public static TextSegment decode(ByteBuffer buffer) {
+        String text = readString(buffer);
+        int metadataSize = buffer.getInt();
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        for (int i = 0; i < metadataSize; i++) {
+            String key = readString(buffer);
+            byte type = buffer.get();
+            Object value = switch (type) {
+                case INTEGER -> buffer.getInt();
+                case LONG -> buffer.getLong();
+                case FLOAT -> buffer.getFloat();
+                case DOUBLE -> buffer.getDouble();
+                case UUID_VALUE -> new UUID(buffer.getLong(), buffer.getLong());
+                case STRING -> readString(buffer);
+                default -> throw new IllegalStateException("Type de métadonnée inconnu : " + type);
+            };
+            metadata.put(key, value);
+        }
+        return TextSegment.from(text, Metadata.from(metadata));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,436 @@
+package ma.emsi.rag.ingestion;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import ma.emsi.rag.index.IndexEntry;
+import ma.emsi.rag.index.PersistentEmbeddingIndex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Ingestion incrémentale : chaque segment produit par le splitter est identifié par l'empreinte
+ * de son texte. Lors d'une ré-ingestion, seuls les segments nouveaux ou modifiés sont ré-embeddés,
+ * et les segments disparus sont retirés du store par leur identifiant.
+ * <p>
+ * {@link #watch(Path)} surveille un répertoire : les modifications des documents sont prises en
+ * compte en arrière-plan pendant que l'assistant continue de répondre.
+ */
+public class IncrementalIngestor implements AutoCloseable {
+
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final EmbeddingModel embeddingModel;
+    private final DocumentSplitter splitter;
+    private final Supplier<DocumentParser> parserFactory;
+    private final PersistentEmbeddingIndex index;
+
+    /**
+     * Identifiants des segments actuellement présents dans le store, par document puis par empreinte
+     * et position. Ni les segments ni leurs embeddings ne sont gardés sur le tas : ils vivent dans le store.
+     */
+    private final Map<Path, Map<String, String>> documents = new HashMap<>();
+    private final List<Consumer<ChangeSet>> listeners = new CopyOnWriteArrayList<>();
+
+    private final ScheduledExecutorService watcherExecutor;
+    private final Map<Path, ScheduledFuture<?>> pendingChanges = new ConcurrentHashMap<>();
+    private final Map<Path, PathMatcher> matchers = new ConcurrentHashMap<>();
+    private volatile WatchService watchService;
+
+    private IncrementalIngestor(Builder builder) {
+        if (builder.embeddingStore == null || builder.embeddingModel == null || builder.splitter == null) {
+            throw new IllegalArgumentException("embeddingStore, embeddingModel et splitter (ou index) sont obligatoires");
+        }
+        this.embeddingStore = builder.embeddingStore;
+        this.embeddingModel = builder.embeddingModel;
+        this.splitter = builder.splitter;
+        this.parserFactory = builder.parserFactory;
+        this.index = builder.index;
+        this.watcherExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rag-incremental");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Résultat d'une (ré-)ingestion.
+     *
+     * @param added      segments nouveaux ou modifiés, donc ré-embeddés (ou repris de l'index)
+     * @param moved      segments de même texte à une autre position, remplacés avec leur embedding relu
+     *                   dans l'index sous un nouvel identifiant (sans index, ils sont ré-embeddés et comptés
+     *                   dans {@code added})
+     * @param removedIds identifiants retirés du store (segments disparus et anciens identifiants des segments déplacés)
+     * @param unchanged  segments conservés sans nouveau calcul d'embedding (déplacés compris)
+     * @param embedded   segments dont l'embedding a réellement été calculé
+     */
+    public record ChangeSet(Path document, int added, int moved, List<String> removedIds, int unchanged, int embedded) {
+
+        public ChangeSet {
+            removedIds = List.copyOf(removedIds);
+        }
+
+        public int removed() {
+            return removedIds.size();
+        }
+
+        public boolean isEmpty() {
+            return added == 0 && moved == 0 && removedIds.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s : +%d / -%d segments, %d déplacés (%d inchangés, %d embeddings calculés)",
+                    document.getFileName(), added, removed() - moved, moved, unchanged, embedded);
+        }
+    }
+
+    /**
+     * Notifie un listener après chaque modification du store (par exemple pour invalider un cache).
+     */
+    public void addChangeListener(Consumer<ChangeSet> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Ingère un document ou met à jour sa version déjà présente dans le store.
+     */
+    public synchronized ChangeSet ingest(Path documentPath) {
+        Path key = documentPath.toAbsolutePath().normalize();
+        Map<String, String> previous = documents.getOrDefault(key, Map.of());
+
+        IndexEntry entry = index == null ? null : index.load(documentPath).orElse(null);
+        List<TextSegment> segments;
+        if (entry != null) {
+            segments = entry.segments();
+        } else {
+            Document document = FileSystemDocumentLoader.loadDocument(documentPath, parserFactory.get());
+            segments = splitter.split(document);
+        }
+        List<String> fingerprints = fingerprints(segments);
+
+        // Les embeddings des segments conservés sont relus dans l'entrée d'index de la version précédente,
+        // qui doit être réécrite au complet (étape 4)
+        IndexEntry previousEntry = null;
+        Map<String, Integer> previousPositions = Map.of();
+        if (index != null && entry == null && !previous.isEmpty()) {
+            previousEntry = index.loadRegistered(documentPath).orElse(null);
+            if (previousEntry != null) {
+                previousPositions = positions(fingerprints(previousEntry.segments()));
+            }
+        }
+
+        // 1. Classement des segments : inchangés, déplacés (embedding relu dans l'index) ou à embedder
+        Map<String, String> current = new HashMap<>();
+        Embedding[] embeddings = new Embedding[segments.size()];
+        List<Integer> toEmbed = new ArrayList<>();
+        List<String> newIds = new ArrayList<>();
+        List<Embedding> newEmbeddings = new ArrayList<>();
+        List<TextSegment> newSegments = new ArrayList<>();
+        int moved = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            TextSegment segment = segments.get(i);
+            String tracked = tracked(fingerprints.get(i), segment);
+            String existingId = previous.get(tracked);
+            Integer position = previousPositions.get(fingerprints.get(i));
+            if (position != null) {
+                embeddings[i] = previousEntry.embedding(position);
+            }
+            if (existingId != null && (index == null || entry != null || position != null)) {
+                current.put(tracked, existingId);
+            } else if (position != null) {
+                // Même texte mais position différente : l'embedding est réutilisé tel quel, sous un nouvel identifiant
+                moved++;
+                String id = UUID.randomUUID().toString();
+                newIds.add(id);
+                newEmbeddings.add(embeddings[i]);
+                newSegments.add(segment);
+                current.put(tracked, id);
+            } else {
+                toEmbed.add(i);
+            }
+        }
+
+        // 2. Embeddings des seuls segments nouveaux ou modifiés (repris de l'index s'il est à jour)
+        List<Embedding> computed = List.of();
+        if (entry == null && !toEmbed.isEmpty()) {
+            computed = embeddingModel.embedAll(toEmbed.stream().map(segments::get).toList()).content();
+        }
+        for (int k = 0; k < toEmbed.size(); k++) {
+            int i = toEmbed.get(k);
+            embeddings[i] = entry != null ? entry.embedding(i) : computed.get(k);
+            String id = UUID.randomUUID().toString();
+            newIds.add(id);
+            newEmbeddings.add(embeddings[i]);
+            newSegments.add(segments.get(i));
+            current.put(tracked(fingerprints.get(i), segments.get(i)), id);
+        }
+
+        // 3. Mise à jour du store en deux appels : un seul ajout (segments nouveaux et déplacés) avant une seule
+        //    suppression (segments disparus et anciennes versions des déplacés), pour ne jamais laisser de trou
+        if (!newIds.isEmpty()) {
+            embeddingStore.addAll(newIds, newEmbeddings, newSegments);
+        }
+        List<String> staleIds = new ArrayList<>();
+        previous.forEach((tracked, id) -> {
+            if (!current.containsKey(tracked)) {
+                staleIds.add(id);
+            }
+        });
+        if (!staleIds.isEmpty()) {
+            embeddingStore.removeAll(staleIds);
+        }
+        documents.put(key, current);
+
+        // 4. L'index persistant reflète la nouvelle version du document
+        if (index != null && entry == null) {
+            index.save(documentPath, segments, Arrays.asList(embeddings));
+        }
+
+        int added = newIds.size() - moved;
+        ChangeSet changes = new ChangeSet(documentPath, added, moved, staleIds,
+                segments.size() - added, computed.size());
+        notifyListeners(changes);
+        return changes;
+    }
+
+    /**
+     * Retire du store tous les segments d'un document.
+     */
+    public synchronized ChangeSet remove(Path documentPath) {
+        Map<String, String> previous = documents.remove(documentPath.toAbsolutePath().normalize());
+        if (previous == null || previous.isEmpty()) {
+            return new ChangeSet(documentPath, 0, 0, List.of(), 0, 0);
+        }
+        List<String> removedIds = List.copyOf(previous.values());
+        embeddingStore.removeAll(removedIds);
+        ChangeSet changes = new ChangeSet(documentPath, 0, 0, removedIds, 0, 0);
+        notifyListeners(changes);
+        return changes;
+    }
+
+    /**
+     * Surveille les documents déjà ingérés situés dans {@code directory}.
+     */
+    public void watch(Path directory) {
+        watch(directory, path -> false);
+    }
+
+    /**
+     * Surveille un répertoire : les documents déjà ingérés sont mis à jour ou retirés,
+     * les nouveaux fichiers acceptés par {@code newDocuments} sont ajoutés.
+     */
+    public synchronized void watch(Path directory, PathMatcher newDocuments) {
+        try {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+                Thread thread = new Thread(this::watchLoop, "rag-watch");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            matchers.put(directory.toAbsolutePath().normalize(), newDocuments);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de surveiller " + directory, e);
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = ((Path) key.watchable()).toAbsolutePath().normalize();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        continue;
+                    }
+                    Path changed = directory.resolve((Path) event.context()).normalize();
+                    if (isTracked(changed) || matchers.getOrDefault(directory, path -> false).matches(changed)) {
+                        scheduleRefresh(changed);
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Arrêt normal via close()
+        }
+    }
+
+    private synchronized boolean isTracked(Path document) {
+        return documents.containsKey(document);
+    }
+
+    /**
+     * Les éditeurs écrivent souvent un fichier en plusieurs fois : on attend que les événements se calment.
+     */
+    private void scheduleRefresh(Path document) {
+        pendingChanges.compute(document, (path, pending) -> {
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            return watcherExecutor.schedule(() -> refresh(path), DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void refresh(Path document) {
+        pendingChanges.remove(document);
+        try {
+            ChangeSet changes = Files.exists(document) ? ingest(document) : remove(document);
+            System.out.println("\n[Ingestion incrémentale] " + changes);
+        } catch (RuntimeException e) {
+            // Fichier en cours d'écriture ou illisible : il sera repris au prochain événement
+            System.err.println("[Ingestion incrémentale] Échec pour " + document.getFileName() + " : " + e.getMessage());
+        }
+    }
+
+    private void notifyListeners(ChangeSet changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (Consumer<ChangeSet> listener : listeners) {
+            listener.accept(changes);
+        }
+    }
+
+    /**
+     * Empreinte d'un segment : hash de son texte, suffixé par son rang parmi les segments de même texte
+     * (un paragraphe répété dans le document donne ainsi deux segments distincts).
+     */
+    private static List<String> fingerprints(List<TextSegment> segments) {
+        MessageDigest digest = sha256();
+        Map<String, Integer> occurrences = new HashMap<>();
+        List<String> fingerprints = new ArrayList<>(segments.size());
+        for (TextSegment segment : segments) {
+            String hash = HexFormat.of().formatHex(digest.digest(segment.text().getBytes(StandardCharsets.UTF_8)));
+            int occurrence = occurrences.merge(hash, 1, Integer::sum) - 1;
+            fingerprints.add(hash + "#" + occurrence);
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Clé de suivi d'un segment : son empreinte et ses métadonnées (position), pour distinguer un segment
+     * inchangé d'un segment déplacé.
+     */
+    private static String tracked(String fingerprint, TextSegment segment) {
+        return fingerprint + "@" + Integer.toHexString(segment.metadata().hashCode());
+    }
+
+    private static Map<String, Integer> positions(List<String> fingerprints) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < fingerprints.size(); i++) {
+            positions.put(fingerprints.get(i), i);
+        }
+        return positions;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        watcherExecutor.shutdownNow();
+        WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                System.err.println("Fermeture de la surveillance impossible : " + e.getMessage());
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private EmbeddingStore<TextSegment> embeddingStore;
+        private EmbeddingModel embeddingModel;
+        private DocumentSplitter splitter;
+        private Supplier<DocumentParser> parserFactory = ApacheTikaDocumentParser::new;
+        private PersistentEmbeddingIndex index;
+
+        /**
+         * Store mis à jour : il doit supporter l'ajout avec identifiants et la suppression par identifiant.
+         */
+        public Builder embeddingStore(EmbeddingStore<TextSegment> embeddingStore) {
+            this.embeddingStore = embeddingStore;
+            return this;
+        }
+
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        public Builder splitter(DocumentSplitter splitter) {
+            this.splitter = splitter;
+            return this;
+        }
+
+        public Builder parser(Supplier<DocumentParser> parserFactory) {
+            this.parserFactory = parserFactory;
+            return this;
+        }
+
+        /**
+         * Index persistant : un document inchangé depuis le dernier démarrage n'est ni parsé ni embeddé.
+         */
+        public Builder index(PersistentEmbeddingIndex index) {
+            this.index = index;
+            this.splitter = index.splitter();
+            return this;
+        }
+
+        public IncrementalIngestor build() {
+            return new IncrementalIngestor(this);
+        }
+    }
+}
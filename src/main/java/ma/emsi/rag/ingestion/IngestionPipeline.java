@@ -0,0 +1,653 @@
+package ma.emsi.rag.ingestion;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import ma.emsi.rag.index.EntryWriter;
+import ma.emsi.rag.index.IndexEntry;
+import ma.emsi.rag.index.PersistentEmbeddingIndex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Pipeline d'ingestion parallèle : parsing Tika → découpage → embeddings ONNX par lots → stockage.
+ * <p>
+ * Les étages communiquent par des files bornées : quand un étage est saturé, l'étage précédent
+ * se bloque (pression en retour) au lieu d'accumuler des documents en mémoire.
+ * Le parsing s'exécute sur un pool de threads, les embeddings sont calculés par micro-lots
+ * dimensionnés sur le nombre de cœurs, et un seul thread alimente les stores (et l'index persistant).
+ * <p>
+ * Les fichiers au-delà de {@code pageStreamingThreshold} octets sont lus page par page ({@link PageStreamingParser}) :
+ * chaque page est découpée dès sa lecture, avec une numérotation continue des segments et le numéro de page en
+ * métadonnée, et ses micro-lots partent à l'embedding pendant que le parsing continue. Le texte entier du document
+ * n'est jamais construit, et la file de découpage borne le nombre de pages lues d'avance. Si une page ou un lot
+ * échoue, les segments du document déjà insérés sont retirés du store.
+ */
+public class IngestionPipeline {
+
+    private static final ParsedDocument END_OF_DOCUMENTS = new ParsedDocument(null, null, true, null);
+    private static final SegmentBatch END_OF_BATCHES = new SegmentBatch(null, List.of(), 0, null);
+    private static final EmbeddedBatch END_OF_EMBEDDINGS = new EmbeddedBatch(null, List.of(), List.of(), 0, false, null);
+
+    private final Supplier<DocumentParser> parserFactory;
+    private final PageStreamingParser pageParser;
+    private final long pageStreamingThreshold;
+    private final DocumentSplitter splitter;
+    private final EmbeddingModel embeddingModel;
+    private final PersistentEmbeddingIndex index;
+    private final int parserThreads;
+    private final int embeddingThreads;
+    private final int batchSize;
+    private final int queueCapacity;
+
+    private IngestionPipeline(Builder builder) {
+        if (builder.embeddingModel == null) {
+            throw new IllegalArgumentException("embeddingModel est obligatoire");
+        }
+        if (builder.splitter == null) {
+            throw new IllegalArgumentException("splitter (ou index) est obligatoire");
+        }
+        this.parserFactory = builder.parserFactory;
+        this.pageParser = builder.pageParser;
+        this.pageStreamingThreshold = builder.pageStreamingThreshold;
+        this.splitter = builder.splitter;
+        this.embeddingModel = builder.embeddingModel;
+        this.index = builder.index;
+        this.parserThreads = builder.parserThreads;
+        this.embeddingThreads = builder.embeddingThreads;
+        this.batchSize = builder.batchSize;
+        this.queueCapacity = builder.queueCapacity;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Ingère tous les documents dans un même store.
+     */
+    public IngestionReport ingest(Collection<Path> documents, EmbeddingStore<TextSegment> embeddingStore) {
+        return ingest(documents, path -> embeddingStore);
+    }
+
+    /**
+     * Ingère les documents, chacun dans le store choisi par {@code storeOf}.
+     */
+    public IngestionReport ingest(Collection<Path> documents, Function<Path, EmbeddingStore<TextSegment>> storeOf) {
+        return new Run(documents, storeOf).execute();
+    }
+
+    /**
+     * Liste les fichiers d'un répertoire ayant l'une des extensions données (par exemple "pdf").
+     */
+    public static List<Path> listDocuments(Path directory, String... extensions) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> hasExtension(file, extensions))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de lister " + directory, e);
+        }
+    }
+
+    private static boolean hasExtension(Path file, String... extensions) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String extension : extensions) {
+            if (name.endsWith("." + extension.toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return extensions.length == 0;
+    }
+
+    /**
+     * Document entier, ou page d'un document lu page par page ; {@code last} clôt le document
+     * (sans texte pour la fin d'une lecture page par page, avec l'erreur éventuelle du parsing).
+     */
+    private record ParsedDocument(Path path, Document document, boolean last, Throwable error) {
+    }
+
+    /**
+     * Micro-lot de segments ; {@code batchCount} vaut 0 tant que le nombre de lots du document n'est pas connu,
+     * et le dernier lot porte le total.
+     */
+    private record SegmentBatch(Path path, List<TextSegment> segments, int batchCount, Throwable error) {
+    }
+
+    private record EmbeddedBatch(Path path,
+                                 List<TextSegment> segments,
+                                 List<Embedding> embeddings,
+                                 int batchCount,
+                                 boolean fromIndex,
+                                 Throwable error) {
+    }
+
+    /**
+     * Avancement d'un document dans l'étage de stockage.
+     */
+    private static class DocumentProgress {
+        int batchesReceived;
+        int batchesExpected;
+        boolean failed;
+        EntryWriter writer;
+        // Identifiants des segments déjà insérés, retirés du store si le document échoue
+        List<String> storedIds = new ArrayList<>();
+    }
+
+    /**
+     * Découpage en cours d'un document, dans l'étage de découpage.
+     */
+    private static class SplitProgress {
+        List<TextSegment> pending = new ArrayList<>();
+        int nextIndex;
+        int batchesSent;
+        Throwable error;
+    }
+
+    /**
+     * Une exécution du pipeline : files, threads et compteurs propres à un appel de {@link #ingest}.
+     */
+    private class Run {
+
+        private final Collection<Path> documents;
+        private final Function<Path, EmbeddingStore<TextSegment>> storeOf;
+
+        private final BlockingQueue<ParsedDocument> splitQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<SegmentBatch> embedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<EmbeddedBatch> storeQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        private final StageStats parseStats = new StageStats("parsing");
+        private final StageStats splitStats = new StageStats("découpage");
+        private final StageStats embedStats = new StageStats("embedding");
+        private final StageStats storeStats = new StageStats("stockage");
+
+        private final Map<Path, Throwable> failures = new ConcurrentHashMap<>();
+        private final AtomicInteger documentsDone = new AtomicInteger();
+        private final AtomicInteger documentsFromIndex = new AtomicInteger();
+        private final AtomicLong segmentsStored = new AtomicLong();
+
+        private final ThreadLocal<DocumentParser> parsers;
+
+        Run(Collection<Path> documents, Function<Path, EmbeddingStore<TextSegment>> storeOf) {
+            this.documents = documents;
+            this.storeOf = storeOf;
+            this.parsers = ThreadLocal.withInitial(parserFactory);
+        }
+
+        IngestionReport execute() {
+            long start = System.nanoTime();
+            ExecutorService parsePool = Executors.newFixedThreadPool(parserThreads, threadFactory("rag-parse"));
+            List<Thread> threads = new ArrayList<>();
+            threads.add(startThread("rag-split", this::splitLoop));
+            for (int i = 0; i < embeddingThreads; i++) {
+                threads.add(startThread("rag-embed-" + i, this::embedLoop));
+            }
+            Thread storeThread = startThread("rag-store", this::storeLoop);
+            threads.add(storeThread);
+
+            boolean completed = false;
+            try {
+                List<Future<?>> parseTasks = new ArrayList<>();
+                for (Path document : documents) {
+                    parseTasks.add(parsePool.submit(() -> {
+                        parse(document);
+                        return null;
+                    }));
+                }
+                for (Future<?> task : parseTasks) {
+                    task.get();
+                }
+                splitQueue.put(END_OF_DOCUMENTS);
+                storeThread.join();
+                completed = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ingestion interrompue", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Erreur inattendue pendant le parsing", e.getCause());
+            } finally {
+                parsePool.shutdownNow();
+                if (!completed) {
+                    // Sans marque de fin, les étages resteraient bloqués sur leur file jusqu'à l'arrêt de la JVM
+                    threads.forEach(Thread::interrupt);
+                }
+            }
+
+            return new IngestionReport(
+                    documentsDone.get(),
+                    documentsFromIndex.get(),
+                    segmentsStored.get(),
+                    System.nanoTime() - start,
+                    List.of(parseStats, splitStats, embedStats, storeStats),
+                    failures);
+        }
+
+        /**
+         * Étage 1 : parsing Tika (ou chargement direct depuis l'index persistant).
+         */
+        private void parse(Path path) throws InterruptedException {
+            try {
+                if (index != null) {
+                    Optional<IndexEntry> cached = index.load(path);
+                    if (cached.isPresent()) {
+                        IndexEntry entry = cached.get();
+                        documentsFromIndex.incrementAndGet();
+                        put(storeQueue, new EmbeddedBatch(path, entry.segments(), entry.embeddings(), 1, true, null),
+                                parseStats);
+                        return;
+                    }
+                }
+                if (Files.size(path) >= pageStreamingThreshold) {
+                    parsePages(path);
+                    return;
+                }
+                long t0 = System.nanoTime();
+                Document document = FileSystemDocumentLoader.loadDocument(path, parsers.get());
+                parseStats.record(1, System.nanoTime() - t0);
+                put(splitQueue, new ParsedDocument(path, document, true, null), parseStats);
+            } catch (IOException e) {
+                failures.put(path, new UncheckedIOException(e));
+            } catch (RuntimeException e) {
+                failures.put(path, e);
+            }
+        }
+
+        /**
+         * Parsing page par page : chaque page part au découpage dès sa lecture, puis une marque de fin clôt le document.
+         */
+        private void parsePages(Path path) throws InterruptedException {
+            Metadata fileMetadata = new Metadata()
+                    .put(Document.FILE_NAME, path.getFileName().toString())
+                    .put(Document.ABSOLUTE_DIRECTORY_PATH, path.toAbsolutePath().getParent().toString());
+            long t0 = System.nanoTime();
+            Throwable error = null;
+            try {
+                pageParser.parse(path, (pageNumber, text) -> put(splitQueue, new ParsedDocument(path,
+                        Document.from(text, fileMetadata.copy().put(PageStreamingParser.PAGE_NUMBER, pageNumber)),
+                        false, null), parseStats));
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            parseStats.record(1, System.nanoTime() - t0);
+            put(splitQueue, new ParsedDocument(path, null, true, error), parseStats);
+        }
+
+        /**
+         * Étage 2 : découpage en segments puis regroupement en micro-lots. Les pages d'un même document sont
+         * découpées à mesure qu'elles arrivent : un lot plein part dès qu'un segment suivant existe, et le dernier
+         * lot, qui porte le nombre total de lots, part à la fin du document.
+         */
+        private void splitLoop() throws InterruptedException {
+            Map<Path, SplitProgress> inProgress = new HashMap<>();
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    ParsedDocument parsed = splitQueue.take();
+                    if (parsed == END_OF_DOCUMENTS) {
+                        return;
+                    }
+                    SplitProgress progress = inProgress.computeIfAbsent(parsed.path(), path -> new SplitProgress());
+                    if (parsed.error() != null && progress.error == null) {
+                        progress.error = parsed.error();
+                    }
+                    if (parsed.document() != null && progress.error == null) {
+                        try {
+                            split(parsed, progress);
+                        } catch (RuntimeException e) {
+                            progress.error = e;
+                        }
+                    }
+                    if (parsed.last()) {
+                        inProgress.remove(parsed.path());
+                        // Après une erreur, les segments en attente sont abandonnés : le lot final ne porte que l'erreur
+                        List<TextSegment> batch = progress.error == null ? progress.pending : List.of();
+                        put(embedQueue, new SegmentBatch(parsed.path(), batch, progress.batchesSent + 1, progress.error),
+                                splitStats);
+                    }
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+                throw e;
+            } finally {
+                // Interrompu, les étages suivants le sont aussi : une marque de fin bloquerait sur une file pleine
+                if (!interrupted) {
+                    for (int i = 0; i < embeddingThreads; i++) {
+                        embedQueue.put(END_OF_BATCHES);
+                    }
+                }
+            }
+        }
+
+        private void split(ParsedDocument parsed, SplitProgress progress) throws InterruptedException {
+            long t0 = System.nanoTime();
+            List<TextSegment> segments = splitter.split(parsed.document());
+            splitStats.record(segments.size(), System.nanoTime() - t0);
+            // Le splitter numérote les segments de chaque page à partir de 0 : numérotation continue sur le document
+            boolean paged = parsed.document().metadata().containsKey(PageStreamingParser.PAGE_NUMBER);
+            for (TextSegment segment : segments) {
+                if (progress.pending.size() == batchSize) {
+                    put(embedQueue, new SegmentBatch(parsed.path(), progress.pending, 0, null), splitStats);
+                    progress.pending = new ArrayList<>(batchSize);
+                    progress.batchesSent++;
+                }
+                progress.pending.add(paged
+                        ? TextSegment.from(segment.text(),
+                                segment.metadata().copy().put("index", String.valueOf(progress.nextIndex)))
+                        : segment);
+                progress.nextIndex++;
+            }
+        }
+
+        /**
+         * Étage 3 : calcul des embeddings d'un micro-lot (un appel embedAll par lot).
+         */
+        private void embedLoop() throws InterruptedException {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    SegmentBatch batch = embedQueue.take();
+                    if (batch == END_OF_BATCHES) {
+                        return;
+                    }
+                    EmbeddedBatch embedded;
+                    if (batch.error() != null) {
+                        put(storeQueue, new EmbeddedBatch(batch.path(), List.of(), List.of(), batch.batchCount(),
+                                false, batch.error()), embedStats);
+                        continue;
+                    }
+                    try {
+                        long t0 = System.nanoTime();
+                        List<Embedding> embeddings = batch.segments().isEmpty()
+                                ? List.of()
+                                : embeddingModel.embedAll(batch.segments()).content();
+                        embedStats.record(batch.segments().size(), System.nanoTime() - t0);
+                        embedded = new EmbeddedBatch(batch.path(), batch.segments(), embeddings,
+                                batch.batchCount(), false, null);
+                    } catch (RuntimeException e) {
+                        embedded = new EmbeddedBatch(batch.path(), List.of(), List.of(), batch.batchCount(), false, e);
+                    }
+                    put(storeQueue, embedded, embedStats);
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+                throw e;
+            } finally {
+                if (!interrupted) {
+                    storeQueue.put(END_OF_EMBEDDINGS);
+                }
+            }
+        }
+
+        /**
+         * Étage 4 : insertion dans le store et écriture de l'entrée d'index du document.
+         */
+        private void storeLoop() throws InterruptedException {
+            Map<Path, DocumentProgress> inProgress = new HashMap<>();
+            int finishedWorkers = 0;
+            try {
+                while (finishedWorkers < embeddingThreads) {
+                    EmbeddedBatch batch = storeQueue.take();
+                    if (batch == END_OF_EMBEDDINGS) {
+                        finishedWorkers++;
+                        continue;
+                    }
+                    DocumentProgress progress = inProgress.computeIfAbsent(batch.path(), path -> new DocumentProgress());
+                    progress.batchesReceived++;
+                    if (batch.batchCount() > 0) {
+                        progress.batchesExpected = batch.batchCount();
+                    }
+                    if (batch.error() != null) {
+                        fail(progress, batch.path(), batch.error());
+                    } else if (!progress.failed) {
+                        store(batch, progress);
+                    }
+                    if (progress.batchesReceived == progress.batchesExpected) {
+                        inProgress.remove(batch.path());
+                        finish(batch.path(), progress);
+                    }
+                }
+            } finally {
+                // Documents inachevés (lot perdu en amont, ou ingestion interrompue) : l'entrée d'index est abandonnée
+                // et leurs segments déjà insérés sont retirés du store
+                inProgress.forEach((path, progress) -> {
+                    if (progress.writer != null) {
+                        progress.writer.close();
+                    }
+                    rollback(path, progress, null);
+                });
+            }
+        }
+
+        private void store(EmbeddedBatch batch, DocumentProgress progress) {
+            try {
+                long t0 = System.nanoTime();
+                if (!batch.segments().isEmpty()) {
+                    progress.storedIds.addAll(storeOf.apply(batch.path()).addAll(batch.embeddings(), batch.segments()));
+                }
+                if (index != null && !batch.fromIndex()) {
+                    if (progress.writer == null) {
+                        progress.writer = index.writer(batch.path());
+                    }
+                    for (int i = 0; i < batch.segments().size(); i++) {
+                        progress.writer.append(batch.segments().get(i), batch.embeddings().get(i));
+                    }
+                }
+                segmentsStored.addAndGet(batch.segments().size());
+                storeStats.record(batch.segments().size(), System.nanoTime() - t0);
+            } catch (RuntimeException e) {
+                fail(progress, batch.path(), e);
+            }
+        }
+
+        private void finish(Path path, DocumentProgress progress) {
+            if (progress.failed) {
+                if (progress.writer != null) {
+                    progress.writer.close();
+                }
+                return;
+            }
+            try {
+                if (progress.writer != null) {
+                    progress.writer.commit();
+                }
+                documentsDone.incrementAndGet();
+            } catch (RuntimeException e) {
+                progress.writer.close();
+                failures.put(path, e);
+                rollback(path, progress, e);
+            }
+        }
+
+        /**
+         * Marque le document en échec et retire du store ses segments déjà insérés : un document en échec n'est
+         * pas consultable à moitié, et une nouvelle tentative n'y ajoute pas de doublons.
+         */
+        private void fail(DocumentProgress progress, Path path, Throwable error) {
+            progress.failed = true;
+            failures.putIfAbsent(path, error);
+            rollback(path, progress, error);
+        }
+
+        private void rollback(Path path, DocumentProgress progress, Throwable error) {
+            if (progress.storedIds.isEmpty()) {
+                return;
+            }
+            try {
+                storeOf.apply(path).removeAll(progress.storedIds);
+                segmentsStored.addAndGet(-progress.storedIds.size());
+            } catch (RuntimeException e) {
+                if (error != null) {
+                    error.addSuppressed(e);
+                } else {
+                    failures.putIfAbsent(path, e);
+                }
+            }
+            progress.storedIds = new ArrayList<>();
+        }
+
+        private <T> void put(BlockingQueue<T> queue, T item, StageStats producer) throws InterruptedException {
+            if (!queue.offer(item)) {
+                long t0 = System.nanoTime();
+                queue.put(item);
+                producer.blocked(System.nanoTime() - t0);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Loop {
+        void run() throws InterruptedException;
+    }
+
+    private static Thread startThread(String name, Loop loop) {
+        Thread thread = new Thread(() -> {
+            try {
+                loop.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public static class Builder {
+
+        private Supplier<DocumentParser> parserFactory = ApacheTikaDocumentParser::new;
+        private PageStreamingParser pageParser = new PageStreamingParser();
+        private long pageStreamingThreshold = 32L * 1024 * 1024;
+        private DocumentSplitter splitter;
+        private EmbeddingModel embeddingModel;
+        private PersistentEmbeddingIndex index;
+        private int parserThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int embeddingThreads = 2;
+        private int batchSize = Runtime.getRuntime().availableProcessors() * 4;
+        private int queueCapacity = 16;
+
+        /**
+         * Fabrique de parsers : chaque thread de parsing utilise sa propre instance.
+         */
+        public Builder parser(Supplier<DocumentParser> parserFactory) {
+            this.parserFactory = parserFactory;
+            return this;
+        }
+
+        /**
+         * Parser des fichiers lus page par page.
+         */
+        public Builder pageParser(PageStreamingParser pageParser) {
+            this.pageParser = pageParser;
+            return this;
+        }
+
+        /**
+         * Taille en octets à partir de laquelle un fichier est lu page par page (32 Mo par défaut) ;
+         * 0 pour tous les fichiers, {@code Long.MAX_VALUE} pour aucun.
+         */
+        public Builder pageStreamingThreshold(long pageStreamingThreshold) {
+            if (pageStreamingThreshold < 0) {
+                throw new IllegalArgumentException("pageStreamingThreshold ne peut pas être négatif");
+            }
+            this.pageStreamingThreshold = pageStreamingThreshold;
+            return this;
+        }
+
+        public Builder splitter(DocumentSplitter splitter) {
+            this.splitter = splitter;
+            return this;
+        }
+
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /**
+         * Index persistant consulté avant le parsing et alimenté après le calcul des embeddings.
+         * Le splitter de l'index est utilisé afin que les clés restent cohérentes.
+         */
+        public Builder index(PersistentEmbeddingIndex index) {
+            this.index = index;
+            this.splitter = index.splitter();
+            return this;
+        }
+
+        public Builder parserThreads(int parserThreads) {
+            this.parserThreads = requirePositive(parserThreads, "parserThreads");
+            return this;
+        }
+
+        public Builder embeddingThreads(int embeddingThreads) {
+            this.embeddingThreads = requirePositive(embeddingThreads, "embeddingThreads");
+            return this;
+        }
+
+        /**
+         * Nombre de segments par appel à {@code embedAll}.
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = requirePositive(batchSize, "batchSize");
+            return this;
+        }
+
+        /**
+         * Capacité de chacune des files entre les étages.
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = requirePositive(queueCapacity, "queueCapacity");
+            return this;
+        }
+
+        public IngestionPipeline build() {
+            return new IngestionPipeline(this);
+        }
+
+        private static int requirePositive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " doit être strictement positif");
+            }
+            return value;
+        }
+    }
+}
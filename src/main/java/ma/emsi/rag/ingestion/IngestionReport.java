@@ -0,0 +1,70 @@
+package ma.emsi.rag.ingestion;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bilan d'une ingestion : documents et segments traités, documents en échec et statistiques par étage.
+ */
+public class IngestionReport {
+
+    private final int documents;
+    private final int documentsFromIndex;
+    private final long segments;
+    private final long elapsedNanos;
+    private final List<StageStats> stages;
+    private final Map<Path, Throwable> failures;
+
+    IngestionReport(int documents,
+                    int documentsFromIndex,
+                    long segments,
+                    long elapsedNanos,
+                    List<StageStats> stages,
+                    Map<Path, Throwable> failures) {
+        this.documents = documents;
+        this.documentsFromIndex = documentsFromIndex;
+        this.segments = segments;
+        this.elapsedNanos = elapsedNanos;
+        this.stages = List.copyOf(stages);
+        this.failures = Map.copyOf(failures);
+    }
+
+    public int documents() {
+        return documents;
+    }
+
+    public int documentsFromIndex() {
+        return documentsFromIndex;
+    }
+
+    public long segments() {
+        return segments;
+    }
+
+    public long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public List<StageStats> stages() {
+        return stages;
+    }
+
+    public Map<Path, Throwable> failures() {
+        return failures;
+    }
+
+    /**
+     * Affiche le bilan dans la console.
+     */
+    public void print() {
+        System.out.printf("  - %d document(s) ingéré(s) dont %d depuis l'index, %d segments en %d ms%n",
+                documents, documentsFromIndex, segments, elapsedMillis());
+        for (StageStats stage : stages) {
+            System.out.printf("    %s (%.1f/s)%n", stage, stage.throughput(elapsedNanos));
+        }
+        failures.forEach((path, error) ->
+                System.err.println("  - Échec de l'ingestion de " + path.getFileName() + " : " + error.getMessage()));
+    }
+}
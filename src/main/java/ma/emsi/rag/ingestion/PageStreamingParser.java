@@ -0,0 +1,158 @@
+package ma.emsi.rag.ingestion;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Parsing Tika page par page : le texte de chaque page est transmis dès la fin de la page, sans construire
+ * le texte du document entier.
+ * <p>
+ * Pour un PDF, Tika produit un flux XHTML où chaque page est un {@code <div class="page">} ; un gestionnaire SAX
+ * accumule le texte de la page en cours et le remet à un {@link PageListener} à la fermeture de la page. Seule
+ * la page courante est gardée en mémoire, et un écouteur qui se bloque (file pleine en aval) suspend le parsing.
+ * Les formats sans pages (texte, Word...) sont transmis comme une seule page à la fin du document.
+ */
+public class PageStreamingParser {
+
+    /**
+     * Métadonnée du numéro de page (à partir de 1) portée par les segments d'un document lu page par page.
+     */
+    public static final String PAGE_NUMBER = "page_number";
+
+    private static final Set<String> BLOCK_ELEMENTS = Set.of("p", "div", "li", "tr", "br",
+            "h1", "h2", "h3", "h4", "h5", "h6");
+
+    private final Supplier<Parser> parserFactory;
+
+    public PageStreamingParser() {
+        this(AutoDetectParser::new);
+    }
+
+    public PageStreamingParser(Supplier<Parser> parserFactory) {
+        this.parserFactory = parserFactory;
+    }
+
+    /**
+     * Reçoit le texte d'une page (numérotée à partir de 1). Les pages sans texte ne sont pas transmises,
+     * mais comptent dans la numérotation.
+     */
+    @FunctionalInterface
+    public interface PageListener {
+        void page(int pageNumber, String text) throws InterruptedException;
+    }
+
+    /**
+     * Parse le fichier en transmettant ses pages au fil de l'eau.
+     *
+     * @return Nombre de pages lues.
+     * @throws IllegalStateException Si Tika ne peut pas parser le fichier.
+     */
+    public int parse(Path path, PageListener listener) throws InterruptedException {
+        PageHandler handler = new PageHandler(listener);
+        Metadata metadata = new Metadata();
+        // TikaInputStream sur le fichier : PDFBox lit le fichier directement au lieu d'en copier le flux
+        try (InputStream in = TikaInputStream.get(path, metadata)) {
+            parserFactory.get().parse(in, handler, metadata, new ParseContext());
+            handler.flushRemaining();
+        } catch (PageListenerInterrupted e) {
+            throw e.interruption;
+        } catch (SAXException | TikaException e) {
+            throw new IllegalStateException("Impossible de parser " + path, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de lire " + path, e);
+        }
+        return handler.pageNumber;
+    }
+
+    /**
+     * Interruption de l'écouteur, transportée à travers le parser (qui n'accepte que des SAXException).
+     */
+    private static class PageListenerInterrupted extends SAXException {
+
+        final InterruptedException interruption;
+
+        PageListenerInterrupted(InterruptedException interruption) {
+            super(interruption);
+            this.interruption = interruption;
+        }
+    }
+
+    private static class PageHandler extends DefaultHandler {
+
+        private final PageListener listener;
+        private final StringBuilder text = new StringBuilder();
+        private int depth;
+        private int pageDepth = -1;
+        private int pageNumber;
+
+        PageHandler(PageListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            depth++;
+            // Le texte éventuel avant la première page (en-tête du document) reste rattaché à celle-ci
+            if (pageDepth < 0 && "div".equals(localName) && "page".equals(attributes.getValue("class"))) {
+                pageDepth = depth;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (depth == pageDepth) {
+                pageDepth = -1;
+                emit(++pageNumber);
+            } else if (BLOCK_ELEMENTS.contains(localName) && !text.isEmpty() && text.charAt(text.length() - 1) != '\n') {
+                text.append('\n');
+            }
+            depth--;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        /**
+         * Texte restant après la dernière page, ou document entier pour un format sans pages.
+         */
+        void flushRemaining() throws SAXException {
+            if (!text.isEmpty() && !text.toString().isBlank()) {
+                emit(pageNumber == 0 ? ++pageNumber : pageNumber);
+            }
+        }
+
+        private void emit(int number) throws SAXException {
+            String page = text.toString().strip();
+            text.setLength(0);
+            if (page.isEmpty()) {
+                return;
+            }
+            try {
+                listener.page(number, page);
+            } catch (InterruptedException e) {
+                throw new PageListenerInterrupted(e);
+            }
+        }
+    }
+}
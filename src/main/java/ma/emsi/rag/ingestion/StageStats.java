@@ -0,0 +1,58 @@
+package ma.emsi.rag.ingestion;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compteurs d'un étage du pipeline : éléments traités, temps de travail cumulé des threads
+ * et temps passé bloqué sur la file de sortie (pression en retour de l'étage suivant).
+ */
+public class StageStats {
+
+    private final String name;
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+
+    StageStats(String name) {
+        this.name = name;
+    }
+
+    void record(long count, long nanos) {
+        items.addAndGet(count);
+        busyNanos.addAndGet(nanos);
+    }
+
+    void blocked(long nanos) {
+        blockedNanos.addAndGet(nanos);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public long items() {
+        return items.get();
+    }
+
+    public long busyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+    }
+
+    public long blockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+    }
+
+    /**
+     * @return Débit de l'étage rapporté à la durée totale de l'ingestion (éléments par seconde).
+     */
+    public double throughput(long elapsedNanos) {
+        return elapsedNanos == 0 ? 0 : items.get() * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-10s %7d éléments, travail %6d ms, bloqué %6d ms",
+                name, items(), busyMillis(), blockedMillis());
+    }
+}
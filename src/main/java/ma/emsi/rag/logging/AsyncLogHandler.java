@@ -0,0 +1,233 @@
+package ma.emsi.rag.logging;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Handler java.util.logging asynchrone : le thread qui journalise ne fait que déposer l'enregistrement dans une
+ * file bornée ; un thread dédié les formate et les écrit par paquets.
+ * <p>
+ * File pleine, l'enregistrement est abandonné plutôt que de ralentir l'appelant, et le nombre de pertes est
+ * signalé dans le journal dès que la file se libère. Le dernier quart de la file est réservé aux niveaux
+ * {@code INFO} et au-delà : un flot de logs de débogage ne fait pas perdre les avertissements.
+ * <p>
+ * Les enregistrements de débogage (niveau inférieur à {@code INFO}, dont les requêtes et réponses complètes
+ * des modèles) sont échantillonnés selon {@code debugSampleRate}, et les messages plus longs que
+ * {@code maxMessageLength} sont tronqués avant l'écriture.
+ */
+public class AsyncLogHandler extends Handler {
+
+    private static final int DRAIN_SIZE = 256;
+
+    private final PrintStream out;
+    private final BlockingQueue<LogRecord> queue;
+    private final int debugHeadroom;
+    private final double debugSampleRate;
+    private final int maxMessageLength;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+    private long reportedDropped;
+
+    private AsyncLogHandler(Builder builder) {
+        if (builder.queueCapacity <= 0) {
+            throw new IllegalArgumentException("La capacité de la file doit être positive : " + builder.queueCapacity);
+        }
+        if (builder.debugSampleRate < 0 || builder.debugSampleRate > 1) {
+            throw new IllegalArgumentException("Le taux d'échantillonnage doit être entre 0 et 1 : "
+                    + builder.debugSampleRate);
+        }
+        this.out = builder.out;
+        this.queue = new ArrayBlockingQueue<>(builder.queueCapacity);
+        this.debugHeadroom = builder.queueCapacity / 4;
+        this.debugSampleRate = builder.debugSampleRate;
+        this.maxMessageLength = builder.maxMessageLength;
+        setLevel(builder.level);
+        setFormatter(new SimpleFormatter());
+        this.writer = Thread.ofPlatform()
+                .name("async-log-writer")
+                .daemon(true)
+                .start(this::write);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        boolean debug = record.getLevel().intValue() < Level.INFO.intValue();
+        if (debug && debugSampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= debugSampleRate) {
+            sampledOut.increment();
+            return;
+        }
+        // La classe appelante est déduite de la pile à la première demande : il faut le faire ici, sur le
+        // thread qui journalise, le thread d'écriture n'ayant plus l'appelant dans sa pile
+        record.getSourceClassName();
+        if ((!debug || queue.remainingCapacity() > debugHeadroom) && queue.offer(record)) {
+            published.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Attend (au plus une seconde) que les enregistrements déjà en file soient écrits.
+     */
+    @Override
+    public void flush() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (!queue.isEmpty() && writer.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        out.flush();
+    }
+
+    /**
+     * Écrit les enregistrements en file puis arrête le thread d'écriture.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Enregistrements écrits, perdus (file pleine), écartés par l'échantillonnage et tronqués.
+     */
+    public String stats() {
+        return String.format("%d enregistrés, %d perdus (file pleine), %d écartés par échantillonnage, %d tronqués",
+                published.sum(), dropped.sum(), sampledOut.sum(), truncated.sum());
+    }
+
+    private void write() {
+        List<LogRecord> batch = new ArrayList<>(DRAIN_SIZE);
+        StringBuilder text = new StringBuilder();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                LogRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                if (queue.isEmpty()) {
+                    break;
+                }
+            }
+            queue.drainTo(batch, DRAIN_SIZE - batch.size());
+            for (LogRecord record : batch) {
+                text.append(format(record));
+            }
+            appendDropped(text);
+            out.print(text);
+            out.flush();
+            text.setLength(0);
+            batch.clear();
+        }
+    }
+
+    private String format(LogRecord record) {
+        try {
+            String message = getFormatter().formatMessage(record);
+            if (maxMessageLength > 0 && message.length() > maxMessageLength) {
+                truncated.increment();
+                message = message.substring(0, maxMessageLength)
+                        + "… [" + (message.length() - maxMessageLength) + " caractères tronqués]";
+            }
+            // L'enregistrement n'appartient plus qu'à ce handler : il reçoit le message déjà formaté
+            record.setMessage(message);
+            record.setParameters(null);
+            return getFormatter().format(record);
+        } catch (RuntimeException e) {
+            return "Enregistrement illisible (" + e + ")" + System.lineSeparator();
+        }
+    }
+
+    private void appendDropped(StringBuilder text) {
+        long total = dropped.sum();
+        if (total > reportedDropped) {
+            text.append("[journal] ").append(total - reportedDropped)
+                    .append(" enregistrements perdus (file pleine)").append(System.lineSeparator());
+            reportedDropped = total;
+        }
+    }
+
+    public static class Builder {
+
+        private PrintStream out = System.err;
+        private Level level = Level.ALL;
+        private int queueCapacity = 8192;
+        private double debugSampleRate = 1.0;
+        private int maxMessageLength = 4000;
+
+        /**
+         * Flux d'écriture ({@code System.err} par défaut, comme {@code ConsoleHandler}).
+         */
+        public Builder out(PrintStream out) {
+            this.out = out;
+            return this;
+        }
+
+        public Builder level(Level level) {
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * Nombre d'enregistrements en attente d'écriture au-delà duquel les nouveaux sont perdus (8192 par défaut).
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Proportion conservée des enregistrements de niveau inférieur à {@code INFO}, entre 0 et 1 (1 par défaut).
+         */
+        public Builder debugSampleRate(double debugSampleRate) {
+            this.debugSampleRate = debugSampleRate;
+            return this;
+        }
+
+        /**
+         * Longueur maximale d'un message, au-delà de laquelle il est tronqué (4000 caractères par défaut ;
+         * 0 pour ne jamais tronquer).
+         */
+        public Builder maxMessageLength(int maxMessageLength) {
+            this.maxMessageLength = maxMessageLength;
+            return this;
+        }
+
+        public AsyncLogHandler build() {
+            return new AsyncLogHandler(this);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ma.emsi.rag.logging;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Configuration commune du journal des programmes de démonstration : les logs de {@code dev.langchain4j}
+ * (requêtes et réponses des modèles comprises, via slf4j-jdk14) passent par un {@link AsyncLogHandler}.
+ * <p>
+ * Réglages par propriétés système :
+ * <ul>
+ *     <li>{@code rag.log.level} : niveau des logs de LangChain4j ({@code FINE} par défaut) ;</li>
+ *     <li>{@code rag.log.payloads} : journalisation des requêtes et réponses des modèles ({@code true} par défaut) ;</li>
+ *     <li>{@code rag.log.sample} : proportion conservée des logs de débogage, entre 0 et 1 (1 par défaut ;
+ *     0.05 garde une requête sur vingt en production) ;</li>
+ *     <li>{@code rag.log.maxLength} : longueur maximale d'un message (4000 caractères par défaut) ;</li>
+ *     <li>{@code rag.log.queue} : capacité de la file d'attente (8192 par défaut).</li>
+ * </ul>
+ */
+public final class RagLogging {
+
+    private static final String LANGCHAIN4J_LOGGER = "dev.langchain4j";
+
+    private static AsyncLogHandler handler;
+
+    private RagLogging() {
+    }
+
+    /**
+     * Installe le handler asynchrone sur les logs de LangChain4j ; sans effet si c'est déjà fait.
+     * Les logs restants sont écrits à l'arrêt de la JVM.
+     *
+     * @return Le handler installé, pour ses statistiques.
+     */
+    public static synchronized AsyncLogHandler configure() {
+        if (handler != null) {
+            return handler;
+        }
+        Level level = Level.parse(System.getProperty("rag.log.level", "FINE"));
+        handler = AsyncLogHandler.builder()
+                .level(level)
+                .queueCapacity(Integer.getInteger("rag.log.queue", 8192))
+                .debugSampleRate(Double.parseDouble(System.getProperty("rag.log.sample", "1")))
+                .maxMessageLength(Integer.getInteger("rag.log.maxLength", 4000))
+                .build();
+
+        Logger packageLogger = Logger.getLogger(LANGCHAIN4J_LOGGER);
+        packageLogger.setLevel(level);
+        packageLogger.addHandler(handler);
+        // Sans cela, les messages INFO et au-delà seraient aussi écrits, en synchrone, par le handler racine
+        packageLogger.setUseParentHandlers(false);
+
+        AsyncLogHandler installed = handler;
+        Runtime.getRuntime().addShutdownHook(new Thread(installed::close, "async-log-close"));
+        return handler;
+    }
+
+    /**
+     * @return {@code true} si les requêtes et réponses des modèles doivent être journalisées
+     * ({@code logRequestsAndResponses}).
+     */
+    public static boolean logPayloads() {
+        return Boolean.parseBoolean(System.getProperty("rag.log.payloads", "true"));
+    }
+}
@@ -0,0 +1,28 @@
+package ma.emsi.rag.memory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compteurs partagés par les mémoires de conversation d'un même assistant (une instance pour toutes les sessions).
+ */
+public class ChatMemoryStats {
+
+    final LongAdder contextsStripped = new LongAdder();
+    final LongAdder tokensStripped = new LongAdder();
+    final LongAdder turnsEvicted = new LongAdder();
+    final LongAdder turnsDropped = new LongAdder();
+    final LongAdder summaries = new LongAdder();
+    final LongAdder summaryFailures = new LongAdder();
+    final LongAdder summaryNanos = new LongAdder();
+
+    @Override
+    public String toString() {
+        long count = summaries.sum();
+        return String.format("%d contextes RAG retirés (~%d tokens), %d tours sortis de la fenêtre, "
+                        + "%d résumés (%d ms en moyenne), %d échecs de résumé, %d tours perdus sans résumé",
+                contextsStripped.sum(), tokensStripped.sum(), turnsEvicted.sum(),
+                count, count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(summaryNanos.sum() / count),
+                summaryFailures.sum(), turnsDropped.sum());
+    }
+}
@@ -0,0 +1,145 @@
+package ma.emsi.rag.memory;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ChatMemoryStore sur disque : un fichier JSON par session, nommé d'après l'empreinte SHA-256 de son identifiant,
+ * au format de sérialisation des messages de LangChain4j.
+ * <p>
+ * Les conversations survivent ainsi à un redémarrage, et une session oubliée en mémoire (session froide) est
+ * relue à son prochain accès. Une session dont le fichier n'a pas été modifié depuis {@code retention} est
+ * supprimée : au démarrage pour tout le répertoire, puis à la lecture pour la session demandée.
+ */
+public class FileChatMemoryStore implements ChatMemoryStore {
+
+    private final Path directory;
+    private final Duration retention;
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder purged = new LongAdder();
+
+    /**
+     * @param retention Durée de conservation d'une session inactive, ou {@code null} pour la garder sans limite.
+     */
+    public FileChatMemoryStore(Path directory, Duration retention) {
+        this.directory = directory;
+        this.retention = retention;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        purgeExpired();
+    }
+
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId) {
+        Path file = file(memoryId);
+        try {
+            if (!Files.exists(file)) {
+                return new ArrayList<>();
+            }
+            if (expired(Files.getLastModifiedTime(file))) {
+                Files.deleteIfExists(file);
+                purged.increment();
+                return new ArrayList<>();
+            }
+            reads.increment();
+            return new ArrayList<>(ChatMessageDeserializer.messagesFromJson(
+                    Files.readString(file, StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de lire la session " + memoryId, e);
+        }
+    }
+
+    /**
+     * Écrit dans un fichier temporaire puis le renomme : un lecteur ne voit jamais un fichier à moitié écrit.
+     */
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+        Path file = file(memoryId);
+        try {
+            Path temporary = Files.createTempFile(directory, "session", ".tmp");
+            Files.writeString(temporary, ChatMessageSerializer.messagesToJson(messages), StandardCharsets.UTF_8);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writes.increment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'enregistrer la session " + memoryId, e);
+        }
+    }
+
+    @Override
+    public void deleteMessages(Object memoryId) {
+        try {
+            Files.deleteIfExists(file(memoryId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Supprime les sessions inactives depuis plus de {@code retention}.
+     *
+     * @return Nombre de sessions supprimées.
+     */
+    public int purgeExpired() {
+        if (retention == null) {
+            return 0;
+        }
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path file : files) {
+                if (expired(Files.getLastModifiedTime(file)) && Files.deleteIfExists(file)) {
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de purger " + directory, e);
+        }
+        purged.add(count);
+        return count;
+    }
+
+    /**
+     * @return Sessions relues depuis le disque, écritures et sessions supprimées pour inactivité.
+     */
+    public String stats() {
+        return String.format("%d sessions relues, %d écritures, %d sessions inactives supprimées",
+                reads.sum(), writes.sum(), purged.sum());
+    }
+
+    private boolean expired(FileTime lastModified) {
+        return retention != null && lastModified.toInstant().plus(retention).isBefore(Instant.now());
+    }
+
+    private Path file(Object memoryId) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(String.valueOf(memoryId).getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(hash) + ".json");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
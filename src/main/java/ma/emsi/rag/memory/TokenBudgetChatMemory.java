@@ -0,0 +1,448 @@
+package ma.emsi.rag.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.ToIntFunction;
+
+/**
+ * Mémoire de conversation bornée en tokens plutôt qu'en nombre de messages, avec un résumé glissant des
+ * échanges anciens.
+ * <ul>
+ *     <li>Une fois la réponse reçue, le contexte RAG injecté dans la question (tout ce qui suit
+ *     {@code contextMarker}) est retiré : les tours suivants ne renvoient que la question posée.</li>
+ *     <li>Quand le message système, le résumé et la fenêtre dépassent {@code tokenBudget}, les tours les plus
+ *     anciens (une question et ses réponses) sortent de la fenêtre ; le tour en cours n'est jamais retiré.</li>
+ *     <li>Les tours sortis sont résumés par {@code summaryModel} sur un thread de fond, hors du chemin de la
+ *     requête ; le résumé est ajouté au message système. Sans modèle de résumé, ils sont simplement oubliés.</li>
+ *     <li>Avec un {@code store}, l'état est relu à la création et enregistré à chaque modification : message
+ *     système et résumé, tours en attente de résumé, puis fenêtre.</li>
+ * </ul>
+ * Un résumé terminé après {@link #clear()} ou {@link #close()} est ignoré : il porte sur des tours effacés, ou
+ * sur une mémoire remplacée par une autre instance de la même session.
+ * <p>
+ * Le nombre de tokens est estimé à 4 caractères par token, sauf estimateur fourni.
+ */
+public class TokenBudgetChatMemory implements ChatMemory, AutoCloseable {
+
+    /**
+     * Séparateur du gabarit par défaut de {@code DefaultContentInjector} entre la question et le contexte.
+     */
+    public static final String DEFAULT_CONTEXT_MARKER = "\n\nAnswer using the following information:\n";
+
+    static final String SUMMARY_HEADER = "Résumé de la conversation précédente :\n";
+
+    /** Coût fixe d'un message (rôle, séparateurs) ajouté à l'estimation de son texte. */
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private static final Executor DEFAULT_SUMMARY_EXECUTOR =
+            runnable -> Thread.ofVirtual().name("resume-memoire").start(runnable);
+
+    private final Object id;
+    private final ChatMemoryStore store;
+    private final ChatModel summaryModel;
+    private final Executor summaryExecutor;
+    private final int tokenBudget;
+    private final int summaryTokens;
+    private final String contextMarker;
+    private final ToIntFunction<String> tokenEstimator;
+    private final ChatMemoryStats stats;
+
+    // État protégé par le moniteur de l'instance (requêtes de la session et thread de résumé)
+    private SystemMessage systemMessage;
+    private String summary = "";
+    private final List<ChatMessage> window = new ArrayList<>();
+    private final List<ChatMessage> toSummarize = new ArrayList<>();
+    private boolean summarizing;
+    // Incrémentée par clear() et close() : un résumé lancé avant n'est pas appliqué
+    private long generation;
+    private boolean closed;
+
+    private TokenBudgetChatMemory(Builder builder) {
+        if (builder.tokenBudget <= builder.summaryTokens) {
+            throw new IllegalArgumentException("Le budget de tokens (" + builder.tokenBudget
+                    + ") doit dépasser celui du résumé (" + builder.summaryTokens + ")");
+        }
+        this.id = builder.id;
+        this.store = builder.store;
+        this.summaryModel = builder.summaryModel;
+        this.summaryExecutor = builder.summaryExecutor;
+        this.tokenBudget = builder.tokenBudget;
+        this.summaryTokens = builder.summaryTokens;
+        this.contextMarker = builder.contextMarker;
+        this.tokenEstimator = builder.tokenEstimator;
+        this.stats = builder.stats;
+        if (store != null) {
+            load(store.getMessages(id));
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public synchronized void add(ChatMessage message) {
+        if (message instanceof SystemMessage system) {
+            systemMessage = system;
+        } else {
+            if (message instanceof AiMessage ai && !ai.hasToolExecutionRequests()) {
+                // Tour terminé : son contexte RAG ne servira plus
+                stripContext();
+            }
+            window.add(message);
+        }
+        evict();
+        persist();
+    }
+
+    @Override
+    public synchronized List<ChatMessage> messages() {
+        List<ChatMessage> messages = new ArrayList<>(window.size() + 1);
+        SystemMessage system = systemWithSummary();
+        if (system != null) {
+            messages.add(system);
+        }
+        messages.addAll(window);
+        return messages;
+    }
+
+    @Override
+    public synchronized void clear() {
+        generation++;
+        summarizing = false;
+        systemMessage = null;
+        summary = "";
+        window.clear();
+        toSummarize.clear();
+        if (store != null && !closed) {
+            store.deleteMessages(id);
+        }
+    }
+
+    /**
+     * Détache la mémoire de son store, quand une autre instance reprend la session (session oubliée puis relue) :
+     * ni les messages ajoutés ensuite ni le résumé en cours ne sont plus enregistrés. Les tours en attente de
+     * résumé, déjà enregistrés, seront résumés par la nouvelle instance.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        generation++;
+    }
+
+    /**
+     * @return Estimation du nombre de tokens envoyés au modèle par {@link #messages()}.
+     */
+    public synchronized int tokens() {
+        int tokens = messageTokens(systemWithSummary());
+        for (ChatMessage message : window) {
+            tokens += messageTokens(message);
+        }
+        return tokens;
+    }
+
+    private void load(List<ChatMessage> messages) {
+        for (ChatMessage message : messages) {
+            if (message instanceof SystemMessage system && window.isEmpty()) {
+                String text = system.text();
+                int header = text.indexOf(SUMMARY_HEADER);
+                if (header < 0) {
+                    systemMessage = system;
+                } else {
+                    summary = text.substring(header + SUMMARY_HEADER.length());
+                    systemMessage = header == 0 ? null : SystemMessage.from(text.substring(0, header).stripTrailing());
+                }
+            } else {
+                window.add(message);
+            }
+        }
+        // Les tours en attente de résumé lors de l'arrêt ressortent de la fenêtre et sont résumés à nouveau
+        evict();
+    }
+
+    private void stripContext() {
+        for (int i = window.size() - 1; i >= 0; i--) {
+            if (window.get(i) instanceof UserMessage user) {
+                if (user.hasSingleText()) {
+                    String text = user.singleText();
+                    int marker = text.indexOf(contextMarker);
+                    if (marker >= 0) {
+                        String question = text.substring(0, marker);
+                        window.set(i, user.name() == null
+                                ? UserMessage.from(question)
+                                : UserMessage.from(user.name(), question));
+                        stats.contextsStripped.increment();
+                        stats.tokensStripped.add(tokenEstimator.applyAsInt(text) - tokenEstimator.applyAsInt(question));
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Retire les tours les plus anciens tant que le budget est dépassé, et lance leur résumé.
+     */
+    private void evict() {
+        int tokens = tokens();
+        while (tokens > tokenBudget) {
+            int turnEnd = nextTurnStart(1);
+            if (turnEnd >= window.size()) {
+                break;
+            }
+            List<ChatMessage> turn = window.subList(0, turnEnd);
+            for (ChatMessage message : turn) {
+                tokens -= messageTokens(message);
+            }
+            if (summaryModel != null) {
+                toSummarize.addAll(turn);
+            } else {
+                stats.turnsDropped.increment();
+            }
+            turn.clear();
+            stats.turnsEvicted.increment();
+        }
+        if (!closed && !summarizing && !toSummarize.isEmpty()) {
+            trimPendingSummary();
+            summarizing = true;
+            long launchedGeneration = generation;
+            try {
+                summaryExecutor.execute(() -> summarize(launchedGeneration));
+            } catch (RejectedExecutionException e) {
+                // Les tours restent en attente : le prochain message relance le résumé
+                stats.summaryFailures.increment();
+                summarizing = false;
+            }
+        }
+    }
+
+    private int nextTurnStart(int from) {
+        int i = from;
+        while (i < window.size() && !(window.get(i) instanceof UserMessage)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Si les résumés échouent ou prennent du retard, les tours en attente sont bornés au budget :
+     * les plus anciens sont oubliés.
+     */
+    private void trimPendingSummary() {
+        int tokens = 0;
+        for (ChatMessage message : toSummarize) {
+            tokens += messageTokens(message);
+        }
+        while (tokens > tokenBudget && !toSummarize.isEmpty()) {
+            tokens -= messageTokens(toSummarize.remove(0));
+            while (!toSummarize.isEmpty() && !(toSummarize.get(0) instanceof UserMessage)) {
+                tokens -= messageTokens(toSummarize.remove(0));
+            }
+            stats.turnsDropped.increment();
+        }
+    }
+
+    /**
+     * Sur le thread de résumé : intègre les tours en attente au résumé, sans tenir le moniteur pendant
+     * l'appel au modèle. Le résultat n'est appliqué que si la mémoire n'a été ni vidée ni fermée entre-temps.
+     */
+    private void summarize(long launchedGeneration) {
+        List<ChatMessage> turns;
+        String previous;
+        synchronized (this) {
+            if (generation != launchedGeneration) {
+                return;
+            }
+            turns = List.copyOf(toSummarize);
+            previous = summary;
+        }
+        String updated = null;
+        long start = System.nanoTime();
+        try {
+            updated = truncate(summaryModel.chat(summaryPrompt(previous, turns)).strip());
+            stats.summaries.increment();
+            stats.summaryNanos.add(System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            // Les tours restent en attente : le prochain message relance le résumé
+            stats.summaryFailures.increment();
+        } finally {
+            synchronized (this) {
+                // Après clear() ou close(), summarizing appartient déjà à la génération suivante
+                if (generation == launchedGeneration) {
+                    summarizing = false;
+                    if (updated != null) {
+                        // Pendant l'appel, la file n'est pas élaguée : les tours résumés sont toujours en tête
+                        toSummarize.subList(0, turns.size()).clear();
+                        summary = updated;
+                        evict();
+                        persist();
+                    }
+                }
+            }
+        }
+    }
+
+    private String summaryPrompt(String previous, List<ChatMessage> turns) {
+        StringBuilder prompt = new StringBuilder()
+                .append("Tu mets à jour le résumé d'une conversation entre un utilisateur et un assistant.\n\n")
+                .append("Résumé actuel :\n").append(previous.isEmpty() ? "(aucun)" : previous)
+                .append("\n\nNouveaux échanges :\n");
+        for (ChatMessage message : turns) {
+            if (message instanceof UserMessage) {
+                prompt.append("Utilisateur : ").append(text(message)).append('\n');
+            } else if (message instanceof AiMessage) {
+                prompt.append("Assistant : ").append(text(message)).append('\n');
+            }
+        }
+        return prompt.append("\nRédige le résumé mis à jour en au plus ").append(summaryTokens * 3 / 4)
+                .append(" mots : garde les faits, les préférences et les questions de l'utilisateur utiles pour ")
+                .append("la suite, sans phrase d'introduction.")
+                .toString();
+    }
+
+    private String truncate(String text) {
+        int tokens = tokenEstimator.applyAsInt(text);
+        return tokens <= summaryTokens ? text : text.substring(0, (int) ((long) text.length() * summaryTokens / tokens));
+    }
+
+    private SystemMessage systemWithSummary() {
+        if (summary.isEmpty()) {
+            return systemMessage;
+        }
+        return SystemMessage.from((systemMessage == null ? "" : systemMessage.text() + "\n\n") + SUMMARY_HEADER + summary);
+    }
+
+    private void persist() {
+        if (store == null || closed) {
+            return;
+        }
+        List<ChatMessage> messages = new ArrayList<>(toSummarize.size() + window.size() + 1);
+        SystemMessage system = systemWithSummary();
+        if (system != null) {
+            messages.add(system);
+        }
+        messages.addAll(toSummarize);
+        messages.addAll(window);
+        store.updateMessages(id, messages);
+    }
+
+    private int messageTokens(ChatMessage message) {
+        return message == null ? 0 : MESSAGE_OVERHEAD_TOKENS + tokenEstimator.applyAsInt(text(message));
+    }
+
+    private static String text(ChatMessage message) {
+        String text = null;
+        if (message instanceof SystemMessage system) {
+            text = system.text();
+        } else if (message instanceof UserMessage user && user.hasSingleText()) {
+            text = user.singleText();
+        } else if (message instanceof AiMessage ai) {
+            text = ai.text();
+        } else if (message instanceof ToolExecutionResultMessage result) {
+            text = result.text();
+        }
+        return text == null ? "" : text;
+    }
+
+    public static class Builder {
+
+        private Object id = "default";
+        private ChatMemoryStore store;
+        private ChatModel summaryModel;
+        private Executor summaryExecutor = DEFAULT_SUMMARY_EXECUTOR;
+        private int tokenBudget = 1500;
+        private int summaryTokens = 200;
+        private String contextMarker = DEFAULT_CONTEXT_MARKER;
+        private ToIntFunction<String> tokenEstimator = text -> (text.length() + 3) / 4;
+        private ChatMemoryStats stats = new ChatMemoryStats();
+
+        public Builder id(Object id) {
+            this.id = id;
+            return this;
+        }
+
+        /**
+         * Store où la mémoire est relue à la création et enregistrée à chaque modification (aucun par défaut).
+         */
+        public Builder store(ChatMemoryStore store) {
+            this.store = store;
+            return this;
+        }
+
+        /**
+         * Modèle qui résume les tours sortis de la fenêtre ; sans modèle, ils sont oubliés.
+         */
+        public Builder summaryModel(ChatModel summaryModel) {
+            this.summaryModel = summaryModel;
+            return this;
+        }
+
+        /**
+         * Exécuteur des résumés (un thread virtuel par résumé par défaut).
+         */
+        public Builder summaryExecutor(Executor summaryExecutor) {
+            this.summaryExecutor = summaryExecutor;
+            return this;
+        }
+
+        /**
+         * Budget de tokens des messages envoyés au modèle, message système et résumé compris (1500 par défaut).
+         */
+        public Builder tokenBudget(int tokenBudget) {
+            this.tokenBudget = tokenBudget;
+            return this;
+        }
+
+        /**
+         * Taille maximale du résumé en tokens (200 par défaut).
+         */
+        public Builder summaryTokens(int summaryTokens) {
+            this.summaryTokens = summaryTokens;
+            return this;
+        }
+
+        /**
+         * Texte qui sépare la question du contexte injecté ({@link #DEFAULT_CONTEXT_MARKER} par défaut).
+         */
+        public Builder contextMarker(String contextMarker) {
+            this.contextMarker = contextMarker;
+            return this;
+        }
+
+        /**
+         * Estimation du nombre de tokens d'un texte (longueur / 4 par défaut).
+         */
+        public Builder tokenEstimator(ToIntFunction<String> tokenEstimator) {
+            this.tokenEstimator = tokenEstimator;
+            return this;
+        }
+
+        /**
+         * Compteurs à partager entre les mémoires des sessions.
+         */
+        public Builder stats(ChatMemoryStats stats) {
+            this.stats = stats;
+            return this;
+        }
+
+        public TokenBudgetChatMemory build() {
+            return new TokenBudgetChatMemory(this);
+        }
+    }
+}
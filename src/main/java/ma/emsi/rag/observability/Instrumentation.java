@@ -0,0 +1,187 @@
+package ma.emsi.rag.observability;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.chat.listener.ChatModelErrorContext;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelRequestContext;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.injector.ContentInjector;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Décorateurs qui mesurent chaque étape d'une question dans {@link RagMetrics}.
+ * <p>
+ * Métriques désactivées ({@code -Drag.metrics=false}), chaque méthode renvoie l'objet reçu tel quel : le
+ * chemin d'une question est alors exactement celui d'origine.
+ */
+public final class Instrumentation {
+
+    private static final String SPAN_ATTRIBUTE = "ma.emsi.rag.observability.span";
+
+    private Instrumentation() {
+    }
+
+    /**
+     * Mesure l'embedding des questions ({@link Stage#QUERY_EMBEDDING}). À placer au-dessus d'un éventuel cache,
+     * pour que les questions servies par le cache comptent avec leur vraie durée.
+     */
+    public static EmbeddingModel embeddingModel(EmbeddingModel delegate) {
+        if (!RagMetrics.enabled()) {
+            return delegate;
+        }
+        return new EmbeddingModel() {
+            @Override
+            public Response<Embedding> embed(String text) {
+                return embed(TextSegment.from(text));
+            }
+
+            @Override
+            public Response<Embedding> embed(TextSegment textSegment) {
+                Span span = RagMetrics.start(Stage.QUERY_EMBEDDING, "");
+                try {
+                    return delegate.embed(textSegment);
+                } finally {
+                    span.end();
+                }
+            }
+
+            @Override
+            public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+                Span span = RagMetrics.start(Stage.QUERY_EMBEDDING, "");
+                try {
+                    return delegate.embedAll(textSegments);
+                } finally {
+                    span.end();
+                }
+            }
+
+            @Override
+            public int dimension() {
+                return delegate.dimension();
+            }
+        };
+    }
+
+    /**
+     * Mesure le choix des sources ({@link Stage#ROUTING}).
+     * <p>
+     * DefaultRetrievalAugmentor interroge les sources sur les threads de son exécuteur dès qu'il y en a plusieurs.
+     * La question en cours est donc capturée au routage, sur le thread de la question, et rattachée au thread de
+     * chaque source le temps de sa récupération : embedding et récupération y comptent dans la bonne question.
+     */
+    public static QueryRouter queryRouter(QueryRouter delegate) {
+        if (!RagMetrics.enabled()) {
+            return delegate;
+        }
+        return query -> {
+            RequestTrace trace = RequestTrace.current();
+            Span span = RagMetrics.start(Stage.ROUTING, "");
+            Collection<ContentRetriever> retrievers;
+            try {
+                retrievers = delegate.route(query);
+            } finally {
+                span.end();
+            }
+            if (trace == null) {
+                return retrievers;
+            }
+            return retrievers.stream().map(retriever -> attached(trace, retriever)).toList();
+        };
+    }
+
+    private static ContentRetriever attached(RequestTrace trace, ContentRetriever delegate) {
+        return (Query query) -> {
+            RequestTrace previous = RequestTrace.attach(trace);
+            try {
+                return delegate.retrieve(query);
+            } finally {
+                RequestTrace.restore(previous);
+            }
+        };
+    }
+
+    /**
+     * Mesure une source ({@link Stage#RETRIEVAL}), sous son nom : un histogramme par retriever.
+     */
+    public static ContentRetriever contentRetriever(String name, ContentRetriever delegate) {
+        if (!RagMetrics.enabled()) {
+            return delegate;
+        }
+        return (Query query) -> {
+            Span span = RagMetrics.start(Stage.RETRIEVAL, name);
+            try {
+                return delegate.retrieve(query);
+            } finally {
+                span.end();
+            }
+        };
+    }
+
+    /**
+     * Mesure l'insertion des segments dans le message envoyé au LLM ({@link Stage#PROMPT_ASSEMBLY}).
+     */
+    public static ContentInjector contentInjector(ContentInjector delegate) {
+        if (!RagMetrics.enabled()) {
+            return delegate;
+        }
+        return (List<Content> contents, ChatMessage chatMessage) -> {
+            Span span = RagMetrics.start(Stage.PROMPT_ASSEMBLY, "");
+            try {
+                return delegate.inject(contents, chatMessage);
+            } finally {
+                span.end();
+            }
+        };
+    }
+
+    /**
+     * Listener à donner au modèle de chat : durée de chaque appel au LLM ({@link Stage#LLM}) et tokens consommés.
+     * Les échecs sont comptés sous le détail {@code erreur}.
+     */
+    public static ChatModelListener chatModelListener() {
+        if (!RagMetrics.enabled()) {
+            return new ChatModelListener() {
+            };
+        }
+        return new ChatModelListener() {
+            @Override
+            public void onRequest(ChatModelRequestContext context) {
+                // onRequest est appelé sur le thread de la question : la span y capture la trace en cours
+                context.attributes().put(SPAN_ATTRIBUTE, RagMetrics.start(Stage.LLM, ""));
+            }
+
+            @Override
+            public void onResponse(ChatModelResponseContext context) {
+                if (context.attributes().get(SPAN_ATTRIBUTE) instanceof Span span) {
+                    span.end();
+                    TokenUsage usage = context.chatResponse().tokenUsage();
+                    if (usage != null) {
+                        RagMetrics.tokens(count(usage.inputTokenCount()), count(usage.outputTokenCount()), span.trace());
+                    }
+                }
+            }
+
+            @Override
+            public void onError(ChatModelErrorContext context) {
+                if (context.attributes().get(SPAN_ATTRIBUTE) instanceof Span span) {
+                    span.fail();
+                }
+            }
+        };
+    }
+
+    private static int count(Integer tokens) {
+        return tokens == null ? 0 : tokens;
+    }
+}
@@ -0,0 +1,90 @@
+package ma.emsi.rag.observability;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme de latences à seaux exponentiels (puissances de 2 en microsecondes, de 1 µs à environ 67 s).
+ * Les enregistrements sont sans verrou ; les percentiles sont estimés par la borne haute du seau.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 27;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long micros = Math.max(1, nanos / 1000);
+        // Seau i : latences jusqu'à 2^i µs
+        int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+        counts[Math.min(bucket, BUCKETS)].increment();
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * @param quantile Entre 0 et 1 (0,99 pour le p99).
+     * @return Borne haute estimée, en microsecondes (0 sans enregistrement). Au-delà du dernier seau,
+     * la borne basse du seau de débordement (environ 67 s) : voir {@link #exceedsRange(double)}.
+     */
+    public long percentileMicros(double quantile) {
+        int bucket = bucketOf(quantile);
+        if (bucket < 0) {
+            return 0;
+        }
+        return 1L << Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * @return Vrai si le percentile tombe dans le seau de débordement (latence supérieure à environ 67 s).
+     */
+    public boolean exceedsRange(double quantile) {
+        return bucketOf(quantile) == BUCKETS;
+    }
+
+    private int bucketOf(double quantile) {
+        long total = count();
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i].sum();
+            if (seen >= rank) {
+                return i;
+            }
+        }
+        return BUCKETS;
+    }
+
+    /**
+     * Ajoute l'histogramme au format texte de Prometheus (secondes, seaux cumulés).
+     */
+    void appendPrometheus(StringBuilder out, String name, String labels) {
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += counts[i].sum();
+            out.append(name).append("_bucket{").append(labels).append(",le=\"")
+                    .append((1L << i) / 1e6).append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count()).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ").append(sumNanos() / 1e9).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(count()).append('\n');
+    }
+}
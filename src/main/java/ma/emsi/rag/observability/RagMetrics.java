@@ -0,0 +1,121 @@
+package ma.emsi.rag.observability;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métriques des questions : un histogramme de latence par étape (et par détail, par exemple le nom d'un
+ * retriever), et le nombre de tokens échangés avec le LLM.
+ * <p>
+ * Les mesures sont exportées de deux façons : au format texte de Prometheus ({@link #prometheus()}, servi par
+ * {@code RagHttpServer} sur {@code /metrics}) et en événements JFR {@code ma.emsi.rag.Stage} et
+ * {@code ma.emsi.rag.Request}, visibles dans JDK Mission Control
+ * ({@code -XX:StartFlightRecording}). Les événements JFR ne coûtent rien sans enregistrement en cours.
+ * <p>
+ * L'instrumentation est active par défaut ; {@code -Drag.metrics=false} la désactive : les méthodes
+ * d'{@link Instrumentation} renvoient alors les objets d'origine, sans aucun surcoût.
+ */
+public final class RagMetrics {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("rag.metrics", "true"));
+
+    private static final Map<Key, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final LongAdder INPUT_TOKENS = new LongAdder();
+    private static final LongAdder OUTPUT_TOKENS = new LongAdder();
+
+    private RagMetrics() {
+    }
+
+    public static boolean enabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Commence la mesure d'une étape, rattachée à la question ouverte sur le thread courant.
+     */
+    public static Span start(Stage stage, String detail) {
+        return new Span(stage, detail == null ? "" : detail, RequestTrace.current());
+    }
+
+    /**
+     * Enregistre une durée mesurée par ailleurs (par exemple le temps jusqu'au premier token d'un flux).
+     */
+    public static void record(Stage stage, String detail, long nanos) {
+        if (ENABLED) {
+            record(stage, detail == null ? "" : detail, nanos, RequestTrace.current());
+        }
+    }
+
+    static void record(Stage stage, String detail, long nanos, RequestTrace trace) {
+        HISTOGRAMS.computeIfAbsent(new Key(stage, detail), key -> new LatencyHistogram()).record(nanos);
+        if (trace != null && stage != Stage.TOTAL) {
+            trace.add(stage, nanos);
+        }
+    }
+
+    static void tokens(int input, int output, RequestTrace trace) {
+        INPUT_TOKENS.add(input);
+        OUTPUT_TOKENS.add(output);
+        if (trace != null) {
+            trace.tokens(input, output);
+        }
+    }
+
+    /**
+     * @return Les métriques au format texte de Prometheus.
+     */
+    public static String prometheus() {
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP rag_stage_seconds Durée des étapes du traitement des questions\n");
+        out.append("# TYPE rag_stage_seconds histogram\n");
+        for (Map.Entry<Key, LatencyHistogram> entry : sortedEntries()) {
+            Key key = entry.getKey();
+            entry.getValue().appendPrometheus(out, "rag_stage_seconds",
+                    "stage=\"" + key.stage.label() + "\",detail=\"" + key.detail.replace("\"", "\\\"") + "\"");
+        }
+        out.append("# HELP rag_llm_tokens_total Tokens échangés avec le LLM\n");
+        out.append("# TYPE rag_llm_tokens_total counter\n");
+        out.append("rag_llm_tokens_total{type=\"input\"} ").append(INPUT_TOKENS.sum()).append('\n');
+        out.append("rag_llm_tokens_total{type=\"output\"} ").append(OUTPUT_TOKENS.sum()).append('\n');
+        return out.toString();
+    }
+
+    /**
+     * @return Une ligne par étape : nombre de mesures, moyenne, p50 et p99.
+     */
+    public static String summary() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<Key, LatencyHistogram> entry : sortedEntries()) {
+            Key key = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            long count = histogram.count();
+            out.append(String.format("%n    %-20s %d mesures, moyenne %d ms, p50 %s, p99 %s",
+                    key.detail.isEmpty() ? key.stage.label() : key.stage.label() + "/" + key.detail, count,
+                    count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(histogram.sumNanos() / count),
+                    percentile(histogram, 0.5), percentile(histogram, 0.99)));
+        }
+        out.append(String.format("%n    tokens : %d en entrée, %d en sortie", INPUT_TOKENS.sum(), OUTPUT_TOKENS.sum()));
+        return out.toString();
+    }
+
+    /**
+     * Au-delà du dernier seau, seule la borne basse est connue : "> 67108 ms" plutôt qu'une borne haute.
+     */
+    private static String percentile(LatencyHistogram histogram, double quantile) {
+        return (histogram.exceedsRange(quantile) ? "> " : "<= ") + histogram.percentileMicros(quantile) / 1000 + " ms";
+    }
+
+    private static List<Map.Entry<Key, LatencyHistogram>> sortedEntries() {
+        return HISTOGRAMS.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey(Comparator.comparing((Key key) -> key.stage)
+                        .thenComparing(key -> key.detail)))
+                .toList();
+    }
+
+    private record Key(Stage stage, String detail) {
+    }
+}
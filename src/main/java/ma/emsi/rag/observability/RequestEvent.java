@@ -0,0 +1,57 @@
+package ma.emsi.rag.observability;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Événement JFR d'une question complète, avec le temps passé dans chaque étape.
+ */
+@Name("ma.emsi.rag.Request")
+@Label("Question RAG")
+@Category("RAG")
+@Description("Décomposition de la latence d'une question")
+@StackTrace(false)
+class RequestEvent extends Event {
+
+    @Label("Identifiant de la question")
+    long requestId;
+
+    @Label("Embedding de la question")
+    @Timespan(Timespan.NANOSECONDS)
+    long embedding;
+
+    @Label("Routage")
+    @Timespan(Timespan.NANOSECONDS)
+    long routing;
+
+    @Label("Récupération")
+    @Timespan(Timespan.NANOSECONDS)
+    long retrieval;
+
+    @Label("Reranking")
+    @Timespan(Timespan.NANOSECONDS)
+    long reranking;
+
+    @Label("Assemblage du prompt")
+    @Timespan(Timespan.NANOSECONDS)
+    long promptAssembly;
+
+    @Label("Premier token du LLM")
+    @Timespan(Timespan.NANOSECONDS)
+    long firstToken;
+
+    @Label("LLM")
+    @Timespan(Timespan.NANOSECONDS)
+    long llm;
+
+    @Label("Tokens en entrée")
+    int inputTokens;
+
+    @Label("Tokens en sortie")
+    int outputTokens;
+}
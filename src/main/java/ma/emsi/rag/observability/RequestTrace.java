@@ -0,0 +1,136 @@
+package ma.emsi.rag.observability;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Décomposition de la latence d'une question : temps cumulé par étape et nombre de tokens.
+ * <p>
+ * La question est attachée au thread qui l'ouvre, jusqu'à sa fermeture :
+ * <pre>{@code
+ * try (RequestTrace trace = RequestTrace.start()) {
+ *     String reponse = assistant.chat(question);
+ *     System.out.println(trace.breakdown());
+ * }
+ * }</pre>
+ * Les étapes exécutées sur d'autres threads (sources interrogées par l'exécuteur de DefaultRetrievalAugmentor)
+ * n'y sont comptées que si la question leur est rattachée : c'est ce que fait
+ * {@link Instrumentation#queryRouter(dev.langchain4j.rag.query.router.QueryRouter)} pour chaque source.
+ * <p>
+ * Métriques désactivées, {@link #start()} renvoie une trace inerte partagée.
+ */
+public final class RequestTrace implements AutoCloseable {
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+    private static final AtomicLong IDS = new AtomicLong();
+    private static final RequestTrace NONE = new RequestTrace(0);
+
+    private final long id;
+    private final long start = System.nanoTime();
+    private final AtomicLongArray nanos = new AtomicLongArray(Stage.values().length);
+    private final AtomicInteger inputTokens = new AtomicInteger();
+    private final AtomicInteger outputTokens = new AtomicInteger();
+    private final RequestEvent event = new RequestEvent();
+
+    private RequestTrace(long id) {
+        this.id = id;
+    }
+
+    /**
+     * Ouvre la trace d'une nouvelle question sur le thread courant.
+     */
+    public static RequestTrace start() {
+        if (!RagMetrics.enabled()) {
+            return NONE;
+        }
+        RequestTrace trace = new RequestTrace(IDS.incrementAndGet());
+        trace.event.begin();
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * @return La question ouverte sur le thread courant, ou {@code null}.
+     */
+    static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Rattache une question au thread courant, par exemple un thread d'exécuteur qui travaille pour elle.
+     *
+     * @return La question rattachée auparavant, à rétablir par {@link #restore(RequestTrace)}.
+     */
+    static RequestTrace attach(RequestTrace trace) {
+        RequestTrace previous = CURRENT.get();
+        restore(trace);
+        return previous;
+    }
+
+    static void restore(RequestTrace previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    public long id() {
+        return id;
+    }
+
+    void add(Stage stage, long stageNanos) {
+        nanos.addAndGet(stage.ordinal(), stageNanos);
+    }
+
+    void tokens(int input, int output) {
+        inputTokens.addAndGet(input);
+        outputTokens.addAndGet(output);
+    }
+
+    /**
+     * @return Temps passé dans chaque étape mesurée et tokens, sur une ligne.
+     */
+    public String breakdown() {
+        if (this == NONE) {
+            return "";
+        }
+        StringBuilder line = new StringBuilder("[Latence]");
+        for (Stage stage : Stage.values()) {
+            long stageNanos = stage == Stage.TOTAL ? System.nanoTime() - start : nanos.get(stage.ordinal());
+            if (stageNanos > 0) {
+                line.append(' ').append(stage.label()).append(' ')
+                        .append(TimeUnit.NANOSECONDS.toMillis(stageNanos)).append(" ms |");
+            }
+        }
+        line.append(" tokens ").append(inputTokens.get()).append(" -> ").append(outputTokens.get());
+        return line.toString();
+    }
+
+    /**
+     * Ferme la question : temps total dans les histogrammes et événement JFR de la question.
+     */
+    @Override
+    public void close() {
+        if (this == NONE) {
+            return;
+        }
+        CURRENT.remove();
+        RagMetrics.record(Stage.TOTAL, "", System.nanoTime() - start, this);
+        if (event.shouldCommit()) {
+            event.requestId = id;
+            event.embedding = nanos.get(Stage.QUERY_EMBEDDING.ordinal());
+            event.routing = nanos.get(Stage.ROUTING.ordinal());
+            event.retrieval = nanos.get(Stage.RETRIEVAL.ordinal());
+            event.reranking = nanos.get(Stage.RERANKING.ordinal());
+            event.promptAssembly = nanos.get(Stage.PROMPT_ASSEMBLY.ordinal());
+            event.firstToken = nanos.get(Stage.LLM_FIRST_TOKEN.ordinal());
+            event.llm = nanos.get(Stage.LLM.ordinal());
+            event.inputTokens = inputTokens.get();
+            event.outputTokens = outputTokens.get();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ma.emsi.rag.observability;
+
+/**
+ * Mesure en cours d'une étape, commencée par {@link RagMetrics#start(Stage, String)}.
+ * <p>
+ * La question en cours est capturée au début : une étape terminée sur un autre thread (réponse d'un modèle
+ * en streaming, par exemple) est comptée dans la bonne question.
+ */
+public final class Span {
+
+    private final Stage stage;
+    private final String detail;
+    private final RequestTrace trace;
+    private final StageEvent event = new StageEvent();
+    private final long start;
+
+    Span(Stage stage, String detail, RequestTrace trace) {
+        this.stage = stage;
+        this.detail = detail;
+        this.trace = trace;
+        event.begin();
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Termine l'étape : histogramme, décomposition de la question en cours et événement JFR.
+     */
+    public void end() {
+        end(detail);
+    }
+
+    /**
+     * Termine une étape en échec : sa durée est comptée sous le détail {@code erreur}.
+     */
+    public void fail() {
+        end("erreur");
+    }
+
+    RequestTrace trace() {
+        return trace;
+    }
+
+    private void end(String outcome) {
+        long nanos = System.nanoTime() - start;
+        RagMetrics.record(stage, outcome, nanos, trace);
+        if (event.shouldCommit()) {
+            event.requestId = trace == null ? 0 : trace.id();
+            event.stage = stage.label();
+            event.detail = outcome;
+            event.commit();
+        }
+    }
+}
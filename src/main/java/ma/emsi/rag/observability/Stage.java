@@ -0,0 +1,31 @@
+package ma.emsi.rag.observability;
+
+/**
+ * Étapes mesurées d'une question, de l'embedding de la question à la réponse complète.
+ */
+public enum Stage {
+    QUERY_EMBEDDING("embedding_question"),
+    ROUTING("routage"),
+    RETRIEVAL("recuperation"),
+    RERANKING("reranking"),
+    PROMPT_ASSEMBLY("assemblage_prompt"),
+    /**
+     * Du début de l'appel au LLM (fin de la récupération) au premier fragment d'une réponse en streaming.
+     */
+    LLM_FIRST_TOKEN("llm_premier_token"),
+    LLM("llm"),
+    TOTAL("total");
+
+    private final String label;
+
+    Stage(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return Nom de l'étape dans les métriques et les événements JFR.
+     */
+    public String label() {
+        return label;
+    }
+}
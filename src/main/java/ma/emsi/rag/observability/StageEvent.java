@@ -0,0 +1,28 @@
+package ma.emsi.rag.observability;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Événement JFR d'une étape d'une question (durée de l'événement = durée de l'étape).
+ */
+@Name("ma.emsi.rag.Stage")
+@Label("Étape RAG")
+@Category("RAG")
+@Description("Durée d'une étape du traitement d'une question")
+@StackTrace(false)
+class StageEvent extends Event {
+
+    @Label("Identifiant de la question")
+    long requestId;
+
+    @Label("Étape")
+    String stage;
+
+    @Label("Détail")
+    String detail;
+}
@@ -0,0 +1,114 @@
+package ma.emsi.rag.rerank;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.scoring.ScoringModel;
+import ma.emsi.rag.cache.CacheKeys;
+import ma.emsi.rag.cache.CacheStats;
+import ma.emsi.rag.cache.LruCache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ScoringModel qui garde en cache les scores déjà calculés, indexés par le couple (question normalisée, segment).
+ * <p>
+ * Les segments absents du cache sont notés en un seul appel à {@code scoreAll} du modèle délégué : une question
+ * déjà posée, ou dont les candidats ont déjà été notés, ne repasse pas par l'inférence.
+ */
+public class CachingScoringModel implements ScoringModel {
+
+    private final ScoringModel delegate;
+    private final LruCache<Key, Double> cache;
+
+    private CachingScoringModel(Builder builder) {
+        if (builder.delegate == null) {
+            throw new IllegalArgumentException("Le modèle de notation à mettre en cache est obligatoire");
+        }
+        this.delegate = builder.delegate;
+        this.cache = new LruCache<>(builder.maxSize, builder.ttl);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Response<List<Double>> scoreAll(List<TextSegment> segments, String query) {
+        String normalizedQuery = CacheKeys.normalize(query, false);
+        List<Double> scores = new ArrayList<>(segments.size());
+        // Segments absents du cache, sans doublon, dans l'ordre de la requête
+        Map<Key, TextSegment> missing = new LinkedHashMap<>();
+        for (TextSegment segment : segments) {
+            Key key = new Key(normalizedQuery, segment.text());
+            Double cached = missing.containsKey(key) ? null : cache.get(key);
+            if (cached == null) {
+                missing.putIfAbsent(key, segment);
+            }
+            scores.add(cached);
+        }
+        if (missing.isEmpty()) {
+            return Response.from(scores);
+        }
+
+        Response<List<Double>> response = delegate.scoreAll(new ArrayList<>(missing.values()), query);
+        Map<Key, Double> computed = new LinkedHashMap<>();
+        int i = 0;
+        for (Key key : missing.keySet()) {
+            Double score = response.content().get(i++);
+            computed.put(key, score);
+            cache.put(key, score);
+        }
+        for (int j = 0; j < scores.size(); j++) {
+            if (scores.get(j) == null) {
+                scores.set(j, computed.get(new Key(normalizedQuery, segments.get(j).text())));
+            }
+        }
+        return Response.from(scores, response.tokenUsage());
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * Le texte du segment est celui déjà gardé par le store : la clé n'en fait pas de copie.
+     */
+    private record Key(String query, String text) {
+    }
+
+    public static class Builder {
+
+        private ScoringModel delegate;
+        private int maxSize = 10_000;
+        private Duration ttl = Duration.ofHours(1);
+
+        public Builder delegate(ScoringModel delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * Nombre maximal de scores gardés (10 000 par défaut).
+         */
+        public Builder maxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Durée de vie d'un score en cache (1 heure par défaut), {@code null} pour aucune limite.
+         */
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        public CachingScoringModel build() {
+            return new CachingScoringModel(this);
+        }
+    }
+}
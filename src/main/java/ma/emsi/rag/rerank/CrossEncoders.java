@@ -0,0 +1,52 @@
+package ma.emsi.rag.rerank;
+
+import dev.langchain4j.model.scoring.ScoringModel;
+import dev.langchain4j.model.scoring.onnx.OnnxScoringModel;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+/**
+ * Chargement d'un cross-encoder ONNX local (par exemple ms-marco-MiniLM-L-6-v2 exporté en ONNX, environ 90 Mo).
+ * <p>
+ * Le répertoire du modèle contient {@value #MODEL_FILE} et {@value #TOKENIZER_FILE} ; il est donné par la
+ * propriété système {@value #MODEL_PROPERTY} (par exemple {@code -Drag.rerank.model=models/ms-marco-MiniLM-L-6-v2}).
+ */
+public final class CrossEncoders {
+
+    public static final String MODEL_PROPERTY = "rag.rerank.model";
+    public static final String MODEL_FILE = "model.onnx";
+    public static final String TOKENIZER_FILE = "tokenizer.json";
+
+    private CrossEncoders() {
+    }
+
+    /**
+     * Charge le cross-encoder du répertoire {@code directory}.
+     *
+     * @throws IllegalArgumentException Si le modèle ou le tokenizer est absent.
+     */
+    public static ScoringModel onnx(Path directory) {
+        Path model = directory.resolve(MODEL_FILE);
+        Path tokenizer = directory.resolve(TOKENIZER_FILE);
+        if (!Files.isRegularFile(model) || !Files.isRegularFile(tokenizer)) {
+            throw new IllegalArgumentException("Cross-encoder introuvable : " + directory + " doit contenir "
+                    + MODEL_FILE + " et " + TOKENIZER_FILE);
+        }
+        return new OnnxScoringModel(model.toString(), tokenizer.toString());
+    }
+
+    /**
+     * @return Le cross-encoder du répertoire donné par {@value #MODEL_PROPERTY}, vide si la propriété est absente
+     * (reranking désactivé).
+     */
+    public static Optional<ScoringModel> fromSystemProperty() {
+        String directory = System.getProperty(MODEL_PROPERTY);
+        if (directory == null || directory.isBlank()) {
+            return Optional.empty();
+        }
+        return Optional.of(onnx(Paths.get(directory)));
+    }
+}
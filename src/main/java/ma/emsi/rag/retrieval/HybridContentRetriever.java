@@ -0,0 +1,278 @@
+package ma.emsi.rag.retrieval;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import ma.emsi.rag.store.Bm25Index;
+import ma.emsi.rag.store.LexicalIndexingEmbeddingStore;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ContentRetriever hybride : recherche vectorielle et recherche lexicale BM25 sur les mêmes segments,
+ * fusionnées par rang réciproque (RRF).
+ * <p>
+ * La recherche vectorielle retrouve les passages de même sens, mais manque souvent les termes exacts (noms
+ * d'API comme {@code MessageWindowChatMemory}, codes d'erreur, numéros de version) ; BM25 les retrouve. Les
+ * deux listes de {@code candidates} segments sont calculées en parallèle (BM25 sur un thread virtuel, pendant
+ * l'embedding de la question), puis chaque segment reçoit {@code somme de 1 / (rrfK + rang)} sur les listes où
+ * il figure : un segment bien placé dans les deux passe devant. Seuls les {@code maxResults} premiers sont
+ * gardés, ce qui permet un petit {@code maxResults} et donc un prompt court.
+ * <p>
+ * Le score ({@link ContentMetadata#SCORE}) d'un segment trouvé par la recherche vectorielle reste son score de
+ * similarité, comparable à celui d'{@code EmbeddingStoreContentRetriever} ; un segment trouvé seulement par
+ * BM25 n'en a pas. Il échappe donc au seuil {@code minScore}, et n'est gardé que s'il figure parmi les
+ * {@code lexicalOnlyMaxRank} premiers résultats BM25 (le premier, par défaut) : une question sans rapport avec
+ * le document, mais qui partage un mot avec un segment, ne ramène pas tous les segments qui contiennent ce mot.
+ */
+public class HybridContentRetriever implements ContentRetriever {
+
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final Bm25Index lexicalIndex;
+    private final EmbeddingModel embeddingModel;
+    private final int maxResults;
+    private final int candidates;
+    private final double minScore;
+    private final double minLexicalScore;
+    private final int lexicalOnlyMaxRank;
+    private final int rrfK;
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder fromBoth = new LongAdder();
+    private final LongAdder denseOnly = new LongAdder();
+    private final LongAdder lexicalOnly = new LongAdder();
+    private final LongAdder lexicalRejected = new LongAdder();
+
+    private HybridContentRetriever(Builder builder) {
+        if (builder.embeddingStore == null || builder.lexicalIndex == null || builder.embeddingModel == null) {
+            throw new IllegalArgumentException("Le store, l'index lexical et le modèle d'embedding sont obligatoires");
+        }
+        if (builder.maxResults <= 0 || builder.candidates < builder.maxResults) {
+            throw new IllegalArgumentException("Il faut 0 < maxResults <= candidates : maxResults = "
+                    + builder.maxResults + ", candidates = " + builder.candidates);
+        }
+        this.embeddingStore = builder.embeddingStore;
+        this.lexicalIndex = builder.lexicalIndex;
+        this.embeddingModel = builder.embeddingModel;
+        this.maxResults = builder.maxResults;
+        this.candidates = builder.candidates;
+        this.minScore = builder.minScore;
+        this.minLexicalScore = builder.minLexicalScore;
+        this.lexicalOnlyMaxRank = builder.lexicalOnlyMaxRank;
+        this.rrfK = builder.rrfK;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        String text = query.text();
+        CompletableFuture<List<Bm25Index.Match>> lexical = CompletableFuture.supplyAsync(
+                () -> lexicalIndex.search(text, candidates),
+                runnable -> Thread.ofVirtual().name("bm25-search").start(runnable));
+
+        // La recherche vectorielle reste sur le thread de la question (mesures de la question en cours)
+        Embedding queryEmbedding = embeddingModel.embed(text).content();
+        List<EmbeddingMatch<TextSegment>> dense = embeddingStore.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(queryEmbedding)
+                .maxResults(candidates)
+                .minScore(minScore)
+                .build()).matches();
+
+        List<Bm25Index.Match> lexicalMatches;
+        try {
+            lexicalMatches = lexical.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        queries.increment();
+        return fuse(dense, lexicalMatches);
+    }
+
+    /**
+     * @return Nombre de questions, origine des segments retournés (les deux recherches, la recherche vectorielle
+     * seule ou BM25 seul) et segments trouvés par BM25 seul écartés par le filtre lexical.
+     */
+    public String stats() {
+        return String.format("%d questions ; segments retournés : %d par les deux recherches, "
+                        + "%d par la recherche vectorielle seule, %d par BM25 seul ; %d trouvés par BM25 seul écartés",
+                queries.sum(), fromBoth.sum(), denseOnly.sum(), lexicalOnly.sum(), lexicalRejected.sum());
+    }
+
+    private List<Content> fuse(List<EmbeddingMatch<TextSegment>> dense, List<Bm25Index.Match> lexical) {
+        Map<String, Fused> fused = new LinkedHashMap<>();
+        for (int rank = 0; rank < dense.size(); rank++) {
+            EmbeddingMatch<TextSegment> match = dense.get(rank);
+            if (match.embedded() == null) {
+                continue;
+            }
+            Fused entry = fused.computeIfAbsent(match.embeddingId(), id -> new Fused(id, match.embedded()));
+            entry.rrf += 1.0 / (rrfK + rank + 1);
+            entry.denseScore = match.score();
+        }
+        for (int rank = 0; rank < lexical.size(); rank++) {
+            Bm25Index.Match match = lexical.get(rank);
+            // Résultats triés par score décroissant : les suivants sont aussi sous le seuil
+            if (match.score() < minLexicalScore) {
+                break;
+            }
+            Fused entry = fused.computeIfAbsent(match.id(), id -> new Fused(id, match.segment()));
+            entry.rrf += 1.0 / (rrfK + rank + 1);
+            entry.lexicalRank = rank + 1;
+        }
+
+        List<Fused> ranked = new ArrayList<>(fused.size());
+        for (Fused entry : fused.values()) {
+            if (entry.denseScore == null && entry.lexicalRank > lexicalOnlyMaxRank) {
+                lexicalRejected.increment();
+            } else {
+                ranked.add(entry);
+            }
+        }
+        ranked.sort(Comparator.comparingDouble((Fused entry) -> entry.rrf).reversed());
+        List<Content> contents = new ArrayList<>(Math.min(maxResults, ranked.size()));
+        for (Fused entry : ranked.subList(0, Math.min(maxResults, ranked.size()))) {
+            Map<ContentMetadata, Object> metadata = new EnumMap<>(ContentMetadata.class);
+            metadata.put(ContentMetadata.EMBEDDING_ID, entry.id);
+            if (entry.denseScore != null) {
+                metadata.put(ContentMetadata.SCORE, entry.denseScore);
+            }
+            contents.add(Content.from(entry.segment, metadata));
+            (entry.denseScore == null ? lexicalOnly : entry.lexicalRank > 0 ? fromBoth : denseOnly).increment();
+        }
+        return contents;
+    }
+
+    private static final class Fused {
+
+        final String id;
+        final TextSegment segment;
+        double rrf;
+        Double denseScore;
+        /**
+         * Rang dans les résultats BM25 (à partir de 1), 0 si BM25 ne l'a pas trouvé.
+         */
+        int lexicalRank;
+
+        Fused(String id, TextSegment segment) {
+            this.id = id;
+            this.segment = segment;
+        }
+    }
+
+    public static class Builder {
+
+        private EmbeddingStore<TextSegment> embeddingStore;
+        private Bm25Index lexicalIndex;
+        private EmbeddingModel embeddingModel;
+        private int maxResults = 3;
+        private int candidates = 20;
+        private double minScore = 0.0;
+        private double minLexicalScore = 0.0;
+        private int lexicalOnlyMaxRank = 1;
+        private int rrfK = 60;
+
+        /**
+         * Store et index BM25 tenus à jour ensemble : le cas habituel.
+         */
+        public Builder store(LexicalIndexingEmbeddingStore store) {
+            this.embeddingStore = store;
+            this.lexicalIndex = store.lexicalIndex();
+            return this;
+        }
+
+        public Builder embeddingStore(EmbeddingStore<TextSegment> embeddingStore) {
+            this.embeddingStore = embeddingStore;
+            return this;
+        }
+
+        /**
+         * Index BM25 des mêmes segments, sous les mêmes identifiants que dans le store.
+         */
+        public Builder lexicalIndex(Bm25Index lexicalIndex) {
+            this.lexicalIndex = lexicalIndex;
+            return this;
+        }
+
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /**
+         * Nombre de segments retournés après fusion (3 par défaut).
+         */
+        public Builder maxResults(int maxResults) {
+            this.maxResults = maxResults;
+            return this;
+        }
+
+        /**
+         * Nombre de segments demandés à chaque recherche avant fusion (20 par défaut).
+         */
+        public Builder candidates(int candidates) {
+            this.candidates = candidates;
+            return this;
+        }
+
+        /**
+         * Score minimal des segments de la recherche vectorielle (0 par défaut). Il ne s'applique pas aux segments
+         * trouvés seulement par BM25, filtrés par {@link #minLexicalScore(double)} et
+         * {@link #lexicalOnlyMaxRank(int)}.
+         */
+        public Builder minScore(double minScore) {
+            this.minScore = minScore;
+            return this;
+        }
+
+        /**
+         * Score BM25 minimal des segments de la recherche lexicale (0 par défaut : il suffit de contenir un terme
+         * de la question). Les scores BM25 ne sont pas bornés et dépendent du corpus : le seuil se règle sur les
+         * scores observés.
+         */
+        public Builder minLexicalScore(double minLexicalScore) {
+            this.minLexicalScore = minLexicalScore;
+            return this;
+        }
+
+        /**
+         * Rang BM25 maximal d'un segment que la recherche vectorielle n'a pas trouvé au-dessus de {@code minScore}
+         * (1 par défaut : seul le meilleur résultat BM25 peut entrer sans correspondance vectorielle). Donner
+         * {@code candidates} garde tous les résultats BM25, par exemple quand un reranker les note ensuite.
+         */
+        public Builder lexicalOnlyMaxRank(int lexicalOnlyMaxRank) {
+            this.lexicalOnlyMaxRank = lexicalOnlyMaxRank;
+            return this;
+        }
+
+        /**
+         * Constante de la fusion par rang réciproque (60 par défaut, valeur usuelle) : plus elle est grande,
+         * moins les premiers rangs pèsent par rapport aux suivants.
+         */
+        public Builder rrfK(int rrfK) {
+            this.rrfK = rrfK;
+            return this;
+        }
+
+        public HybridContentRetriever build() {
+            return new HybridContentRetriever(this);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package ma.emsi.rag.retrieval;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * ContentRetriever qui interroge plusieurs sources en parallèle, chacune sur son propre thread virtuel et
+ * avec son propre délai. Ce qui n'est pas arrivé au délai est abandonné (la tâche est interrompue) : la
+ * latence d'une réponse est bornée par le délai global, pas par la source la plus lente.
+ * <p>
+ * Les sources de repli (typiquement la recherche Web) peuvent être évitées quand les sources locales ont
+ * déjà trouvé un segment assez pertinent ({@link Builder#skipFallbackAboveScore(double)}) : elles ne sont
+ * alors lancées qu'une fois les sources locales terminées, et seulement si leur meilleur score est
+ * insuffisant, ce qui ajoute la latence des sources locales à la leur. En mode spéculatif
+ * ({@link Builder#speculativeFallback(boolean)}), elles partent en même temps que les sources locales et sont
+ * annulées si le seuil est atteint : la latence reste celle de la source la plus lente, au prix d'appels
+ * de repli parfois inutiles. Sans seuil, toutes les sources partent en même temps.
+ * <p>
+ * Une source en erreur ou hors délai ne fait pas échouer la question : son contenu est simplement absent.
+ */
+public class ParallelFanOutRetriever implements ContentRetriever, AutoCloseable {
+
+    /**
+     * Issue de l'appel à une source.
+     */
+    public enum Status {
+        OK,
+        TIMEOUT,
+        FAILED,
+        SKIPPED
+    }
+
+    /**
+     * @param latencyNanos Durée de l'appel ; pour une source hors délai, le temps attendu avant abandon.
+     */
+    public record SourceOutcome(String source, Status status, int contents, long latencyNanos) {
+    }
+
+    /**
+     * Bilan d'une question : issue de chaque source et latence totale de la récupération.
+     */
+    public record Retrieval(String question, List<SourceOutcome> outcomes, long latencyNanos) {
+    }
+
+    private final List<Source> primaries;
+    private final List<Source> fallbacks;
+    private final long deadlineNanos;
+    private final Double skipFallbackAboveScore;
+    private final boolean speculativeFallback;
+    private final Consumer<Retrieval> listener;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private ParallelFanOutRetriever(Builder builder) {
+        if (builder.primaries.isEmpty() && builder.fallbacks.isEmpty()) {
+            throw new IllegalArgumentException("Il faut au moins une source");
+        }
+        if (builder.skipFallbackAboveScore != null && builder.primaries.isEmpty()) {
+            throw new IllegalArgumentException("Le seuil d'évitement des sources de repli suppose au moins une source principale");
+        }
+        this.primaries = List.copyOf(builder.primaries);
+        this.fallbacks = List.copyOf(builder.fallbacks);
+        this.deadlineNanos = builder.deadline.toNanos();
+        this.skipFallbackAboveScore = builder.skipFallbackAboveScore;
+        this.speculativeFallback = builder.speculativeFallback;
+        this.listener = builder.listener;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        long start = System.nanoTime();
+        long end = start + deadlineNanos;
+        boolean gated = skipFallbackAboveScore != null;
+
+        List<Call> primaryCalls = submit(primaries, query, start, end);
+        List<Call> fallbackCalls = !gated || speculativeFallback ? submit(fallbacks, query, start, end) : List.of();
+
+        List<Content> contents = new ArrayList<>();
+        List<SourceOutcome> outcomes = new ArrayList<>();
+        await(primaryCalls, start, contents, outcomes);
+
+        if (gated) {
+            if (bestScore(contents) >= skipFallbackAboveScore) {
+                // Appels spéculatifs devenus inutiles : abandonnés
+                fallbackCalls.forEach(call -> call.future.cancel(true));
+                fallbackCalls = List.of();
+                for (Source source : fallbacks) {
+                    outcomes.add(record(source, new SourceOutcome(source.name, Status.SKIPPED, 0, 0)));
+                }
+            } else if (!speculativeFallback) {
+                fallbackCalls = submit(fallbacks, query, start, end);
+            }
+        }
+        await(fallbackCalls, start, contents, outcomes);
+
+        if (listener != null) {
+            listener.accept(new Retrieval(query.text(), outcomes, System.nanoTime() - start));
+        }
+        return contents;
+    }
+
+    /**
+     * @return Issues et latence moyenne de chaque source depuis la création.
+     */
+    public String stats() {
+        StringBuilder stats = new StringBuilder();
+        List<Source> sources = new ArrayList<>(primaries);
+        sources.addAll(fallbacks);
+        for (Source source : sources) {
+            long calls = source.counts.get(Status.OK).sum() + source.counts.get(Status.FAILED).sum();
+            stats.append(String.format("%n    %s : %d ok, %d hors délai, %d échecs, %d évités, latence moyenne %d ms",
+                    source.name, source.counts.get(Status.OK).sum(), source.counts.get(Status.TIMEOUT).sum(),
+                    source.counts.get(Status.FAILED).sum(), source.counts.get(Status.SKIPPED).sum(),
+                    calls == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(source.latencyNanos.sum() / calls)));
+        }
+        return stats.toString();
+    }
+
+    /**
+     * Interrompt les appels encore en cours.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private List<Call> submit(List<Source> sources, Query query, long start, long end) {
+        List<Call> calls = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            Future<Result> future = executor.submit(() -> {
+                List<Content> contents = source.retriever.retrieve(query);
+                return new Result(contents, System.nanoTime() - start);
+            });
+            calls.add(new Call(source, future, Math.min(start + source.deadlineNanos, end)));
+        }
+        return calls;
+    }
+
+    private void await(List<Call> calls, long start, List<Content> contents, List<SourceOutcome> outcomes) {
+        for (Call call : calls) {
+            SourceOutcome outcome;
+            try {
+                Result result = call.future.get(Math.max(0, call.deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                contents.addAll(result.contents);
+                outcome = new SourceOutcome(call.source.name, Status.OK, result.contents.size(), result.latencyNanos);
+            } catch (TimeoutException e) {
+                call.future.cancel(true);
+                outcome = new SourceOutcome(call.source.name, Status.TIMEOUT, 0, System.nanoTime() - start);
+            } catch (ExecutionException e) {
+                System.err.println("Source " + call.source.name + " en erreur : " + e.getCause().getMessage());
+                outcome = new SourceOutcome(call.source.name, Status.FAILED, 0, System.nanoTime() - start);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                call.future.cancel(true);
+                outcome = new SourceOutcome(call.source.name, Status.TIMEOUT, 0, System.nanoTime() - start);
+            }
+            outcomes.add(record(call.source, outcome));
+        }
+    }
+
+    private static SourceOutcome record(Source source, SourceOutcome outcome) {
+        source.counts.get(outcome.status()).increment();
+        if (outcome.status() == Status.OK || outcome.status() == Status.FAILED) {
+            source.latencyNanos.add(outcome.latencyNanos());
+        }
+        return outcome;
+    }
+
+    /**
+     * Meilleur score de pertinence parmi les contenus (ceux qui viennent d'un EmbeddingStore en portent un).
+     */
+    private static double bestScore(List<Content> contents) {
+        double best = Double.NEGATIVE_INFINITY;
+        for (Content content : contents) {
+            if (content.metadata().get(ContentMetadata.SCORE) instanceof Number score) {
+                best = Math.max(best, score.doubleValue());
+            }
+        }
+        return best;
+    }
+
+    private record Result(List<Content> contents, long latencyNanos) {
+    }
+
+    private record Call(Source source, Future<Result> future, long deadline) {
+    }
+
+    private record Source(String name, ContentRetriever retriever, long deadlineNanos,
+                          Map<Status, LongAdder> counts, LongAdder latencyNanos) {
+
+        Source(String name, ContentRetriever retriever, Duration deadline) {
+            this(name, retriever, deadline.toNanos(), new EnumMap<>(Status.class), new LongAdder());
+            for (Status status : Status.values()) {
+                counts.put(status, new LongAdder());
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private final List<Source> primaries = new ArrayList<>();
+        private final List<Source> fallbacks = new ArrayList<>();
+        private Duration deadline = Duration.ofSeconds(5);
+        private Double skipFallbackAboveScore;
+        private boolean speculativeFallback;
+        private Consumer<Retrieval> listener;
+
+        /**
+         * Ajoute une source principale (par exemple un EmbeddingStoreContentRetriever local).
+         *
+         * @param deadline Délai de la source, compté depuis le début de la récupération.
+         */
+        public Builder source(String name, ContentRetriever retriever, Duration deadline) {
+            primaries.add(new Source(name, retriever, deadline));
+            return this;
+        }
+
+        /**
+         * Ajoute une source de repli (par exemple la recherche Web), évitable selon le score des sources principales.
+         */
+        public Builder fallbackSource(String name, ContentRetriever retriever, Duration deadline) {
+            fallbacks.add(new Source(name, retriever, deadline));
+            return this;
+        }
+
+        /**
+         * Délai global de la récupération, qui borne aussi le délai de chaque source (5 secondes par défaut).
+         */
+        public Builder deadline(Duration deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * Score de pertinence à partir duquel les sources de repli ne sont pas interrogées.
+         */
+        public Builder skipFallbackAboveScore(double minScore) {
+            this.skipFallbackAboveScore = minScore;
+            return this;
+        }
+
+        /**
+         * Avec un seuil d'évitement, lance les sources de repli dès le début et les annule si le seuil est atteint,
+         * au lieu d'attendre les sources principales pour décider (désactivé par défaut).
+         */
+        public Builder speculativeFallback(boolean speculativeFallback) {
+            this.speculativeFallback = speculativeFallback;
+            return this;
+        }
+
+        /**
+         * Notifié du bilan de chaque récupération.
+         */
+        public Builder onRetrieval(Consumer<Retrieval> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public ParallelFanOutRetriever build() {
+            return new ParallelFanOutRetriever(this);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package ma.emsi.rag.routing;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+import ma.emsi.rag.cache.CacheKeys;
+import ma.emsi.rag.cache.LruCache;
+import ma.emsi.rag.store.VectorMath;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * QueryRouter qui décide localement s'il faut consulter les documents, sans appel au LLM dans la plupart des cas.
+ * <p>
+ * La question est comparée par similarité d'embedding à des exemples étiquetés : questions qui relèvent
+ * des documents (exemples positifs) et questions qui n'en relèvent pas (exemples négatifs). Le score d'une
+ * classe est la moyenne des {@value #TOP_EXAMPLES} meilleures similarités avec ses exemples. Si l'écart
+ * entre les deux scores atteint la marge de confiance, la décision est prise localement ; sinon le
+ * {@code fallback} (en général le LLM) tranche.
+ * <p>
+ * Les décisions sont gardées en cache par question normalisée : une question déjà routée ne coûte plus rien.
+ */
+public class ClassifyingQueryRouter implements QueryRouter {
+
+    private static final int TOP_EXAMPLES = 3;
+
+    /**
+     * Origine d'une décision de routage.
+     */
+    public enum Source {
+        CACHE,
+        CLASSIFIER,
+        FALLBACK
+    }
+
+    /**
+     * @param useRetrievers {@code true} si les documents sont consultés.
+     * @param margin        Écart entre le score des exemples positifs et celui des négatifs (positif : documents).
+     */
+    public record Decision(String question, boolean useRetrievers, Source source, double margin) {
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final List<ContentRetriever> retrievers;
+    private final List<float[]> positives;
+    private final List<float[]> negatives;
+    private final double minMargin;
+    private final Predicate<String> fallback;
+    private final Consumer<Decision> listener;
+    private final LruCache<String, Decision> decisions;
+    private final Map<Source, LongAdder> counts = new EnumMap<>(Source.class);
+
+    private ClassifyingQueryRouter(Builder builder) {
+        if (builder.embeddingModel == null || builder.retrievers.isEmpty()) {
+            throw new IllegalArgumentException("Le modèle d'embedding et au moins un ContentRetriever sont obligatoires");
+        }
+        if (builder.positiveExamples.isEmpty() || builder.negativeExamples.isEmpty()) {
+            throw new IllegalArgumentException("Il faut au moins un exemple positif et un exemple négatif");
+        }
+        this.embeddingModel = builder.embeddingModel;
+        this.retrievers = List.copyOf(builder.retrievers);
+        this.positives = embed(builder.embeddingModel, builder.positiveExamples);
+        this.negatives = embed(builder.embeddingModel, builder.negativeExamples);
+        this.minMargin = builder.minMargin;
+        this.fallback = builder.fallback;
+        this.listener = builder.listener;
+        this.decisions = new LruCache<>(builder.cacheSize, builder.cacheTtl);
+        for (Source source : Source.values()) {
+            counts.put(source, new LongAdder());
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Collection<ContentRetriever> route(Query query) {
+        Decision decision = decide(query.text());
+        return decision.useRetrievers() ? retrievers : List.of();
+    }
+
+    public Decision decide(String question) {
+        String key = CacheKeys.normalize(question, true);
+        Decision cached = decisions.get(key);
+        Decision decision;
+        if (cached != null) {
+            decision = new Decision(question, cached.useRetrievers(), Source.CACHE, cached.margin());
+        } else {
+            float[] embedding = VectorMath.normalized(embeddingModel.embed(question).content().vector());
+            double margin = score(embedding, positives) - score(embedding, negatives);
+            if (Math.abs(margin) >= minMargin || fallback == null) {
+                decision = new Decision(question, margin > 0, Source.CLASSIFIER, margin);
+            } else {
+                decision = new Decision(question, fallback.test(question), Source.FALLBACK, margin);
+            }
+            decisions.put(key, decision);
+        }
+        counts.get(decision.source()).increment();
+        if (listener != null) {
+            listener.accept(decision);
+        }
+        return decision;
+    }
+
+    /**
+     * @return Nombre de décisions par origine, et état du cache des décisions.
+     */
+    public String stats() {
+        return String.format("%d depuis le cache, %d par le classifieur local, %d par le fallback ; cache : %s",
+                counts.get(Source.CACHE).sum(), counts.get(Source.CLASSIFIER).sum(),
+                counts.get(Source.FALLBACK).sum(), decisions.stats());
+    }
+
+    private static double score(float[] embedding, List<float[]> examples) {
+        float[] best = new float[Math.min(TOP_EXAMPLES, examples.size())];
+        Arrays.fill(best, -1);
+        for (float[] example : examples) {
+            float similarity = VectorMath.dot(embedding, example);
+            int weakest = 0;
+            for (int i = 1; i < best.length; i++) {
+                if (best[i] < best[weakest]) {
+                    weakest = i;
+                }
+            }
+            if (similarity > best[weakest]) {
+                best[weakest] = similarity;
+            }
+        }
+        double sum = 0;
+        for (float similarity : best) {
+            sum += similarity;
+        }
+        return sum / best.length;
+    }
+
+    private static List<float[]> embed(EmbeddingModel embeddingModel, List<String> examples) {
+        List<TextSegment> segments = examples.stream().map(TextSegment::from).toList();
+        List<float[]> vectors = new ArrayList<>(examples.size());
+        for (Embedding embedding : embeddingModel.embedAll(segments).content()) {
+            vectors.add(VectorMath.normalized(embedding.vector()));
+        }
+        return vectors;
+    }
+
+    public static class Builder {
+
+        private EmbeddingModel embeddingModel;
+        private final List<ContentRetriever> retrievers = new ArrayList<>();
+        private final List<String> positiveExamples = new ArrayList<>();
+        private final List<String> negativeExamples = new ArrayList<>();
+        private double minMargin = 0.05;
+        private Predicate<String> fallback;
+        private Consumer<Decision> listener;
+        private int cacheSize = 1000;
+        private Duration cacheTtl = Duration.ofHours(1);
+
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /**
+         * Sources consultées quand la question relève des documents.
+         */
+        public Builder retrievers(ContentRetriever... retrievers) {
+            this.retrievers.addAll(List.of(retrievers));
+            return this;
+        }
+
+        /**
+         * Exemples de questions qui relèvent des documents.
+         */
+        public Builder positiveExamples(List<String> examples) {
+            this.positiveExamples.addAll(examples);
+            return this;
+        }
+
+        /**
+         * Exemples de questions qui n'en relèvent pas.
+         */
+        public Builder negativeExamples(List<String> examples) {
+            this.negativeExamples.addAll(examples);
+            return this;
+        }
+
+        /**
+         * Écart minimal entre les scores des deux classes pour décider sans fallback (0,05 par défaut).
+         */
+        public Builder minMargin(double minMargin) {
+            this.minMargin = minMargin;
+            return this;
+        }
+
+        /**
+         * Décision utilisée quand le classifieur n'est pas assez sûr (par exemple, une question posée au LLM).
+         * Sans fallback, la classe de meilleur score l'emporte.
+         */
+        public Builder fallback(Predicate<String> fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        /**
+         * Notifié de chaque décision (pour l'afficher ou la mesurer).
+         */
+        public Builder onDecision(Consumer<Decision> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public Builder decisionCache(int maxSize, Duration ttl) {
+            this.cacheSize = maxSize;
+            this.cacheTtl = ttl;
+            return this;
+        }
+
+        public ClassifyingQueryRouter build() {
+            return new ClassifyingQueryRouter(this);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package ma.emsi.rag.routing;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import ma.emsi.rag.store.VectorMath;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * QueryRouter local qui remplace {@code LanguageModelQueryRouter} : chaque source est résumée une fois pour toutes
+ * par un centroïde (embedding de sa description et d'un échantillon de ses segments), puis chaque question est
+ * routée vers la source dont le centroïde est le plus proche.
+ * <p>
+ * Les sources dont la similarité est à moins de {@code margin} de la meilleure sont aussi consultées : une question
+ * à cheval sur deux corpus interroge les deux. Ajouter une source ajoute un centroïde, pas de texte dans un prompt.
+ */
+public class EmbeddingQueryRouter implements QueryRouter {
+
+    /**
+     * Décision de routage : sources retenues et similarité de la question avec chaque centroïde.
+     */
+    public record Decision(String question, List<String> sources, List<Double> similarities, long latencyNanos) {
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final List<Source> sources;
+    private final double margin;
+    private final double minSimilarity;
+    private final Consumer<Decision> listener;
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder unrouted = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+
+    private EmbeddingQueryRouter(Builder builder) {
+        if (builder.embeddingModel == null || builder.sources.isEmpty()) {
+            throw new IllegalArgumentException("Le modèle d'embedding et au moins une source sont obligatoires");
+        }
+        this.embeddingModel = builder.embeddingModel;
+        this.margin = builder.margin;
+        this.minSimilarity = builder.minSimilarity;
+        this.listener = builder.listener;
+        this.sources = new ArrayList<>(builder.sources.size());
+        for (SourceDefinition definition : builder.sources) {
+            sources.add(new Source(definition.name, definition.retriever,
+                    centroid(definition, builder.sampleSize)));
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Collection<ContentRetriever> route(Query query) {
+        long start = System.nanoTime();
+        float[] question = VectorMath.normalized(embeddingModel.embed(query.text()).content().vector());
+
+        double best = -1;
+        double[] similarities = new double[sources.size()];
+        for (int i = 0; i < sources.size(); i++) {
+            similarities[i] = VectorMath.dot(question, sources.get(i).centroid);
+            best = Math.max(best, similarities[i]);
+        }
+        List<ContentRetriever> retrievers = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Double> scores = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            scores.add(similarities[i]);
+            if (best >= minSimilarity && similarities[i] >= best - margin) {
+                Source source = sources.get(i);
+                source.hits.increment();
+                retrievers.add(source.retriever);
+                names.add(source.name);
+            }
+        }
+
+        long latency = System.nanoTime() - start;
+        queries.increment();
+        totalLatencyNanos.add(latency);
+        if (retrievers.isEmpty()) {
+            unrouted.increment();
+        }
+        if (listener != null) {
+            listener.accept(new Decision(query.text(), names, scores, latency));
+        }
+        return retrievers;
+    }
+
+    /**
+     * @return Latence moyenne du routage (embedding de la question compris), en microsecondes.
+     */
+    public long averageLatencyMicros() {
+        long count = queries.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos.sum() / count);
+    }
+
+    /**
+     * @return Nombre de questions routées vers la source.
+     */
+    public long hits(String sourceName) {
+        for (Source source : sources) {
+            if (source.name.equals(sourceName)) {
+                return source.hits.sum();
+            }
+        }
+        throw new IllegalArgumentException("Source inconnue : " + sourceName);
+    }
+
+    public String stats() {
+        StringBuilder stats = new StringBuilder(String.format("%d questions, latence moyenne %d µs, %d sans source",
+                queries.sum(), averageLatencyMicros(), unrouted.sum()));
+        for (Source source : sources) {
+            stats.append(String.format("%n    %s : %d", source.name, source.hits.sum()));
+        }
+        return stats.toString();
+    }
+
+    /**
+     * Centroïde d'une source : moyenne de l'embedding de sa description et de celle des segments du store
+     * les plus proches de cette description (les deux parts ont le même poids).
+     */
+    private float[] centroid(SourceDefinition definition, int sampleSize) {
+        float[] description = VectorMath.normalized(embeddingModel.embed(definition.description).content().vector());
+        float[] centroid = description.clone();
+        if (definition.store != null && sampleSize > 0) {
+            List<EmbeddingMatch<TextSegment>> samples = definition.store.search(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(Embedding.from(description))
+                    .maxResults(sampleSize)
+                    .minScore(0.0)
+                    .build()).matches();
+            if (!samples.isEmpty()) {
+                float[] mean = new float[centroid.length];
+                for (EmbeddingMatch<TextSegment> sample : samples) {
+                    float[] vector = VectorMath.normalized(sample.embedding().vector());
+                    for (int i = 0; i < mean.length; i++) {
+                        mean[i] += vector[i] / samples.size();
+                    }
+                }
+                VectorMath.normalize(mean);
+                for (int i = 0; i < centroid.length; i++) {
+                    centroid[i] += mean[i];
+                }
+            }
+        }
+        VectorMath.normalize(centroid);
+        return centroid;
+    }
+
+    private record Source(String name, ContentRetriever retriever, float[] centroid, LongAdder hits) {
+        Source(String name, ContentRetriever retriever, float[] centroid) {
+            this(name, retriever, centroid, new LongAdder());
+        }
+    }
+
+    private record SourceDefinition(String name, ContentRetriever retriever, String description,
+                                    EmbeddingStore<TextSegment> store) {
+    }
+
+    public static class Builder {
+
+        private EmbeddingModel embeddingModel;
+        private final List<SourceDefinition> sources = new ArrayList<>();
+        private int sampleSize = 32;
+        private double margin = 0.03;
+        private double minSimilarity = 0;
+        private Consumer<Decision> listener;
+
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /**
+         * Ajoute une source.
+         *
+         * @param name        Nom affiché dans les statistiques.
+         * @param description Description du contenu de la source.
+         * @param store       Store de la source, où sont échantillonnés les segments du centroïde
+         *                    ({@code null} : description seule).
+         */
+        public Builder source(String name, ContentRetriever retriever, String description,
+                              EmbeddingStore<TextSegment> store) {
+            sources.add(new SourceDefinition(name, retriever, description, store));
+            return this;
+        }
+
+        /**
+         * Nombre de segments de chaque store pris en compte dans le centroïde (32 par défaut).
+         */
+        public Builder sampleSize(int sampleSize) {
+            this.sampleSize = sampleSize;
+            return this;
+        }
+
+        /**
+         * Écart de similarité avec la meilleure source en deçà duquel une source est aussi consultée
+         * (0,03 par défaut ; 0 pour une seule source par question).
+         */
+        public Builder margin(double margin) {
+            this.margin = margin;
+            return this;
+        }
+
+        /**
+         * Similarité minimale avec la meilleure source ; en dessous, aucune source n'est consultée.
+         */
+        public Builder minSimilarity(double minSimilarity) {
+            this.minSimilarity = minSimilarity;
+            return this;
+        }
+
+        public Builder onDecision(Consumer<Decision> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public EmbeddingQueryRouter build() {
+            return new EmbeddingQueryRouter(this);
+        }
+    }
+}
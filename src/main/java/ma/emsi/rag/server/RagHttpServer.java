@@ -0,0 +1,275 @@
+package ma.emsi.rag.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ma.emsi.rag.observability.RagMetrics;
+import ma.emsi.rag.observability.RequestTrace;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Serveur HTTP multi-utilisateurs devant un assistant RAG, à la place de la boucle {@code Scanner} mono-utilisateur.
+ * <p>
+ * Chaque requête est traitée sur son propre thread virtuel : des centaines de sessions attendent le modèle de chat
+ * sans bloquer autant de threads système. Le nombre d'appels simultanés à l'assistant est limité par un sémaphore
+ * (contrôle d'admission) : une requête qui n'obtient pas de place avant {@code admissionTimeout} reçoit un 503,
+ * plutôt que d'accumuler des appels que le fournisseur du modèle refuserait ou ralentirait. L'attente du verrou de
+ * la session compte dans ce délai : un client ne peut pas empiler sans limite des requêtes sur une même session.
+ * <p>
+ * Points d'accès :
+ * <ul>
+ *     <li>{@code POST /chat} : la question dans le corps (texte UTF-8), la session dans l'en-tête
+ *     {@value #SESSION_HEADER} (créée et renvoyée dans le même en-tête si absente) ; la réponse en texte ;</li>
+ *     <li>{@code GET /stats} : compteurs du serveur ;</li>
+ *     <li>{@code GET /metrics} : latences par étape et tokens ({@link RagMetrics}), au format de Prometheus.</li>
+ * </ul>
+ */
+public class RagHttpServer {
+
+    public static final String SESSION_HEADER = "X-Session-Id";
+
+    private final BiFunction<String, String, String> assistant;
+    private final SessionChatMemoryProvider memories;
+    private final int maxInFlight;
+    private final Semaphore admission;
+    private final long admissionTimeoutNanos;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+
+    private RagHttpServer(Builder builder) {
+        if (builder.assistant == null) {
+            throw new IllegalArgumentException("L'assistant est obligatoire");
+        }
+        if (builder.maxInFlight <= 0) {
+            throw new IllegalArgumentException("Le nombre d'appels simultanés doit être positif : " + builder.maxInFlight);
+        }
+        this.assistant = builder.assistant;
+        this.memories = builder.memories;
+        this.maxInFlight = builder.maxInFlight;
+        this.admission = new Semaphore(builder.maxInFlight, true);
+        this.admissionTimeoutNanos = builder.admissionTimeout.toNanos();
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(builder.port), builder.backlog);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        server.setExecutor(executor);
+        server.createContext("/chat", this::chat);
+        server.createContext("/stats", this::stats);
+        server.createContext("/metrics", this::metrics);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Arrête le serveur en laissant jusqu'à {@code delay} aux requêtes en cours pour se terminer.
+     */
+    public void stop(Duration delay) {
+        server.stop((int) Math.max(0, delay.toSeconds()));
+        executor.shutdownNow();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public String stats() {
+        long done = completed.sum();
+        String stats = String.format("%d requêtes, %d réponses (latence moyenne %d ms), %d refusées (503), "
+                        + "%d erreurs, %d appels en cours sur %d",
+                requests.sum(), done, done == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.sum() / done),
+                rejected.sum(), errors.sum(), maxInFlight - admission.availablePermits(), maxInFlight);
+        return memories == null ? stats : stats + " ; sessions : " + memories.stats();
+    }
+
+    private void chat(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                send(exchange, 405, "Méthode non supportée : " + exchange.getRequestMethod());
+                return;
+            }
+            String question = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).strip();
+            if (question.isEmpty()) {
+                send(exchange, 400, "Veuillez poser une question.");
+                return;
+            }
+            String sessionId = exchange.getRequestHeaders().getFirst(SESSION_HEADER);
+            if (sessionId == null || sessionId.isBlank()) {
+                sessionId = UUID.randomUUID().toString();
+            }
+            exchange.getResponseHeaders().set(SESSION_HEADER, sessionId);
+            requests.increment();
+            answer(exchange, sessionId, question);
+        } catch (RuntimeException e) {
+            // Sans réponse, HttpServer fermerait la connexion sans rien dire au client
+            errors.increment();
+            System.err.println("Erreur inattendue : " + e);
+            send(exchange, 500, "Erreur interne.");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void answer(HttpExchange exchange, String sessionId, String question) throws IOException {
+        // Le verrou de session est pris avant la place d'admission : une requête qui attend la fin
+        // de la précédente de sa session n'occupe pas une place d'appel au modèle. Les deux attentes
+        // partagent le délai d'admission : des requêtes empilées sur une même session finissent en 503
+        long deadline = System.nanoTime() + admissionTimeoutNanos;
+        ReentrantLock session = memories == null ? null : memories.lock(sessionId);
+        try {
+            if (session != null && !session.tryLock(admissionTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                reject(exchange);
+                return;
+            }
+            try {
+                if (!admission.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    reject(exchange);
+                    return;
+                }
+                try (RequestTrace ignored = RequestTrace.start()) {
+                    long start = System.nanoTime();
+                    String answer = assistant.apply(sessionId, question);
+                    totalLatencyNanos.add(System.nanoTime() - start);
+                    completed.increment();
+                    send(exchange, 200, answer);
+                } catch (RuntimeException e) {
+                    errors.increment();
+                    System.err.println("Erreur lors du traitement (session " + sessionId + ") : " + e.getMessage());
+                    send(exchange, 500, "Erreur lors du traitement de la question.");
+                } finally {
+                    admission.release();
+                }
+            } finally {
+                if (session != null) {
+                    session.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "Serveur en cours d'arrêt.");
+        }
+    }
+
+    private void reject(HttpExchange exchange) throws IOException {
+        rejected.increment();
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        send(exchange, 503, "Serveur saturé, réessayez dans un instant.");
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        try {
+            send(exchange, 200, stats());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        try {
+            if (RagMetrics.enabled()) {
+                send(exchange, 200, RagMetrics.prometheus(), "text/plain; version=0.0.4; charset=utf-8");
+            } else {
+                send(exchange, 404, "Métriques désactivées (-Drag.metrics=false).");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, body, "text/plain; charset=utf-8");
+    }
+
+    private static void send(HttpExchange exchange, int status, String body, String contentType) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public static class Builder {
+
+        private BiFunction<String, String, String> assistant;
+        private SessionChatMemoryProvider memories;
+        private int port = 8080;
+        private int backlog = 1024;
+        private int maxInFlight = 32;
+        private Duration admissionTimeout = Duration.ofSeconds(10);
+
+        /**
+         * Appel à l'assistant : (identifiant de session, question) vers réponse.
+         */
+        public Builder assistant(BiFunction<String, String, String> assistant) {
+            this.assistant = assistant;
+            return this;
+        }
+
+        /**
+         * Mémoires des sessions, dont les verrous sérialisent les requêtes d'une même session.
+         */
+        public Builder memories(SessionChatMemoryProvider memories) {
+            this.memories = memories;
+            return this;
+        }
+
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Connexions en attente d'acceptation au niveau du socket (1024 par défaut).
+         */
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * Nombre maximal d'appels simultanés à l'assistant (32 par défaut).
+         */
+        public Builder maxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Attente maximale du verrou de la session et d'une place avant de répondre 503 (10 secondes par défaut).
+         */
+        public Builder admissionTimeout(Duration admissionTimeout) {
+            this.admissionTimeout = admissionTimeout;
+            return this;
+        }
+
+        public RagHttpServer build() {
+            return new RagHttpServer(this);
+        }
+    }
+}
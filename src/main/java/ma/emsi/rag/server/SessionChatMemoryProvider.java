@@ -0,0 +1,114 @@
+package ma.emsi.rag.server;
+
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import ma.emsi.rag.cache.CacheStats;
+import ma.emsi.rag.cache.LruCache;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Une mémoire de conversation par session, au lieu d'une seule mémoire partagée par tous les utilisateurs.
+ * <p>
+ * Les sessions sont gardées dans un {@link LruCache} : au-delà de {@code maxSessions}, la session la moins
+ * récemment utilisée est oubliée, et une session inactive depuis {@code idleTimeout} expire (chaque accès
+ * repousse son expiration). Chaque session a un verrou, pour que deux requêtes simultanées d'une même session
+ * ne modifient pas sa mémoire en même temps.
+ * <p>
+ * La mémoire d'une session est créée par {@code memoryFactory} (une fenêtre de messages par défaut) ; avec une
+ * mémoire persistante, une session oubliée est relue depuis son store à son prochain accès. Une mémoire
+ * {@link AutoCloseable} est fermée quand sa session est oubliée : elle n'écrit plus dans le store, où la mémoire
+ * suivante de la même session a pris le relais.
+ * <p>
+ * AiServices garde de son côté la mémoire de chaque {@code @MemoryId} et ne redemande pas au fournisseur celle
+ * d'une session déjà vue : l'assistant doit oublier lui aussi les sessions oubliées ici, sans quoi il continuerait
+ * d'écrire dans une mémoire fermée et garderait toutes les sessions en mémoire. C'est le rôle de
+ * {@link #onEviction(Consumer)}, appelé au prochain {@link #lock(Object)} : pas pendant {@link #get(Object)},
+ * qu'AiServices appelle en pleine mise à jour de sa propre table.
+ */
+public class SessionChatMemoryProvider implements ChatMemoryProvider {
+
+    private final Function<Object, ChatMemory> memoryFactory;
+    private final LruCache<Object, Session> sessions;
+    private final Queue<Object> forgotten = new ConcurrentLinkedQueue<>();
+    private volatile Consumer<Object> evictionListener = sessionId -> {
+    };
+
+    /**
+     * @param maxMessages Taille de la fenêtre de messages de chaque session.
+     */
+    public SessionChatMemoryProvider(int maxMessages, int maxSessions, Duration idleTimeout) {
+        this(sessionId -> MessageWindowChatMemory.builder()
+                .id(sessionId)
+                .maxMessages(maxMessages)
+                .build(), maxSessions, idleTimeout);
+    }
+
+    /**
+     * @param memoryFactory Création de la mémoire d'une session, à partir de son identifiant.
+     */
+    public SessionChatMemoryProvider(Function<Object, ChatMemory> memoryFactory, int maxSessions, Duration idleTimeout) {
+        this.memoryFactory = memoryFactory;
+        this.sessions = new LruCache<>(maxSessions, idleTimeout, this::forget);
+    }
+
+    /**
+     * Notifié de chaque session oubliée (expirée ou évincée), typiquement {@code assistant::evictChatMemory}
+     * d'un assistant AiServices qui étend {@code ChatMemoryAccess}.
+     */
+    public void onEviction(Consumer<Object> evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    @Override
+    public ChatMemory get(Object sessionId) {
+        return session(sessionId).memory;
+    }
+
+    /**
+     * Verrou de la session, créée si besoin ; à tenir pendant tout l'appel à l'assistant.
+     */
+    public ReentrantLock lock(Object sessionId) {
+        ReentrantLock lock = session(sessionId).lock;
+        // Hors du verrou du fournisseur : l'assistant oublie les sessions fermées, dont celle-ci si elle a expiré,
+        // avant que la requête ne l'utilise
+        for (Object evicted = forgotten.poll(); evicted != null; evicted = forgotten.poll()) {
+            evictionListener.accept(evicted);
+        }
+        return lock;
+    }
+
+    public CacheStats stats() {
+        return sessions.stats();
+    }
+
+    private synchronized Session session(Object sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            session = new Session(memoryFactory.apply(sessionId), new ReentrantLock());
+        }
+        // Remettre la session repousse son expiration : le délai court depuis le dernier accès
+        sessions.put(sessionId, session);
+        return session;
+    }
+
+    private void forget(Object sessionId, Session session) {
+        forgotten.add(sessionId);
+        if (session.memory instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                throw new IllegalStateException("Impossible de fermer la mémoire de la session " + sessionId, e);
+            }
+        }
+    }
+
+    private record Session(ChatMemory memory, ReentrantLock lock) {
+    }
+}
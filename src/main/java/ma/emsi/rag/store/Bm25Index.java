@@ -0,0 +1,346 @@
+package ma.emsi.rag.store;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index inversé BM25 des segments, en mémoire.
+ * <p>
+ * Chaque terme ({@link LexicalAnalyzer}) a sa liste de postings en deux tableaux primitifs : numéros de
+ * segment croissants et fréquences du terme. Une recherche parcourt les listes des termes de la question et
+ * accumule les scores dans un tableau indexé par segment ; les meilleurs sont sélectionnés par {@link TopK}.
+ * Aucun objet n'est créé par posting, ni à l'indexation, ni à la recherche.
+ * <p>
+ * Score BM25 classique ({@code k1} = 1.2, {@code b} = 0.75 par défaut). Les suppressions marquent les
+ * segments ; l'index est reconstruit quand plus de la moitié des segments sont supprimés.
+ */
+public class Bm25Index {
+
+    private static final int COMPACTION_THRESHOLD = 1024;
+
+    /**
+     * Segment trouvé et son score BM25 (non borné : seul l'ordre a un sens).
+     */
+    public record Match(String id, TextSegment segment, double score) {
+    }
+
+    private final double k1;
+    private final double b;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private int[][] postingDocs = new int[1024][];
+    private int[][] postingFreqs = new int[1024][];
+    private int[] postingSizes = new int[1024];
+    /** Segments vivants contenant le terme. */
+    private int[] documentFrequencies = new int[1024];
+
+    private final Map<String, Integer> docById = new HashMap<>();
+    private String[] ids = new String[1024];
+    private TextSegment[] segments = new TextSegment[1024];
+    private int[] lengths = new int[1024];
+    /** Termes distincts de chaque segment, pour mettre à jour les fréquences de document à la suppression. */
+    private int[][] docTerms = new int[1024][];
+    private int docCount;
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+    private long totalLength;
+
+    public Bm25Index() {
+        this(1.2, 0.75);
+    }
+
+    public Bm25Index(double k1, double b) {
+        if (k1 < 0 || b < 0 || b > 1) {
+            throw new IllegalArgumentException("Paramètres BM25 invalides : k1 = " + k1 + ", b = " + b);
+        }
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    /**
+     * Indexe des segments ; un identifiant déjà présent est remplacé.
+     */
+    public void addAll(List<String> segmentIds, List<TextSegment> textSegments) {
+        if (segmentIds.size() != textSegments.size()) {
+            throw new IllegalArgumentException("Les listes d'identifiants et de segments doivent avoir la même taille");
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < segmentIds.size(); i++) {
+                if (textSegments.get(i) != null) {
+                    append(segmentIds.get(i), textSegments.get(i));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(Collection<String> segmentIds) {
+        lock.writeLock().lock();
+        try {
+            for (String id : segmentIds) {
+                Integer doc = docById.remove(id);
+                if (doc != null) {
+                    markDeleted(doc);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int doc = 0; doc < docCount; doc++) {
+                if (!deleted.get(doc) && filter.test(segments[doc].metadata())) {
+                    docById.remove(ids[doc], doc);
+                    markDeleted(doc);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            clearUnlocked();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Nombre de segments indexés (hors suppressions).
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Nombre de termes distincts de l'index.
+     */
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return termIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Les {@code maxResults} segments de meilleur score BM25 pour {@code query}, du meilleur au moins bon ;
+     * une liste vide si aucun terme de la question n'est dans l'index.
+     */
+    public List<Match> search(String query, int maxResults) {
+        List<String> queryTerms = new ArrayList<>();
+        LexicalAnalyzer.analyze(query, queryTerms::add);
+
+        lock.readLock().lock();
+        try {
+            int live = docById.size();
+            if (live == 0 || queryTerms.isEmpty()) {
+                return List.of();
+            }
+            double averageLength = totalLength / (double) live;
+            float[] scores = new float[docCount];
+            BitSet touched = new BitSet(docCount);
+            // Un terme répété dans la question ne compte qu'une fois
+            int[] seen = new int[queryTerms.size()];
+            int seenCount = 0;
+            for (String term : queryTerms) {
+                Integer termId = termIds.get(term);
+                if (termId == null || contains(seen, seenCount, termId)) {
+                    continue;
+                }
+                seen[seenCount++] = termId;
+                int df = documentFrequencies[termId];
+                if (df == 0) {
+                    continue;
+                }
+                double idf = Math.log(1 + (live - df + 0.5) / (df + 0.5));
+                int[] docs = postingDocs[termId];
+                int[] freqs = postingFreqs[termId];
+                for (int p = 0, size = postingSizes[termId]; p < size; p++) {
+                    int doc = docs[p];
+                    if (deleted.get(doc)) {
+                        continue;
+                    }
+                    double tf = freqs[p];
+                    double norm = k1 * (1 - b + b * lengths[doc] / averageLength);
+                    scores[doc] += (float) (idf * tf * (k1 + 1) / (tf + norm));
+                    touched.set(doc);
+                }
+            }
+
+            TopK top = new TopK(maxResults);
+            for (int doc = touched.nextSetBit(0); doc >= 0; doc = touched.nextSetBit(doc + 1)) {
+                if (top.accepts(scores[doc])) {
+                    top.offer(doc, scores[doc]);
+                }
+            }
+            float[] sortedScores = new float[top.size()];
+            int[] docs = top.drainDescending(sortedScores);
+            List<Match> matches = new ArrayList<>(docs.length);
+            for (int i = 0; i < docs.length; i++) {
+                matches.add(new Match(ids[docs[i]], segments[docs[i]], sortedScores[i]));
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void append(String id, TextSegment segment) {
+        Integer previous = docById.get(id);
+        if (previous != null) {
+            markDeleted(previous);
+        }
+        int doc = docCount;
+        if (doc == ids.length) {
+            int capacity = doc * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            docTerms = Arrays.copyOf(docTerms, capacity);
+        }
+
+        // Fréquence de chaque terme dans le segment, dans l'ordre de première apparition
+        Map<String, int[]> frequencies = new HashMap<>();
+        List<String> order = new ArrayList<>();
+        int[] length = new int[1];
+        LexicalAnalyzer.analyze(segment.text(), term -> {
+            length[0]++;
+            frequencies.computeIfAbsent(term, t -> {
+                order.add(t);
+                return new int[1];
+            })[0]++;
+        });
+
+        int[] terms = new int[order.size()];
+        for (int i = 0; i < terms.length; i++) {
+            String term = order.get(i);
+            int termId = termId(term);
+            terms[i] = termId;
+            addPosting(termId, doc, frequencies.get(term)[0]);
+            documentFrequencies[termId]++;
+        }
+
+        ids[doc] = id;
+        segments[doc] = segment;
+        lengths[doc] = length[0];
+        docTerms[doc] = terms;
+        docById.put(id, doc);
+        totalLength += length[0];
+        docCount++;
+    }
+
+    private int termId(String term) {
+        Integer existing = termIds.get(term);
+        if (existing != null) {
+            return existing;
+        }
+        int termId = termIds.size();
+        if (termId == postingDocs.length) {
+            int capacity = termId * 2;
+            postingDocs = Arrays.copyOf(postingDocs, capacity);
+            postingFreqs = Arrays.copyOf(postingFreqs, capacity);
+            postingSizes = Arrays.copyOf(postingSizes, capacity);
+            documentFrequencies = Arrays.copyOf(documentFrequencies, capacity);
+        }
+        postingDocs[termId] = new int[4];
+        postingFreqs[termId] = new int[4];
+        termIds.put(term, termId);
+        return termId;
+    }
+
+    private void addPosting(int termId, int doc, int frequency) {
+        int size = postingSizes[termId];
+        if (size == postingDocs[termId].length) {
+            postingDocs[termId] = Arrays.copyOf(postingDocs[termId], size * 2);
+            postingFreqs[termId] = Arrays.copyOf(postingFreqs[termId], size * 2);
+        }
+        postingDocs[termId][size] = doc;
+        postingFreqs[termId][size] = frequency;
+        postingSizes[termId] = size + 1;
+    }
+
+    private void markDeleted(int doc) {
+        if (deleted.get(doc)) {
+            return;
+        }
+        deleted.set(doc);
+        deletedCount++;
+        totalLength -= lengths[doc];
+        for (int termId : docTerms[doc]) {
+            documentFrequencies[termId]--;
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (deletedCount < COMPACTION_THRESHOLD || deletedCount * 2 < docCount) {
+            return;
+        }
+        String[] liveIds = new String[docCount - deletedCount];
+        TextSegment[] liveSegments = new TextSegment[liveIds.length];
+        int next = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (!deleted.get(doc)) {
+                liveIds[next] = ids[doc];
+                liveSegments[next++] = segments[doc];
+            }
+        }
+        clearUnlocked();
+        for (int i = 0; i < liveIds.length; i++) {
+            append(liveIds[i], liveSegments[i]);
+        }
+    }
+
+    private void clearUnlocked() {
+        termIds.clear();
+        postingDocs = new int[1024][];
+        postingFreqs = new int[1024][];
+        postingSizes = new int[1024];
+        documentFrequencies = new int[1024];
+        docById.clear();
+        ids = new String[1024];
+        segments = new TextSegment[1024];
+        lengths = new int[1024];
+        docTerms = new int[1024][];
+        docCount = 0;
+        deleted.clear();
+        deletedCount = 0;
+        totalLength = 0;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,53 @@
+package ma.emsi.rag.store;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+
+import java.util.Locale;
+
+/**
+ * Choix de l'implémentation d'EmbeddingStore utilisée par les classes de test.
+ * <p>
+ * L'implémentation est sélectionnée par la propriété système {@value #STORE_PROPERTY}
+ * (par exemple {@code -Drag.store=hnsw}) ; par défaut, {@link OffHeapEmbeddingStore} : recherche exhaustive
+ * comme {@code InMemoryEmbeddingStore}, mais avec des scores calculés par l'API Vector quand elle est disponible.
+ */
+public final class EmbeddingStores {
+
+    public static final String STORE_PROPERTY = "rag.store";
+
+    private EmbeddingStores() {
+    }
+
+    /**
+     * Crée le store demandé par la propriété système {@value #STORE_PROPERTY}.
+     */
+    public static EmbeddingStore<TextSegment> create() {
+        return create(System.getProperty(STORE_PROPERTY, "offheap"));
+    }
+
+    /**
+     * @param type "memory" (recherche exhaustive), "offheap" (recherche exhaustive, vecteurs hors du tas),
+     *             "int8" ou "binary" (codes quantifiés puis re-notation exacte) ou "hnsw" (recherche approximative).
+     */
+    public static EmbeddingStore<TextSegment> create(String type) {
+        return switch (type.toLowerCase(Locale.ROOT)) {
+            case "memory" -> new InMemoryEmbeddingStore<>();
+            case "offheap" -> new OffHeapEmbeddingStore();
+            case "int8" -> QuantizedEmbeddingStore.builder()
+                    .quantization(QuantizedEmbeddingStore.Quantization.INT8)
+                    .build();
+            case "binary" -> QuantizedEmbeddingStore.builder()
+                    .quantization(QuantizedEmbeddingStore.Quantization.BINARY)
+                    .build();
+            case "hnsw" -> HnswEmbeddingStore.builder()
+                    .m(16)
+                    .efConstruction(200)
+                    .efSearch(64)
+                    .build();
+            default -> throw new IllegalArgumentException("Type de store inconnu : " + type
+                    + " (valeurs possibles : memory, offheap, int8, binary, hnsw)");
+        };
+    }
+}
@@ -0,0 +1,488 @@
+package ma.emsi.rag.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * EmbeddingStore approximatif basé sur un graphe HNSW (Hierarchical Navigable Small World).
+ * <p>
+ * Remplace {@code InMemoryEmbeddingStore} sans changer le contrat de recherche : les scores sont
+ * des scores de pertinence ({@code (cosinus + 1) / 2}), filtrés par {@code minScore} et limités à
+ * {@code maxResults}. Une requête ne parcourt qu'une petite partie des vecteurs au lieu de tous.
+ * <p>
+ * Les insertions et les recherches peuvent être concurrentes : chaque nœud protège sa liste de
+ * voisins par son propre verrou. Les suppressions sont logiques : un nœud supprimé continue de
+ * servir au routage dans le graphe mais n'est plus jamais retourné.
+ *
+ * @param <Embedded> Type de l'objet associé à chaque embedding (en général {@link TextSegment}).
+ */
+public class HnswEmbeddingStore<Embedded> implements EmbeddingStore<Embedded> {
+
+    private static final int MAX_LEVEL = 16;
+
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+
+    private volatile Graph<Embedded> graph = new Graph<>();
+
+    private HnswEmbeddingStore(Builder builder) {
+        this.m = builder.m;
+        this.efConstruction = builder.efConstruction;
+        this.efSearch = builder.efSearch;
+        this.levelMultiplier = 1 / Math.log(builder.m);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        insert(graph, id, embedding, null);
+    }
+
+    @Override
+    public String add(Embedding embedding, Embedded embedded) {
+        String id = UUID.randomUUID().toString();
+        insert(graph, id, embedding, embedded);
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return addAll(embeddings, null);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<Embedded> embedded) {
+        List<String> ids = new ArrayList<>(embeddings.size());
+        for (int i = 0; i < embeddings.size(); i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+        addAll(ids, embeddings, embedded);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<Embedded> embedded) {
+        if (ids.size() != embeddings.size() || (embedded != null && embedded.size() != embeddings.size())) {
+            throw new IllegalArgumentException("Les listes d'identifiants, d'embeddings et de segments doivent avoir la même taille");
+        }
+        Graph<Embedded> current = graph;
+        for (int i = 0; i < ids.size(); i++) {
+            insert(current, ids.get(i), embeddings.get(i), embedded == null ? null : embedded.get(i));
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        Graph<Embedded> current = graph;
+        for (String id : ids) {
+            Integer index = current.idToNode.remove(id);
+            if (index != null) {
+                current.node(index).deleted = true;
+            }
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        Graph<Embedded> current = graph;
+        for (int i = 0; i < current.size; i++) {
+            Node<Embedded> node = current.node(i);
+            if (!node.deleted && node.embedded instanceof TextSegment segment && filter.test(segment.metadata())) {
+                current.idToNode.remove(node.id, i);
+                node.deleted = true;
+            }
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        graph = new Graph<>();
+    }
+
+    /**
+     * @return Nombre d'embeddings visibles (hors suppressions).
+     */
+    public int size() {
+        return graph.idToNode.size();
+    }
+
+    @Override
+    public EmbeddingSearchResult<Embedded> search(EmbeddingSearchRequest request) {
+        Graph<Embedded> current = graph;
+        Node<Embedded> entryPoint = current.entryPoint;
+        if (entryPoint == null) {
+            return new EmbeddingSearchResult<>(List.of());
+        }
+        float[] query = VectorMath.normalized(request.queryEmbedding().vector());
+        Filter filter = request.filter();
+
+        Candidate nearest = new Candidate(entryPoint.index, VectorMath.dot(query, entryPoint.vector));
+        for (int level = entryPoint.level; level > 0; level--) {
+            nearest = greedyClosest(current, query, nearest, level);
+        }
+        // Avec un filtre, une partie des candidats sera écartée : on en explore davantage
+        int ef = Math.max(efSearch, request.maxResults());
+        if (filter != null) {
+            ef = Math.max(ef, request.maxResults() * 8);
+        }
+        List<Candidate> candidates = searchLayer(current, query, List.of(nearest), ef, 0);
+
+        List<EmbeddingMatch<Embedded>> matches = new ArrayList<>(request.maxResults());
+        for (Candidate candidate : candidates) {
+            double score = RelevanceScore.fromCosineSimilarity(candidate.similarity);
+            if (score < request.minScore() || matches.size() == request.maxResults()) {
+                break;
+            }
+            Node<Embedded> node = current.node(candidate.index);
+            if (node.deleted) {
+                continue;
+            }
+            if (filter != null && node.embedded instanceof TextSegment segment && !filter.test(segment.metadata())) {
+                continue;
+            }
+            matches.add(new EmbeddingMatch<>(score, node.id, node.embedding, node.embedded));
+        }
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    // ------------------------------------------------------------------------------------------
+    // Construction du graphe
+    // ------------------------------------------------------------------------------------------
+
+    private void insert(Graph<Embedded> current, String id, Embedding embedding, Embedded embedded) {
+        float[] vector = VectorMath.normalized(embedding.vector());
+        int level = randomLevel();
+        Node<Embedded> node = current.append(id, embedding, vector, embedded, level);
+
+        Integer replaced = current.idToNode.put(id, node.index);
+        if (replaced != null) {
+            current.node(replaced).deleted = true;
+        }
+
+        Node<Embedded> entryPoint;
+        synchronized (current) {
+            entryPoint = current.entryPoint;
+            if (entryPoint == null) {
+                current.entryPoint = node;
+                return;
+            }
+        }
+
+        Candidate nearest = new Candidate(entryPoint.index, VectorMath.dot(vector, entryPoint.vector));
+        for (int l = entryPoint.level; l > level; l--) {
+            nearest = greedyClosest(current, vector, nearest, l);
+        }
+
+        List<Candidate> entryPoints = List.of(nearest);
+        for (int l = Math.min(level, entryPoint.level); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(current, vector, entryPoints, efConstruction, l);
+            int[] neighbours = selectNeighbours(current, candidates, maxConnections(l));
+            synchronized (node) {
+                node.neighbours[l] = neighbours;
+            }
+            for (int neighbour : neighbours) {
+                connect(current, current.node(neighbour), node.index, l);
+            }
+            entryPoints = candidates;
+        }
+
+        if (level > entryPoint.level) {
+            synchronized (current) {
+                if (level > current.entryPoint.level) {
+                    current.entryPoint = node;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ajoute un lien retour ; si la liste du voisin déborde, elle est réduite par l'heuristique de sélection.
+     */
+    private void connect(Graph<Embedded> current, Node<Embedded> node, int newNeighbour, int level) {
+        synchronized (node) {
+            int[] existing = node.neighbours[level];
+            int max = maxConnections(level);
+            if (existing.length < max) {
+                int[] extended = Arrays.copyOf(existing, existing.length + 1);
+                extended[existing.length] = newNeighbour;
+                node.neighbours[level] = extended;
+                return;
+            }
+            List<Candidate> candidates = new ArrayList<>(existing.length + 1);
+            for (int neighbour : existing) {
+                candidates.add(new Candidate(neighbour, VectorMath.dot(node.vector, current.node(neighbour).vector)));
+            }
+            candidates.add(new Candidate(newNeighbour, VectorMath.dot(node.vector, current.node(newNeighbour).vector)));
+            candidates.sort(Candidate.BY_SIMILARITY_DESC);
+            node.neighbours[level] = selectNeighbours(current, candidates, max);
+        }
+    }
+
+    /**
+     * Heuristique de sélection de HNSW : un candidat n'est retenu que s'il est plus proche de la requête
+     * que de tous les voisins déjà retenus (ce qui conserve des liens vers des régions différentes).
+     * Les places restantes sont complétées par les meilleurs candidats écartés.
+     */
+    private int[] selectNeighbours(Graph<Embedded> current, List<Candidate> candidatesBySimilarity, int max) {
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> pruned = new ArrayList<>();
+        for (Candidate candidate : candidatesBySimilarity) {
+            if (selected.size() == max) {
+                break;
+            }
+            float[] vector = current.node(candidate.index).vector;
+            boolean diverse = true;
+            for (Candidate kept : selected) {
+                if (VectorMath.dot(vector, current.node(kept.index).vector) > candidate.similarity) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                pruned.add(candidate);
+            }
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < max; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected.stream().mapToInt(candidate -> candidate.index).toArray();
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private int randomLevel() {
+        double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return Math.min(MAX_LEVEL, (int) (-Math.log(random) * levelMultiplier));
+    }
+
+    // ------------------------------------------------------------------------------------------
+    // Parcours du graphe
+    // ------------------------------------------------------------------------------------------
+
+    private Candidate greedyClosest(Graph<Embedded> current, float[] query, Candidate start, int level) {
+        Candidate best = start;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbour : current.node(best.index).neighboursAt(level)) {
+                float similarity = VectorMath.dot(query, current.node(neighbour).vector);
+                if (similarity > best.similarity) {
+                    best = new Candidate(neighbour, similarity);
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Recherche en faisceau sur une couche.
+     *
+     * @return Les {@code ef} meilleurs candidats trouvés, du plus similaire au moins similaire.
+     */
+    private List<Candidate> searchLayer(Graph<Embedded> current, float[] query, List<Candidate> entryPoints, int ef, int level) {
+        VisitedSet visited = VisitedSet.get(current.size);
+        PriorityQueue<Candidate> toExplore = new PriorityQueue<>(Candidate.BY_SIMILARITY_DESC);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Candidate.BY_SIMILARITY_ASC);
+        for (Candidate entryPoint : entryPoints) {
+            if (visited.add(entryPoint.index)) {
+                toExplore.add(entryPoint);
+                results.add(entryPoint);
+            }
+        }
+        while (results.size() > ef) {
+            results.poll();
+        }
+
+        while (!toExplore.isEmpty()) {
+            Candidate candidate = toExplore.poll();
+            if (results.size() >= ef && candidate.similarity < results.peek().similarity) {
+                break;
+            }
+            for (int neighbour : current.node(candidate.index).neighboursAt(level)) {
+                if (!visited.add(neighbour)) {
+                    continue;
+                }
+                float similarity = VectorMath.dot(query, current.node(neighbour).vector);
+                if (results.size() < ef || similarity > results.peek().similarity) {
+                    Candidate next = new Candidate(neighbour, similarity);
+                    toExplore.add(next);
+                    results.add(next);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(Candidate.BY_SIMILARITY_DESC);
+        return sorted;
+    }
+
+    // ------------------------------------------------------------------------------------------
+    // Structures internes
+    // ------------------------------------------------------------------------------------------
+
+    private record Candidate(int index, float similarity) {
+        static final Comparator<Candidate> BY_SIMILARITY_DESC = (a, b) -> Float.compare(b.similarity, a.similarity);
+        static final Comparator<Candidate> BY_SIMILARITY_ASC = (a, b) -> Float.compare(a.similarity, b.similarity);
+    }
+
+    private static final class Node<Embedded> {
+        final int index;
+        final String id;
+        final Embedding embedding;
+        final float[] vector;
+        final Embedded embedded;
+        final int level;
+        /** Voisins par couche, remplacés (jamais modifiés en place) sous le verrou du nœud. */
+        final int[][] neighbours;
+        volatile boolean deleted;
+
+        Node(int index, String id, Embedding embedding, float[] vector, Embedded embedded, int level) {
+            this.index = index;
+            this.id = id;
+            this.embedding = embedding;
+            this.vector = vector;
+            this.embedded = embedded;
+            this.level = level;
+            this.neighbours = new int[level + 1][];
+            Arrays.fill(neighbours, new int[0]);
+        }
+
+        synchronized int[] neighboursAt(int level) {
+            return level < neighbours.length ? neighbours[level] : new int[0];
+        }
+    }
+
+    private static final class Graph<Embedded> {
+        final ConcurrentHashMap<String, Integer> idToNode = new ConcurrentHashMap<>();
+        volatile Node<Embedded>[] nodes = newArray(1024);
+        volatile int size;
+        volatile Node<Embedded> entryPoint;
+
+        Node<Embedded> node(int index) {
+            return nodes[index];
+        }
+
+        synchronized Node<Embedded> append(String id, Embedding embedding, float[] vector, Embedded embedded, int level) {
+            int index = size;
+            if (index == nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            }
+            Node<Embedded> node = new Node<>(index, id, embedding, vector, embedded, level);
+            nodes[index] = node;
+            size = index + 1;
+            return node;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <Embedded> Node<Embedded>[] newArray(int capacity) {
+            return (Node<Embedded>[]) new Node[capacity];
+        }
+    }
+
+    /**
+     * Ensemble des nœuds visités, réutilisé d'une recherche à l'autre par thread (marquage par époque).
+     */
+    private static final class VisitedSet {
+        private static final ThreadLocal<VisitedSet> CURRENT = ThreadLocal.withInitial(VisitedSet::new);
+
+        private int[] marks = new int[0];
+        private int epoch;
+
+        static VisitedSet get(int capacity) {
+            VisitedSet set = CURRENT.get();
+            if (set.marks.length < capacity || set.epoch == Integer.MAX_VALUE) {
+                set.marks = new int[Math.max(capacity, set.marks.length * 2)];
+                set.epoch = 0;
+            }
+            set.epoch++;
+            return set;
+        }
+
+        boolean add(int index) {
+            if (index >= marks.length) {
+                // Nœud ajouté pendant la recherche
+                marks = Arrays.copyOf(marks, Math.max(index + 1, marks.length * 2));
+            }
+            if (marks[index] == epoch) {
+                return false;
+            }
+            marks[index] = epoch;
+            return true;
+        }
+    }
+
+    public static class Builder {
+
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 64;
+
+        /**
+         * Nombre de voisins par nœud (2 * M sur la couche 0). Plus M est grand, meilleur est le rappel
+         * et plus le graphe consomme de mémoire.
+         */
+        public Builder m(int m) {
+            if (m < 2) {
+                throw new IllegalArgumentException("m doit être au moins égal à 2");
+            }
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * Taille du faisceau lors de l'insertion : qualité du graphe contre temps de construction.
+         */
+        public Builder efConstruction(int efConstruction) {
+            this.efConstruction = Math.max(1, efConstruction);
+            return this;
+        }
+
+        /**
+         * Taille du faisceau lors de la recherche (au moins {@code maxResults}) : rappel contre latence.
+         */
+        public Builder efSearch(int efSearch) {
+            this.efSearch = Math.max(1, efSearch);
+            return this;
+        }
+
+        public <Embedded> HnswEmbeddingStore<Embedded> build() {
+            return new HnswEmbeddingStore<>(this);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ma.emsi.rag.store;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Découpage d'un texte en termes pour l'index lexical.
+ * <p>
+ * Les termes sont mis en minuscules et sans accents. Un identifiant composé est indexé en entier et par
+ * morceaux : {@code MessageWindowChatMemory} donne {@code messagewindowchatmemory}, {@code message},
+ * {@code window}, {@code chat} et {@code memory} ; {@code gemini-2.0-flash} donne le terme entier,
+ * {@code gemini}, {@code 2.0} et {@code flash}. Les mots vides les plus fréquents (français et anglais) sont
+ * ignorés.
+ */
+final class LexicalAnalyzer {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "le", "la", "les", "un", "une", "des", "de", "du", "et", "ou", "en", "au", "aux", "a", "l", "d",
+            "que", "qui", "quoi", "est", "sont", "ce", "cet", "cette", "ces", "pour", "par", "sur", "dans",
+            "avec", "il", "elle", "on", "se", "ne", "pas", "plus", "son", "sa", "ses", "leur", "qu", "s", "c",
+            "the", "an", "and", "or", "of", "to", "in", "is", "are", "for", "with", "by", "it", "this",
+            "that", "be", "as", "at", "what", "how");
+
+    private LexicalAnalyzer() {
+    }
+
+    /**
+     * Transmet à {@code sink} chaque terme de {@code text}, dans l'ordre et avec ses répétitions.
+     */
+    static void analyze(String text, Consumer<String> sink) {
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            boolean wordChar = Character.isLetterOrDigit(c) || c == '_';
+            // '.' et '-' entre deux caractères de mot restent dans le terme : versions, codes, noms de modèles
+            boolean joiner = (c == '.' || c == '-') && start >= 0 && i + 1 < length
+                    && Character.isLetterOrDigit(text.charAt(i + 1));
+            if (wordChar || joiner) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                emit(text.substring(start, i), sink);
+                start = -1;
+            }
+        }
+    }
+
+    private static void emit(String token, Consumer<String> sink) {
+        String term = normalize(token);
+        if (term.length() < 2 && !Character.isDigit(term.charAt(0)) || STOP_WORDS.contains(term)) {
+            return;
+        }
+        sink.accept(term);
+        // Morceaux d'un identifiant composé (camelCase, snake_case, tirets, points entre lettres)
+        int partStart = 0;
+        for (int i = 1; i <= token.length(); i++) {
+            boolean boundary = i == token.length()
+                    || isSeparator(token, i)
+                    || Character.isUpperCase(token.charAt(i)) && Character.isLowerCase(token.charAt(i - 1));
+            if (boundary) {
+                if (i > partStart && (partStart > 0 || i < token.length())) {
+                    String part = normalize(token.substring(partStart, i));
+                    if (part.length() > 1 && !STOP_WORDS.contains(part)) {
+                        sink.accept(part);
+                    }
+                }
+                partStart = i < token.length() && isSeparator(token, i) ? i + 1 : i;
+            }
+        }
+    }
+
+    /**
+     * Séparateur d'un identifiant composé ; le point d'une version ({@code 2.0}) n'en est pas un.
+     */
+    private static boolean isSeparator(String token, int i) {
+        char c = token.charAt(i);
+        if (c == '_' || c == '-') {
+            return true;
+        }
+        return c == '.' && !(Character.isDigit(token.charAt(i - 1)) && i + 1 < token.length()
+                && Character.isDigit(token.charAt(i + 1)));
+    }
+
+    private static String normalize(String token) {
+        String lower = token.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < lower.length(); i++) {
+            if (lower.charAt(i) > 0x7F) {
+                return MARKS.matcher(Normalizer.normalize(lower, Normalizer.Form.NFD)).replaceAll("");
+            }
+        }
+        return lower;
+    }
+}
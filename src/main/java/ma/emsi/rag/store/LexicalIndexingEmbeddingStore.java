@@ -0,0 +1,109 @@
+package ma.emsi.rag.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * EmbeddingStore qui tient à jour, en plus du store vectoriel délégué, un index BM25 ({@link Bm25Index}) des
+ * mêmes segments sous les mêmes identifiants.
+ * <p>
+ * Les ajouts et suppressions faits à l'ingestion (pipeline, index persistant, ingestion incrémentale)
+ * alimentent ainsi les deux index sans autre changement ; {@code search} reste la recherche vectorielle du
+ * délégué, et {@link #lexicalIndex()} donne accès à la recherche lexicale.
+ */
+public class LexicalIndexingEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private final EmbeddingStore<TextSegment> delegate;
+    private final Bm25Index lexicalIndex;
+
+    public LexicalIndexingEmbeddingStore(EmbeddingStore<TextSegment> delegate) {
+        this(delegate, new Bm25Index());
+    }
+
+    public LexicalIndexingEmbeddingStore(EmbeddingStore<TextSegment> delegate, Bm25Index lexicalIndex) {
+        this.delegate = delegate;
+        this.lexicalIndex = lexicalIndex;
+    }
+
+    public Bm25Index lexicalIndex() {
+        return lexicalIndex;
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        return delegate.add(embedding);
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        delegate.add(id, embedding);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), segment == null ? null : List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return delegate.addAll(embeddings);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> segments) {
+        // Identifiants générés ici pour que les deux index partagent les mêmes
+        List<String> generated = new ArrayList<>(embeddings.size());
+        for (int i = 0; i < embeddings.size(); i++) {
+            generated.add(UUID.randomUUID().toString());
+        }
+        addAll(generated, embeddings, segments);
+        return generated;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        delegate.addAll(ids, embeddings, segments);
+        if (segments != null) {
+            lexicalIndex.addAll(ids, segments);
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        removeAll(List.of(id));
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        delegate.removeAll(ids);
+        lexicalIndex.removeAll(ids);
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        delegate.removeAll(filter);
+        lexicalIndex.removeAll(filter);
+    }
+
+    @Override
+    public void removeAll() {
+        delegate.removeAll();
+        lexicalIndex.clear();
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        return delegate.search(request);
+    }
+}
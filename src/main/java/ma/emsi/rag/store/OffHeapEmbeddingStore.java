@@ -0,0 +1,352 @@
+package ma.emsi.rag.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EmbeddingStore exhaustif dont les vecteurs et les textes sont rangés hors du tas.
+ * <p>
+ * {@code InMemoryEmbeddingStore} garde pour chaque segment un objet {@code Embedding} (et son {@code float[]}),
+ * le {@code TextSegment} et sa map de métadonnées : autant d'objets que le GC doit parcourir, dispersés en mémoire.
+ * Ici les vecteurs, normalisés à l'insertion, sont rangés bout à bout dans des blocs de mémoire directe
+ * ({@link OffHeapFloatRows}) et les segments encodés dans une table séparée ({@link OffHeapTextTable}).
+ * Sur le tas ne restent, par segment, que l'identifiant, la norme d'origine et la référence du texte.
+ * <p>
+ * Une recherche parcourt les blocs séquentiellement : les lignes sont copiées par paquets dans un tableau
+ * de travail puis comparées à la requête par {@link VectorMath#dotRows} (API Vector si disponible).
+ * Les scores ont le même sens que ceux d'{@code InMemoryEmbeddingStore} ({@code (cosinus + 1) / 2}).
+ * <p>
+ * Les suppressions marquent les lignes ; le store est compacté quand plus de la moitié des lignes sont supprimées.
+ */
+public class OffHeapEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    /** Lignes copiées à la fois dans le tableau de travail d'une recherche. */
+    private static final int SCAN_ROWS = 64;
+    private static final int COMPACTION_THRESHOLD = 1024;
+    private static final long NO_SEGMENT = -1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private OffHeapFloatRows vectors;
+    private OffHeapTextTable texts = new OffHeapTextTable();
+    private String[] ids = new String[1024];
+    private float[] norms = new float[1024];
+    private long[] segments = new long[1024];
+    private final Map<String, Integer> rowById = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), segment == null ? null : List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return addAll(embeddings, null);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> segments) {
+        List<String> generated = new ArrayList<>(embeddings.size());
+        for (int i = 0; i < embeddings.size(); i++) {
+            generated.add(UUID.randomUUID().toString());
+        }
+        addAll(generated, embeddings, segments);
+        return generated;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        if (ids.size() != embeddings.size() || (segments != null && segments.size() != embeddings.size())) {
+            throw new IllegalArgumentException("Les listes d'identifiants, d'embeddings et de segments doivent avoir la même taille");
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                TextSegment segment = segments == null ? null : segments.get(i);
+                append(ids.get(i), embeddings.get(i).vector(), segment == null ? NO_SEGMENT : texts.append(segment));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idsToRemove) {
+                Integer row = rowById.remove(id);
+                if (row != null) {
+                    markDeleted(row);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            int size = size(vectors);
+            for (int row = 0; row < size; row++) {
+                if (!deleted.get(row) && segments[row] != NO_SEGMENT && filter.test(texts.get(segments[row]).metadata())) {
+                    rowById.remove(ids[row], row);
+                    markDeleted(row);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            vectors = null;
+            texts = new OffHeapTextTable();
+            ids = new String[1024];
+            norms = new float[1024];
+            segments = new long[1024];
+            rowById.clear();
+            deleted.clear();
+            deletedCount = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Nombre d'embeddings visibles (hors suppressions).
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Nombre d'octets réservés hors du tas (vecteurs et textes).
+     */
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (vectors == null ? 0 : vectors.reservedBytes()) + texts.reservedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        lock.readLock().lock();
+        try {
+            if (vectors == null || request.maxResults() <= 0) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            float[] query = VectorMath.normalized(request.queryEmbedding().vector());
+            if (query.length != vectors.dimension()) {
+                throw new IllegalArgumentException("Dimension attendue " + vectors.dimension() + ", reçue " + query.length);
+            }
+            // score = (cosinus + 1) / 2 >= minScore  <=>  cosinus >= 2 * minScore - 1
+            float minSimilarity = (float) (2 * request.minScore() - 1);
+            Filter filter = request.filter();
+            TopK best = new TopK(request.maxResults());
+
+            int size = vectors.size();
+            Scratch scratch = Scratch.get(vectors.dimension());
+            for (int first = 0; first < size; first += SCAN_ROWS) {
+                // Un paquet ne chevauche jamais deux blocs : BLOCK_ROWS est un multiple de SCAN_ROWS
+                int count = Math.min(SCAN_ROWS, size - first);
+                vectors.copyRows(first, count, scratch.rows);
+                VectorMath.dotRows(query, scratch.rows, count, scratch.similarities);
+                // Sélection fusionnée au parcours : seuls les scores qui battent le k-ième courant sont examinés
+                for (int i = 0; i < count; i++) {
+                    float similarity = scratch.similarities[i];
+                    int row = first + i;
+                    if (similarity < minSimilarity || !best.accepts(similarity) || deleted.get(row)) {
+                        continue;
+                    }
+                    if (filter != null && !matches(filter, row)) {
+                        continue;
+                    }
+                    best.offer(row, similarity);
+                }
+            }
+
+            float[] similarities = new float[best.size()];
+            int[] rows = best.drainDescending(similarities);
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(rows.length);
+            for (int i = 0; i < rows.length; i++) {
+                int row = rows[i];
+                matches.add(new EmbeddingMatch<>(
+                        RelevanceScore.fromCosineSimilarity(similarities[i]),
+                        ids[row],
+                        embedding(row),
+                        segments[row] == NO_SEGMENT ? null : texts.get(segments[row])));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean matches(Filter filter, int row) {
+        return segments[row] != NO_SEGMENT && filter.test(texts.get(segments[row]).metadata());
+    }
+
+    /**
+     * Recrée l'embedding d'origine à partir de la ligne normalisée et de sa norme.
+     */
+    private Embedding embedding(int row) {
+        float[] vector = vectors.row(row);
+        float norm = norms[row];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= norm;
+        }
+        return Embedding.from(vector);
+    }
+
+    private void append(String id, float[] vector, long segment) {
+        if (vectors == null) {
+            vectors = new OffHeapFloatRows(vector.length);
+        }
+        float[] normalized = vector.clone();
+        float norm = norm(normalized);
+        if (norm > 0) {
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] /= norm;
+            }
+        }
+        int row = vectors.append(normalized);
+        if (row == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            norms = Arrays.copyOf(norms, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+        }
+        ids[row] = id;
+        norms[row] = norm;
+        segments[row] = segment;
+        Integer replaced = rowById.put(id, row);
+        if (replaced != null) {
+            markDeleted(replaced);
+        }
+    }
+
+    private void markDeleted(int row) {
+        if (!deleted.get(row)) {
+            deleted.set(row);
+            deletedCount++;
+        }
+    }
+
+    /**
+     * Réécrit les lignes vivantes dans de nouveaux blocs quand les suppressions occupent plus de la moitié du store
+     * (les anciens blocs sont libérés par le GC).
+     */
+    private void compactIfNeeded() {
+        if (vectors == null || deletedCount < COMPACTION_THRESHOLD || deletedCount * 2 < vectors.size()) {
+            return;
+        }
+        OffHeapFloatRows oldVectors = vectors;
+        OffHeapTextTable oldTexts = texts;
+        String[] oldIds = ids;
+        float[] oldNorms = norms;
+        long[] oldSegments = segments;
+        BitSet oldDeleted = (BitSet) deleted.clone();
+        int oldSize = oldVectors.size();
+
+        int capacity = Math.max(1024, Integer.highestOneBit(Math.max(1, oldSize - deletedCount)) * 2);
+        vectors = new OffHeapFloatRows(oldVectors.dimension());
+        texts = new OffHeapTextTable();
+        ids = new String[capacity];
+        norms = new float[capacity];
+        segments = new long[capacity];
+        rowById.clear();
+        deleted.clear();
+        deletedCount = 0;
+
+        for (int row = 0; row < oldSize; row++) {
+            if (oldDeleted.get(row)) {
+                continue;
+            }
+            long segment = oldSegments[row] == NO_SEGMENT ? NO_SEGMENT : texts.append(oldTexts.get(oldSegments[row]));
+            int newRow = vectors.append(oldVectors.row(row));
+            ids[newRow] = oldIds[row];
+            norms[newRow] = oldNorms[row];
+            segments[newRow] = segment;
+            rowById.put(oldIds[row], newRow);
+        }
+    }
+
+    private static float norm(float[] vector) {
+        double sum = 0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    private static int size(OffHeapFloatRows vectors) {
+        return vectors == null ? 0 : vectors.size();
+    }
+
+    /**
+     * Tableaux de travail d'une recherche, réutilisés d'une recherche à l'autre par thread.
+     */
+    private static final class Scratch {
+        private static final ThreadLocal<Scratch> CURRENT = ThreadLocal.withInitial(Scratch::new);
+
+        float[] rows = new float[0];
+        final float[] similarities = new float[SCAN_ROWS];
+
+        static Scratch get(int dimension) {
+            Scratch scratch = CURRENT.get();
+            if (scratch.rows.length < SCAN_ROWS * dimension) {
+                scratch.rows = new float[SCAN_ROWS * dimension];
+            }
+            return scratch;
+        }
+    }
+}
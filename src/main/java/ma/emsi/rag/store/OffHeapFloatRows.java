@@ -0,0 +1,108 @@
+package ma.emsi.rag.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Table de vecteurs de dimension fixe rangés bout à bout hors du tas, par blocs de {@link #BLOCK_ROWS} lignes.
+ * <p>
+ * Chaque bloc est un {@code ByteBuffer} direct dans l'ordre natif : la copie d'une série de lignes vers un
+ * {@code float[]} se fait alors par une copie mémoire, sans conversion. Les blocs sont soit alloués en mémoire
+ * directe, soit projetés depuis un fichier ({@link #mapped}) : le système ne garde alors en mémoire que les pages lues.
+ * La mémoire d'un bloc est rendue au système quand le bloc n'est plus référencé.
+ * <p>
+ * Non thread-safe : la synchronisation est assurée par le store.
+ */
+final class OffHeapFloatRows {
+
+    /** 4096 lignes de 384 floats = 6 Mo par bloc pour all-MiniLM-L6-v2. */
+    static final int BLOCK_ROWS = 4096;
+
+    private final int dimension;
+    private final IntFunction<ByteBuffer> allocator;
+    private final List<FloatBuffer> blocks = new ArrayList<>();
+    private int size;
+
+    OffHeapFloatRows(int dimension) {
+        this(dimension, block -> ByteBuffer.allocateDirect(blockBytes(dimension)));
+    }
+
+    private OffHeapFloatRows(int dimension, IntFunction<ByteBuffer> allocator) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("La dimension doit être positive : " + dimension);
+        }
+        this.dimension = dimension;
+        this.allocator = allocator;
+    }
+
+    /**
+     * Lignes rangées dans un fichier projeté en mémoire, bloc après bloc depuis le début du fichier.
+     */
+    static OffHeapFloatRows mapped(int dimension, FileChannel channel) {
+        return new OffHeapFloatRows(dimension, block -> {
+            try {
+                long position = (long) block * blockBytes(dimension);
+                return channel.map(FileChannel.MapMode.READ_WRITE, position, blockBytes(dimension));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static int blockBytes(int dimension) {
+        return BLOCK_ROWS * dimension * Float.BYTES;
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return Nombre d'octets réservés hors du tas (ou projetés depuis le fichier).
+     */
+    long reservedBytes() {
+        return (long) blocks.size() * blockBytes(dimension);
+    }
+
+    /**
+     * Ajoute une ligne et retourne son numéro.
+     */
+    int append(float[] row) {
+        if (row.length != dimension) {
+            throw new IllegalArgumentException("Dimension attendue " + dimension + ", reçue " + row.length);
+        }
+        if (size == blocks.size() * BLOCK_ROWS) {
+            blocks.add(allocator.apply(blocks.size())
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer());
+        }
+        int index = size++;
+        blocks.get(index / BLOCK_ROWS).put((index % BLOCK_ROWS) * dimension, row);
+        return index;
+    }
+
+    /**
+     * Copie {@code count} lignes consécutives à partir de {@code firstRow} dans {@code target}
+     * (lignes bout à bout). Les lignes ne doivent pas chevaucher deux blocs.
+     */
+    void copyRows(int firstRow, int count, float[] target) {
+        blocks.get(firstRow / BLOCK_ROWS).get((firstRow % BLOCK_ROWS) * dimension, target, 0, count * dimension);
+    }
+
+    float[] row(int row) {
+        float[] target = new float[dimension];
+        copyRows(row, 1, target);
+        return target;
+    }
+}
@@ -0,0 +1,58 @@
+package ma.emsi.rag.store;
+
+import dev.langchain4j.data.segment.TextSegment;
+import ma.emsi.rag.index.SegmentCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Table des segments (texte + métadonnées) encodés par {@link SegmentCodec} et rangés hors du tas,
+ * par tranches de {@link #CHUNK_BYTES} octets.
+ * <p>
+ * Un segment est désigné par une référence {@code long} : numéro de tranche sur les 32 bits de poids fort,
+ * position dans la tranche sur les 32 bits de poids faible. Un segment n'est décodé (et donc recréé sur le tas)
+ * que lorsqu'il est retourné par une recherche ou testé par un filtre.
+ * <p>
+ * Non thread-safe : la synchronisation est assurée par le store.
+ */
+final class OffHeapTextTable {
+
+    static final int CHUNK_BYTES = 1 << 20;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private ByteBuffer current;
+
+    /**
+     * Ajoute un segment et retourne sa référence.
+     */
+    long append(TextSegment segment) {
+        byte[] encoded = SegmentCodec.encode(segment);
+        if (current == null || current.remaining() < encoded.length) {
+            // Un segment plus grand qu'une tranche reçoit sa propre tranche
+            current = ByteBuffer.allocateDirect(Math.max(CHUNK_BYTES, encoded.length));
+            chunks.add(current);
+        }
+        long reference = ((long) (chunks.size() - 1) << 32) | current.position();
+        current.put(encoded);
+        return reference;
+    }
+
+    TextSegment get(long reference) {
+        ByteBuffer chunk = chunks.get((int) (reference >>> 32)).duplicate();
+        chunk.position((int) reference);
+        return SegmentCodec.decode(chunk);
+    }
+
+    /**
+     * @return Nombre d'octets réservés hors du tas.
+     */
+    long reservedBytes() {
+        long total = 0;
+        for (ByteBuffer chunk : chunks) {
+            total += chunk.capacity();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,35 @@
+package ma.emsi.rag.store;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mesure d'un {@link QuantizedEmbeddingStore} : rappel par rapport à la recherche exacte et mémoire occupée.
+ *
+ * @param recall             Proportion des {@code k} vrais plus proches voisins retrouvés.
+ * @param codeBytes          Mémoire occupée par les codes (tas).
+ * @param fullPrecisionBytes Taille des vecteurs en pleine précision (fichier projeté).
+ */
+public record QuantizationReport(QuantizedEmbeddingStore.Quantization quantization,
+                                 int vectors,
+                                 int k,
+                                 double recall,
+                                 long codeBytes,
+                                 long fullPrecisionBytes,
+                                 long quantizedSearchNanos,
+                                 long exactSearchNanos) {
+
+    public double compression() {
+        return codeBytes == 0 ? 0 : fullPrecisionBytes / (double) codeBytes;
+    }
+
+    /**
+     * Affiche le bilan dans la console.
+     */
+    public void print() {
+        System.out.printf("  - Quantification %s : %d vecteurs, rappel@%d = %.3f%n", quantization, vectors, k, recall);
+        System.out.printf("    mémoire des codes %d Ko contre %d Ko en float32 (%.1fx moins)%n",
+                codeBytes / 1024, fullPrecisionBytes / 1024, compression());
+        System.out.printf("    recherche quantifiée %d µs, recherche exacte %d µs%n",
+                TimeUnit.NANOSECONDS.toMicros(quantizedSearchNanos), TimeUnit.NANOSECONDS.toMicros(exactSearchNanos));
+    }
+}
@@ -0,0 +1,519 @@
+package ma.emsi.rag.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EmbeddingStore dont seuls des codes compacts des vecteurs restent en mémoire.
+ * <p>
+ * Chaque vecteur normalisé est résumé par un code :
+ * <ul>
+ *     <li>{@link Quantization#INT8} : un octet signé par composante et une échelle par vecteur (4x moins de mémoire) ;</li>
+ *     <li>{@link Quantization#BINARY} : le signe de chaque composante sur un bit (32x moins de mémoire).</li>
+ * </ul>
+ * La recherche se fait en deux passes : un parcours de tous les codes retient les meilleurs candidats
+ * ({@code maxResults} x sur-échantillonnage), puis ces candidats sont re-notés avec leur vecteur en pleine
+ * précision, lu dans un fichier projeté en mémoire (seules les pages lues occupent la mémoire). Les scores
+ * retournés, {@code minScore} et les filtres portent donc sur la similarité exacte, comme dans
+ * {@code InMemoryEmbeddingStore}.
+ * <p>
+ * {@link #evaluate} mesure le rappel de la recherche par rapport à un parcours exact.
+ * Les suppressions marquent les lignes sans récupérer leur place.
+ */
+public class QuantizedEmbeddingStore implements EmbeddingStore<TextSegment>, AutoCloseable {
+
+    public enum Quantization {
+        INT8,
+        BINARY
+    }
+
+    private static final long NO_SEGMENT = -1;
+    private static final int MIN_CANDIDATES = 32;
+
+    private final Quantization quantization;
+    private final int oversampling;
+    private final Path vectorFile;
+    private final boolean temporaryFile;
+    private final FileChannel channel;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int dimension;
+    private int words;
+    private OffHeapFloatRows fullPrecision;
+    private OffHeapTextTable texts = new OffHeapTextTable();
+    private byte[] int8Codes = new byte[0];
+    private float[] scales = new float[0];
+    private long[] binaryCodes = new long[0];
+    private String[] ids = new String[0];
+    private float[] norms = new float[0];
+    private long[] segments = new long[0];
+    private int rows;
+    private final Map<String, Integer> rowById = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+
+    private QuantizedEmbeddingStore(Builder builder) {
+        this.quantization = builder.quantization;
+        this.oversampling = builder.oversampling > 0 ? builder.oversampling
+                : builder.quantization == Quantization.INT8 ? 4 : 16;
+        try {
+            this.temporaryFile = builder.vectorFile == null;
+            this.vectorFile = temporaryFile ? Files.createTempFile("rag-vectors", ".f32") : builder.vectorFile;
+            if (temporaryFile) {
+                vectorFile.toFile().deleteOnExit();
+            }
+            this.channel = FileChannel.open(vectorFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.truncate(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Fichier des vecteurs inutilisable : " + builder.vectorFile, e);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Quantization quantization() {
+        return quantization;
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), segment == null ? null : List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return addAll(embeddings, null);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> segments) {
+        List<String> generated = new ArrayList<>(embeddings.size());
+        for (int i = 0; i < embeddings.size(); i++) {
+            generated.add(UUID.randomUUID().toString());
+        }
+        addAll(generated, embeddings, segments);
+        return generated;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        if (ids.size() != embeddings.size() || (segments != null && segments.size() != embeddings.size())) {
+            throw new IllegalArgumentException("Les listes d'identifiants, d'embeddings et de segments doivent avoir la même taille");
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                TextSegment segment = segments == null ? null : segments.get(i);
+                append(ids.get(i), embeddings.get(i).vector(), segment == null ? NO_SEGMENT : texts.append(segment));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idsToRemove) {
+                Integer row = rowById.remove(id);
+                if (row != null) {
+                    deleted.set(row);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int row = 0; row < rows; row++) {
+                if (!deleted.get(row) && matches(filter, row)) {
+                    rowById.remove(ids[row], row);
+                    deleted.set(row);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            fullPrecision = null;
+            texts = new OffHeapTextTable();
+            int8Codes = new byte[0];
+            scales = new float[0];
+            binaryCodes = new long[0];
+            ids = new String[0];
+            norms = new float[0];
+            segments = new long[0];
+            rows = 0;
+            rowById.clear();
+            deleted.clear();
+            channel.truncate(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Nombre d'embeddings visibles (hors suppressions).
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        lock.readLock().lock();
+        try {
+            if (rows == 0 || request.maxResults() <= 0) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            float[] query = normalizedQuery(request.queryEmbedding());
+            int candidates = Math.max(MIN_CANDIDATES, request.maxResults() * oversampling);
+            int[] approximate = approximateSearch(query, candidates, request.filter());
+
+            // score = (cosinus + 1) / 2 >= minScore  <=>  cosinus >= 2 * minScore - 1
+            float minSimilarity = (float) (2 * request.minScore() - 1);
+            TopK best = new TopK(request.maxResults());
+            float[] row = new float[dimension];
+            for (int candidate : approximate) {
+                fullPrecision.copyRows(candidate, 1, row);
+                float similarity = VectorMath.dot(query, row);
+                if (similarity >= minSimilarity) {
+                    best.offer(candidate, similarity);
+                }
+            }
+
+            float[] similarities = new float[best.size()];
+            int[] selected = best.drainDescending(similarities);
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(selected.length);
+            for (int i = 0; i < selected.length; i++) {
+                int index = selected[i];
+                matches.add(new EmbeddingMatch<>(
+                        RelevanceScore.fromCosineSimilarity(similarities[i]),
+                        ids[index],
+                        embedding(index),
+                        segments[index] == NO_SEGMENT ? null : texts.get(segments[index])));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compare la recherche quantifiée à un parcours exact des vecteurs en pleine précision, pour des requêtes
+     * tirées parmi les vecteurs du store.
+     *
+     * @param queries Nombre de requêtes.
+     * @param k       Nombre de voisins comparés par requête.
+     */
+    public QuantizationReport evaluate(int queries, int k) {
+        lock.readLock().lock();
+        try {
+            List<Integer> live = new ArrayList<>(rowById.values());
+            if (live.isEmpty()) {
+                throw new IllegalStateException("Le store est vide : rappel non mesurable");
+            }
+            Random random = new Random(42);
+            int found = 0;
+            int expected = 0;
+            long approximateNanos = 0;
+            long exactNanos = 0;
+            float[] row = new float[dimension];
+            for (int q = 0; q < queries; q++) {
+                float[] query = fullPrecision.row(live.get(random.nextInt(live.size())));
+
+                long start = System.nanoTime();
+                TopK best = new TopK(k);
+                for (int candidate : approximateSearch(query, Math.max(MIN_CANDIDATES, k * oversampling), null)) {
+                    fullPrecision.copyRows(candidate, 1, row);
+                    best.offer(candidate, VectorMath.dot(query, row));
+                }
+                int[] approximate = best.drainDescending(new float[best.size()]);
+                approximateNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                TopK exact = new TopK(k);
+                for (int candidate : live) {
+                    fullPrecision.copyRows(candidate, 1, row);
+                    exact.offer(candidate, VectorMath.dot(query, row));
+                }
+                int[] truth = exact.drainDescending(new float[exact.size()]);
+                exactNanos += System.nanoTime() - start;
+
+                Set<Integer> truthSet = new HashSet<>();
+                for (int index : truth) {
+                    truthSet.add(index);
+                }
+                for (int index : approximate) {
+                    if (truthSet.contains(index)) {
+                        found++;
+                    }
+                }
+                expected += truth.length;
+            }
+            return new QuantizationReport(quantization, live.size(), k, found / (double) expected,
+                    codeBytes(), (long) rows * dimension * Float.BYTES,
+                    approximateNanos / queries, exactNanos / queries);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            fullPrecision = null;
+            channel.close();
+            if (temporaryFile) {
+                // Sous Windows, un fichier encore projeté ne peut être supprimé : deleteOnExit prend le relais
+                Files.deleteIfExists(vectorFile);
+            }
+        } catch (IOException e) {
+            System.err.println("Suppression du fichier des vecteurs impossible : " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------
+    // Première passe : parcours des codes
+    // ------------------------------------------------------------------------------------------
+
+    private int[] approximateSearch(float[] query, int candidates, Filter filter) {
+        TopK best = new TopK(candidates);
+        if (quantization == Quantization.INT8) {
+            for (int row = 0; row < rows; row++) {
+                float similarity = scales[row] * VectorMath.dotInt8(query, int8Codes, row * dimension);
+                if (best.accepts(similarity) && !deleted.get(row) && (filter == null || matches(filter, row))) {
+                    best.offer(row, similarity);
+                }
+            }
+        } else {
+            long[] queryBits = new long[words];
+            encodeBinary(query, queryBits, 0);
+            for (int row = 0; row < rows; row++) {
+                float similarity = -VectorMath.hamming(queryBits, binaryCodes, row * words);
+                if (best.accepts(similarity) && !deleted.get(row) && (filter == null || matches(filter, row))) {
+                    best.offer(row, similarity);
+                }
+            }
+        }
+        return best.drainDescending(new float[best.size()]);
+    }
+
+    private boolean matches(Filter filter, int row) {
+        return segments[row] != NO_SEGMENT && filter.test(texts.get(segments[row]).metadata());
+    }
+
+    // ------------------------------------------------------------------------------------------
+    // Insertion et codage
+    // ------------------------------------------------------------------------------------------
+
+    private void append(String id, float[] vector, long segment) {
+        if (fullPrecision == null) {
+            dimension = vector.length;
+            words = (dimension + Long.SIZE - 1) / Long.SIZE;
+            fullPrecision = OffHeapFloatRows.mapped(dimension, channel);
+        }
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Dimension attendue " + dimension + ", reçue " + vector.length);
+        }
+        float norm = norm(vector);
+        float[] normalized = vector.clone();
+        if (norm > 0) {
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] /= norm;
+            }
+        }
+        int row = fullPrecision.append(normalized);
+        ensureCapacity(row + 1);
+        if (quantization == Quantization.INT8) {
+            scales[row] = encodeInt8(normalized, int8Codes, row * dimension);
+        } else {
+            encodeBinary(normalized, binaryCodes, row * words);
+        }
+        ids[row] = id;
+        norms[row] = norm;
+        segments[row] = segment;
+        rows = row + 1;
+        Integer replaced = rowById.put(id, row);
+        if (replaced != null) {
+            deleted.set(replaced);
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(1024, ids.length * 2);
+        ids = Arrays.copyOf(ids, capacity);
+        norms = Arrays.copyOf(norms, capacity);
+        segments = Arrays.copyOf(segments, capacity);
+        if (quantization == Quantization.INT8) {
+            int8Codes = Arrays.copyOf(int8Codes, capacity * dimension);
+            scales = Arrays.copyOf(scales, capacity);
+        } else {
+            binaryCodes = Arrays.copyOf(binaryCodes, capacity * words);
+        }
+    }
+
+    /**
+     * Quantification symétrique : la plus grande composante (en valeur absolue) est codée par 127.
+     *
+     * @return L'échelle qui ramène le produit scalaire avec le code à celui avec le vecteur.
+     */
+    private static float encodeInt8(float[] vector, byte[] codes, int offset) {
+        float max = 0;
+        for (float value : vector) {
+            max = Math.max(max, Math.abs(value));
+        }
+        if (max == 0) {
+            return 0;
+        }
+        float scale = max / 127;
+        for (int i = 0; i < vector.length; i++) {
+            codes[offset + i] = (byte) Math.round(vector[i] / scale);
+        }
+        return scale;
+    }
+
+    /**
+     * Un bit par composante positive : la distance de Hamming entre deux codes estime l'angle entre les vecteurs.
+     */
+    private static void encodeBinary(float[] vector, long[] codes, int offset) {
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > 0) {
+                codes[offset + i / Long.SIZE] |= 1L << (i % Long.SIZE);
+            }
+        }
+    }
+
+    private float[] normalizedQuery(Embedding embedding) {
+        float[] query = VectorMath.normalized(embedding.vector());
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("Dimension attendue " + dimension + ", reçue " + query.length);
+        }
+        return query;
+    }
+
+    private Embedding embedding(int row) {
+        float[] vector = fullPrecision.row(row);
+        float norm = norms[row];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= norm;
+        }
+        return Embedding.from(vector);
+    }
+
+    private long codeBytes() {
+        return quantization == Quantization.INT8
+                ? (long) rows * (dimension + Float.BYTES)
+                : (long) rows * words * Long.BYTES;
+    }
+
+    private static float norm(float[] vector) {
+        double sum = 0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    public static class Builder {
+
+        private Quantization quantization = Quantization.INT8;
+        private int oversampling;
+        private Path vectorFile;
+
+        public Builder quantization(Quantization quantization) {
+            this.quantization = quantization;
+            return this;
+        }
+
+        /**
+         * Nombre de candidats re-notés en pleine précision, en multiple de {@code maxResults} (au moins 32 candidats).
+         * Par défaut 4 en int8 et 16 en binaire, code plus grossier.
+         */
+        public Builder oversampling(int oversampling) {
+            if (oversampling < 1) {
+                throw new IllegalArgumentException("oversampling doit être au moins égal à 1");
+            }
+            this.oversampling = oversampling;
+            return this;
+        }
+
+        /**
+         * Fichier des vecteurs en pleine précision (recréé à vide) ; par défaut, un fichier temporaire
+         * supprimé à la fermeture du store.
+         */
+        public Builder vectorFile(Path vectorFile) {
+            this.vectorFile = vectorFile;
+            return this;
+        }
+
+        public QuantizedEmbeddingStore build() {
+            return new QuantizedEmbeddingStore(this);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ma.emsi.rag.store;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Produits scalaires écrits avec l'API Vector ({@code jdk.incubator.vector}).
+ * <p>
+ * Cette classe n'est chargée que par {@link VectorMath}, et seulement si le module est présent au démarrage
+ * ({@code --add-modules jdk.incubator.vector}) : sans lui, son chargement échouerait.
+ */
+final class SimdKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    /**
+     * Au moins autant d'octets que de floats par registre, pour convertir un morceau de code int8 en vecteur de floats
+     * (la forme la plus petite fait 64 bits).
+     */
+    private static final VectorSpecies<Byte> BYTES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, SPECIES.length() * Byte.SIZE)));
+
+    private SimdKernels() {
+    }
+
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    /**
+     * Deux accumulateurs vectoriels indépendants, combinés par FMA ; la fin du vecteur est traitée en scalaire.
+     */
+    static float dot(float[] a, float[] rows, int offset) {
+        int length = a.length;
+        int step = SPECIES.length();
+        FloatVector acc0 = FloatVector.zero(SPECIES);
+        FloatVector acc1 = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (; i + 2 * step <= length; i += 2 * step) {
+            acc0 = FloatVector.fromArray(SPECIES, a, i).fma(FloatVector.fromArray(SPECIES, rows, offset + i), acc0);
+            acc1 = FloatVector.fromArray(SPECIES, a, i + step).fma(FloatVector.fromArray(SPECIES, rows, offset + i + step), acc1);
+        }
+        for (; i + step <= length; i += step) {
+            acc0 = FloatVector.fromArray(SPECIES, a, i).fma(FloatVector.fromArray(SPECIES, rows, offset + i), acc0);
+        }
+        float sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[i] * rows[offset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Score de {@code count} lignes rangées bout à bout : quatre lignes à la fois, pour ne charger
+     * chaque morceau de la requête qu'une fois par groupe de lignes.
+     */
+    static void dotRows(float[] query, float[] rows, int count, float[] scores) {
+        int dimension = query.length;
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(dimension);
+        int row = 0;
+        for (; row + 4 <= count; row += 4) {
+            int o0 = row * dimension;
+            int o1 = o0 + dimension;
+            int o2 = o1 + dimension;
+            int o3 = o2 + dimension;
+            FloatVector acc0 = FloatVector.zero(SPECIES);
+            FloatVector acc1 = FloatVector.zero(SPECIES);
+            FloatVector acc2 = FloatVector.zero(SPECIES);
+            FloatVector acc3 = FloatVector.zero(SPECIES);
+            int i = 0;
+            for (; i < bound; i += step) {
+                FloatVector q = FloatVector.fromArray(SPECIES, query, i);
+                acc0 = q.fma(FloatVector.fromArray(SPECIES, rows, o0 + i), acc0);
+                acc1 = q.fma(FloatVector.fromArray(SPECIES, rows, o1 + i), acc1);
+                acc2 = q.fma(FloatVector.fromArray(SPECIES, rows, o2 + i), acc2);
+                acc3 = q.fma(FloatVector.fromArray(SPECIES, rows, o3 + i), acc3);
+            }
+            float s0 = acc0.reduceLanes(VectorOperators.ADD);
+            float s1 = acc1.reduceLanes(VectorOperators.ADD);
+            float s2 = acc2.reduceLanes(VectorOperators.ADD);
+            float s3 = acc3.reduceLanes(VectorOperators.ADD);
+            for (; i < dimension; i++) {
+                float q = query[i];
+                s0 += q * rows[o0 + i];
+                s1 += q * rows[o1 + i];
+                s2 += q * rows[o2 + i];
+                s3 += q * rows[o3 + i];
+            }
+            scores[row] = s0;
+            scores[row + 1] = s1;
+            scores[row + 2] = s2;
+            scores[row + 3] = s3;
+        }
+        for (; row < count; row++) {
+            scores[row] = dot(query, rows, row * dimension);
+        }
+    }
+
+    static float dotInt8(float[] query, byte[] codes, int offset) {
+        int length = query.length;
+        int step = SPECIES.length();
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int i = 0;
+        // Le morceau lu peut être plus long que le registre de floats : il doit rester dans le code
+        for (; i + Math.max(step, BYTES.length()) <= length; i += step) {
+            FloatVector code = (FloatVector) ByteVector.fromArray(BYTES, codes, offset + i)
+                    .convertShape(VectorOperators.B2F, SPECIES, 0);
+            acc = FloatVector.fromArray(SPECIES, query, i).fma(code, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += query[i] * codes[offset + i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,93 @@
+package ma.emsi.rag.store;
+
+/**
+ * Sélection des {@code k} meilleures lignes d'un parcours séquentiel, sur des tableaux primitifs
+ * (tas-min de taille {@code k} : aucune allocation par ligne examinée).
+ */
+final class TopK {
+
+    private final int[] rows;
+    private final float[] scores;
+    private int size;
+
+    TopK(int k) {
+        this.rows = new int[Math.max(1, k)];
+        this.scores = new float[rows.length];
+    }
+
+    /**
+     * @return {@code true} si une ligne de ce score entrerait dans la sélection.
+     */
+    boolean accepts(float score) {
+        return size < rows.length || score > scores[0];
+    }
+
+    void offer(int row, float score) {
+        if (size < rows.length) {
+            rows[size] = row;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (score > scores[0]) {
+            rows[0] = row;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Vide la sélection et retourne les lignes retenues du meilleur au moins bon score ;
+     * les scores correspondants sont écrits dans {@code sortedScores}.
+     */
+    int[] drainDescending(float[] sortedScores) {
+        int count = size;
+        int[] sortedRows = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            sortedRows[i] = rows[0];
+            sortedScores[i] = scores[0];
+            size--;
+            rows[0] = rows[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return sortedRows;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (scores[parent] <= scores[index]) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) {
+                return;
+            }
+            int smallest = left + 1 < size && scores[left + 1] < scores[left] ? left + 1 : left;
+            if (scores[index] <= scores[smallest]) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int row = rows[a];
+        rows[a] = rows[b];
+        rows[b] = row;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
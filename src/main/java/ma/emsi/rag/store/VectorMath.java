@@ -0,0 +1,147 @@
+package ma.emsi.rag.store;
+
+/**
+ * Opérations vectorielles communes aux stores : les vecteurs y sont conservés normalisés,
+ * la similarité cosinus se réduit donc à un produit scalaire.
+ * <p>
+ * Les produits scalaires passent par l'API Vector ({@link SimdKernels}) quand le module
+ * {@code jdk.incubator.vector} est chargé (option JVM {@code --add-modules jdk.incubator.vector}),
+ * sinon par une boucle scalaire déroulée. La propriété {@code -Drag.simd=false} force la version scalaire.
+ */
+public final class VectorMath {
+
+    private static final boolean SIMD = simdAvailable();
+
+    private VectorMath() {
+    }
+
+    /**
+     * @return {@code true} si les produits scalaires utilisent l'API Vector.
+     */
+    public static boolean simdEnabled() {
+        return SIMD;
+    }
+
+    public static float dot(float[] a, float[] b) {
+        return dot(a, b, 0);
+    }
+
+    /**
+     * Produit scalaire de {@code a} avec la ligne de {@code rows} qui commence à {@code offset}
+     * (lignes stockées bout à bout dans un même tableau).
+     */
+    public static float dot(float[] a, float[] rows, int offset) {
+        return SIMD ? SimdKernels.dot(a, rows, offset) : scalarDot(a, rows, offset);
+    }
+
+    /**
+     * Écrit dans {@code scores} le produit scalaire de la requête avec chacune des {@code count} premières
+     * lignes de {@code rows} (lignes de {@code query.length} floats, rangées bout à bout).
+     */
+    public static void dotRows(float[] query, float[] rows, int count, float[] scores) {
+        if (SIMD) {
+            SimdKernels.dotRows(query, rows, count, scores);
+            return;
+        }
+        for (int row = 0; row < count; row++) {
+            scores[row] = scalarDot(query, rows, row * query.length);
+        }
+    }
+
+    /**
+     * Produit scalaire de {@code query} avec le code int8 de {@code codes} qui commence à {@code offset}
+     * (à multiplier par l'échelle du code pour obtenir la similarité approchée).
+     */
+    public static float dotInt8(float[] query, byte[] codes, int offset) {
+        if (SIMD) {
+            return SimdKernels.dotInt8(query, codes, offset);
+        }
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        int bound = query.length & ~3;
+        for (; i < bound; i += 4) {
+            s0 += query[i] * codes[offset + i];
+            s1 += query[i + 1] * codes[offset + i + 1];
+            s2 += query[i + 2] * codes[offset + i + 2];
+            s3 += query[i + 3] * codes[offset + i + 3];
+        }
+        for (; i < query.length; i++) {
+            s0 += query[i] * codes[offset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Distance de Hamming entre deux codes binaires de {@code query.length} mots de 64 bits
+     * ({@code Long.bitCount} est compilé en une instruction POPCNT).
+     */
+    public static int hamming(long[] query, long[] codes, int offset) {
+        int distance = 0;
+        for (int i = 0; i < query.length; i++) {
+            distance += Long.bitCount(query[i] ^ codes[offset + i]);
+        }
+        return distance;
+    }
+
+    /**
+     * Produit scalaire avec quatre accumulateurs indépendants : la chaîne de dépendances d'une somme
+     * unique empêcherait le processeur de pipeliner les multiplications.
+     */
+    static float scalarDot(float[] a, float[] rows, int offset) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        int bound = a.length & ~3;
+        for (; i < bound; i += 4) {
+            s0 += a[i] * rows[offset + i];
+            s1 += a[i + 1] * rows[offset + i + 1];
+            s2 += a[i + 2] * rows[offset + i + 2];
+            s3 += a[i + 3] * rows[offset + i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * rows[offset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * @return Une copie normalisée (norme euclidienne 1) du vecteur ; un vecteur nul est retourné tel quel.
+     */
+    public static float[] normalized(float[] vector) {
+        float[] copy = vector.clone();
+        normalize(copy);
+        return copy;
+    }
+
+    public static void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return;
+        }
+        float inverse = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= inverse;
+        }
+    }
+
+    private static boolean simdAvailable() {
+        if (!Boolean.parseBoolean(System.getProperty("rag.simd", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return SimdKernels.lanes() > 1;
+        } catch (LinkageError e) {
+            System.err.println("API Vector indisponible, produits scalaires en version scalaire : " + e);
+            return false;
+        }
+    }
+}
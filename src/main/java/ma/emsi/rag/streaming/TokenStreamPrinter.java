@@ -0,0 +1,142 @@
+package ma.emsi.rag.streaming;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.service.TokenStream;
+import ma.emsi.rag.ingestion.PageStreamingParser;
+import ma.emsi.rag.observability.RagMetrics;
+import ma.emsi.rag.observability.Stage;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Affiche un {@link TokenStream} au fil de l'eau : les sources récupérées d'abord, puis chaque fragment de réponse
+ * dès qu'il arrive. Mesure le temps jusqu'au premier token (ce que l'utilisateur attend réellement) et le débit
+ * de génération.
+ */
+public class TokenStreamPrinter {
+
+    private final PrintStream out;
+
+    public TokenStreamPrinter(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Démarre le flux et l'affiche jusqu'à la fin de la réponse.
+     *
+     * @return La réponse complète et ses mesures.
+     * @throws RuntimeException L'erreur remontée par le flux (modèle injoignable, etc.).
+     */
+    public StreamingReport print(TokenStream stream) {
+        long start = System.nanoTime();
+        AtomicLong retrievedAt = new AtomicLong();
+        AtomicLong firstTokenAt = new AtomicLong();
+        AtomicInteger sources = new AtomicInteger();
+        AtomicInteger fragments = new AtomicInteger();
+        StringBuilder answer = new StringBuilder();
+        CompletableFuture<ChatResponse> done = new CompletableFuture<>();
+
+        stream.onRetrieved(contents -> {
+                    retrievedAt.set(System.nanoTime());
+                    sources.set(contents.size());
+                    printSources(contents);
+                })
+                .onPartialResponse(fragment -> {
+                    firstTokenAt.compareAndSet(0, System.nanoTime());
+                    fragments.incrementAndGet();
+                    answer.append(fragment);
+                    out.print(fragment);
+                    out.flush();
+                })
+                .onCompleteResponse(done::complete)
+                .onError(done::completeExceptionally)
+                .start();
+
+        ChatResponse response;
+        try {
+            response = done.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        long end = System.nanoTime();
+        out.println();
+        if (firstTokenAt.get() != 0) {
+            // Temps jusqu'au premier token côté LLM : à partir de la fin de la récupération
+            long llmStart = retrievedAt.get() == 0 ? start : retrievedAt.get();
+            RagMetrics.record(Stage.LLM_FIRST_TOKEN, "", firstTokenAt.get() - llmStart);
+        }
+
+        // Sans décompte du fournisseur, chaque fragment reçu compte pour un token (borne basse)
+        Integer outputTokens = response.tokenUsage() == null ? null : response.tokenUsage().outputTokenCount();
+        return new StreamingReport(
+                answer.isEmpty() && response.aiMessage() != null ? response.aiMessage().text() : answer.toString(),
+                sources.get(),
+                retrievedAt.get() == 0 ? 0 : retrievedAt.get() - start,
+                firstTokenAt.get() == 0 ? end - start : firstTokenAt.get() - start,
+                end - start,
+                outputTokens == null ? fragments.get() : outputTokens,
+                outputTokens == null);
+    }
+
+    private void printSources(List<Content> contents) {
+        if (contents.isEmpty()) {
+            out.println("[Sources] aucun segment pertinent");
+            return;
+        }
+        StringBuilder line = new StringBuilder("[Sources]");
+        for (Content content : contents) {
+            TextSegment segment = content.textSegment();
+            String file = segment.metadata().getString("file_name");
+            String index = segment.metadata().getString("index");
+            line.append(' ').append(file == null ? "?" : file);
+            if (index != null) {
+                line.append(" #").append(index);
+            }
+            if (segment.metadata().getInteger(PageStreamingParser.PAGE_NUMBER) instanceof Integer page) {
+                line.append(" p.").append(page);
+            }
+            if (content.metadata().get(ContentMetadata.SCORE) instanceof Number score) {
+                line.append(String.format(" (%.2f)", score.doubleValue()));
+            }
+            line.append(';');
+        }
+        line.setLength(line.length() - 1);
+        out.println(line);
+    }
+
+    /**
+     * @param retrievalNanos        Durée de la récupération des segments (0 sans récupération).
+     * @param timeToFirstTokenNanos Durée entre la question et le premier fragment affiché, récupération comprise.
+     * @param tokensEstimated       {@code true} si le fournisseur n'a pas donné le nombre de tokens générés
+     *                              (il est alors estimé par le nombre de fragments reçus).
+     */
+    public record StreamingReport(String answer, int sources, long retrievalNanos, long timeToFirstTokenNanos,
+                                  long totalNanos, int outputTokens, boolean tokensEstimated) {
+
+        /**
+         * @return Débit de génération, mesuré entre le premier et le dernier token.
+         */
+        public double tokensPerSecond() {
+            long generationNanos = totalNanos - timeToFirstTokenNanos;
+            return generationNanos <= 0 ? 0 : outputTokens / (generationNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("premier token en %d ms (récupération %d ms), réponse complète en %d ms, "
+                            + "%s%d tokens à %.1f tokens/s",
+                    TimeUnit.NANOSECONDS.toMillis(timeToFirstTokenNanos), TimeUnit.NANOSECONDS.toMillis(retrievalNanos),
+                    TimeUnit.NANOSECONDS.toMillis(totalNanos), tokensEstimated ? "~" : "", outputTokens,
+                    tokensPerSecond());
+        }
+    }
+}
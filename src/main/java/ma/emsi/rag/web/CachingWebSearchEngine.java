@@ -0,0 +1,272 @@
+package ma.emsi.rag.web;
+
+import dev.langchain4j.web.search.WebSearchEngine;
+import dev.langchain4j.web.search.WebSearchInformationResult;
+import dev.langchain4j.web.search.WebSearchOrganicResult;
+import dev.langchain4j.web.search.WebSearchRequest;
+import dev.langchain4j.web.search.WebSearchResults;
+import ma.emsi.rag.cache.CacheKeys;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Décorateur de {@link WebSearchEngine} qui garde les résultats sur disque, un fichier ".properties" par
+ * recherche, nommé d'après l'empreinte SHA-256 de la requête normalisée (termes, nombre de résultats, langue).
+ * <p>
+ * En mode {@link Mode#CACHE}, une recherche déjà faite depuis moins de {@code ttl} est servie depuis le disque ;
+ * sinon le moteur délégué est appelé et sa réponse enregistrée. Des recherches identiques simultanées ne
+ * déclenchent qu'un appel : les suivantes attendent le résultat de la première.
+ * <p>
+ * En mode {@link Mode#REPLAY}, seuls les fichiers enregistrés sont utilisés, quel que soit leur âge, et une
+ * recherche absente échoue : les tests de charge sont reproductibles, sans réseau ni clé d'API.
+ * Les fichiers sont lisibles et peuvent être versionnés comme jeux de données de test.
+ */
+public class CachingWebSearchEngine implements WebSearchEngine {
+
+    public enum Mode {
+        CACHE,
+        REPLAY
+    }
+
+    private final WebSearchEngine delegate;
+    private final Path directory;
+    private final Mode mode;
+    private final Duration ttl;
+    private final ConcurrentHashMap<String, CompletableFuture<WebSearchResults>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    private CachingWebSearchEngine(Builder builder) {
+        if (builder.directory == null) {
+            throw new IllegalArgumentException("Le répertoire du cache est obligatoire");
+        }
+        if (builder.mode == Mode.CACHE && builder.delegate == null) {
+            throw new IllegalArgumentException("Le moteur de recherche délégué est obligatoire en mode CACHE");
+        }
+        this.delegate = builder.delegate;
+        this.directory = builder.directory;
+        this.mode = builder.mode;
+        this.ttl = builder.ttl;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public WebSearchResults search(WebSearchRequest request) {
+        String key = key(request);
+        Path file = directory.resolve(fileName(key));
+
+        Properties entry = read(file);
+        if (entry != null && (mode == Mode.REPLAY || isFresh(entry))) {
+            hits.increment();
+            return decode(entry);
+        }
+        if (mode == Mode.REPLAY) {
+            misses.increment();
+            throw new IllegalStateException("Aucune recherche enregistrée pour \"" + request.searchTerms()
+                    + "\" dans " + directory);
+        }
+        if (entry != null) {
+            expired.increment();
+        }
+
+        CompletableFuture<WebSearchResults> mine = new CompletableFuture<>();
+        CompletableFuture<WebSearchResults> pending = inFlight.putIfAbsent(key, mine);
+        if (pending != null) {
+            coalesced.increment();
+            try {
+                return pending.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            // Un appel identique a pu se terminer entre la lecture du fichier et l'inscription ci-dessus
+            Properties written = read(file);
+            if (written != null && isFresh(written)) {
+                hits.increment();
+                WebSearchResults results = decode(written);
+                mine.complete(results);
+                return results;
+            }
+            misses.increment();
+            WebSearchResults results = delegate.search(request);
+            write(file, encode(key, results));
+            mine.complete(results);
+            return results;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * @return Recherches servies depuis le disque, appels au moteur délégué (dont entrées périmées),
+     * recherches identiques regroupées.
+     */
+    public String stats() {
+        return String.format("%d depuis le disque, %d appels au moteur (dont %d entrées périmées), %d regroupées",
+                hits.sum(), misses.sum(), expired.sum(), coalesced.sum());
+    }
+
+    private static String key(WebSearchRequest request) {
+        return CacheKeys.normalize(request.searchTerms(), true)
+                + '\u0000' + (request.maxResults() == null ? "" : request.maxResults())
+                + '\u0000' + (request.language() == null ? "" : request.language());
+    }
+
+    private static String fileName(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(key.getBytes(StandardCharsets.UTF_8))) + ".properties";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean isFresh(Properties entry) {
+        Instant createdAt = Instant.ofEpochMilli(Long.parseLong(entry.getProperty("createdAt")));
+        return ttl == null || createdAt.plus(ttl).isAfter(Instant.now());
+    }
+
+    private static Properties encode(String key, WebSearchResults results) {
+        Properties entry = new Properties();
+        entry.setProperty("key", key);
+        entry.setProperty("createdAt", Long.toString(System.currentTimeMillis()));
+        if (results.searchInformation() != null && results.searchInformation().totalResults() != null) {
+            entry.setProperty("totalResults", results.searchInformation().totalResults().toString());
+        }
+        List<WebSearchOrganicResult> organicResults = results.results();
+        entry.setProperty("results", Integer.toString(organicResults.size()));
+        for (int i = 0; i < organicResults.size(); i++) {
+            WebSearchOrganicResult result = organicResults.get(i);
+            setIfPresent(entry, "result." + i + ".title", result.title());
+            setIfPresent(entry, "result." + i + ".url", result.url() == null ? null : result.url().toString());
+            setIfPresent(entry, "result." + i + ".snippet", result.snippet());
+            setIfPresent(entry, "result." + i + ".content", result.content());
+        }
+        return entry;
+    }
+
+    private static WebSearchResults decode(Properties entry) {
+        String totalResults = entry.getProperty("totalResults");
+        int count = Integer.parseInt(entry.getProperty("results"));
+        List<WebSearchOrganicResult> organicResults = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String url = entry.getProperty("result." + i + ".url");
+            organicResults.add(WebSearchOrganicResult.from(
+                    entry.getProperty("result." + i + ".title"),
+                    url == null ? null : URI.create(url),
+                    entry.getProperty("result." + i + ".snippet"),
+                    entry.getProperty("result." + i + ".content")));
+        }
+        return WebSearchResults.from(
+                WebSearchInformationResult.from(totalResults == null ? (long) count : Long.parseLong(totalResults)),
+                organicResults);
+    }
+
+    private static void setIfPresent(Properties entry, String name, String value) {
+        if (value != null) {
+            entry.setProperty(name, value);
+        }
+    }
+
+    private static Properties read(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties entry = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            entry.load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return entry;
+    }
+
+    /**
+     * Écrit dans un fichier temporaire puis le renomme : un lecteur ne voit jamais un fichier à moitié écrit.
+     */
+    private static void write(Path file, Properties entry) {
+        try {
+            Path temporary = Files.createTempFile(file.getParent(), "search", ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                entry.store(writer, entry.getProperty("key").replace('\u0000', ' '));
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static class Builder {
+
+        private WebSearchEngine delegate;
+        private Path directory;
+        private Mode mode = Mode.CACHE;
+        private Duration ttl = Duration.ofDays(1);
+
+        /**
+         * Moteur réellement interrogé (inutile en mode REPLAY).
+         */
+        public Builder delegate(WebSearchEngine delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder mode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * Durée de validité d'une recherche enregistrée en mode CACHE (1 jour par défaut), {@code null} pour
+         * aucune limite.
+         */
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        public CachingWebSearchEngine build() {
+            return new CachingWebSearchEngine(this);
+        }
+    }
+}
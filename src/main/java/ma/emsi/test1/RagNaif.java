@@ -1,28 +1,40 @@
 package ma.emsi.test1;
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.memory.ChatMemory;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
-import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
-import dev.langchain4j.rag.content.retriever.ContentRetriever;
-import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.model.googleai.GoogleAiGeminiStreamingChatModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.content.aggregator.DefaultContentAggregator;
+import dev.langchain4j.rag.content.injector.DefaultContentInjector;
+import dev.langchain4j.rag.query.router.DefaultQueryRouter;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import ma.emsi.rag.cache.SemanticAnswerCache;
+import ma.emsi.rag.context.TokenBudgetContentAggregator;
+import ma.emsi.rag.embedding.CachingEmbeddingModel;
+import ma.emsi.rag.embedding.PooledEmbeddingEngine;
+import ma.emsi.rag.index.PersistentEmbeddingIndex;
+import ma.emsi.rag.ingestion.IncrementalIngestor;
+import ma.emsi.rag.observability.Instrumentation;
+import ma.emsi.rag.observability.RagMetrics;
+import ma.emsi.rag.observability.RequestTrace;
+import ma.emsi.rag.rerank.BatchedReRankingAggregator;
+import ma.emsi.rag.rerank.CachingScoringModel;
+import ma.emsi.rag.rerank.CrossEncoders;
+import ma.emsi.rag.retrieval.HybridContentRetriever;
+import ma.emsi.rag.store.EmbeddingStores;
+import ma.emsi.rag.store.LexicalIndexingEmbeddingStore;
+import ma.emsi.rag.store.QuantizedEmbeddingStore;
+import ma.emsi.rag.streaming.TokenStreamPrinter;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class RagNaif {
 
@@ -35,61 +47,108 @@ public class RagNaif {
 
         System.out.println("=== PHASE 1 : Ingestion des documents ===");
 
-        // 1. Chargement du document
+        // 1. Index persistant : évite de re-parser et de ré-embedder le PDF à chaque démarrage
+        PersistentEmbeddingIndex index = PersistentEmbeddingIndex.defaultIndex();
         Path documentPath = Paths.get("src/main/resources/support_rag.pdf");
         System.out.println("Chargement du document : " + documentPath);
 
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
-        System.out.println("Document chargé avec succès");
-
-        // 2. Découpage en segments
-        DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
-        List<TextSegment> segments = splitter.split(document);
-        System.out.printf("Document découpé en %d segments\n", segments.size());
-
-        // 3. Création du modèle d'embedding
+        // 2. Création du modèle d'embedding
         System.out.println("Création du modèle d'embedding...");
-        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        EmbeddingModel embeddingModel = PooledEmbeddingEngine.shared();
 
-        // 4. Génération des embeddings
-        System.out.println("Génération des embeddings...");
-        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
-        System.out.printf("%d embeddings créés\n", embeddings.size());
+        // 3. Ingestion incrémentale : découpage, embeddings des seuls segments nouveaux ou modifiés ;
+        //    chaque segment est aussi indexé pour la recherche lexicale BM25
+        EmbeddingStore<TextSegment> vectorStore = EmbeddingStores.create();
+        LexicalIndexingEmbeddingStore embeddingStore = new LexicalIndexingEmbeddingStore(vectorStore);
+        IncrementalIngestor ingestor = IncrementalIngestor.builder()
+                .embeddingStore(embeddingStore)
+                .embeddingModel(embeddingModel)
+                .index(index)
+                .build();
+        IncrementalIngestor.ChangeSet changes = ingestor.ingest(documentPath);
+        System.out.printf("Document découpé en %d segments (%d embeddings calculés)\n",
+                changes.added() + changes.unchanged(), changes.embedded());
+        if (vectorStore instanceof QuantizedEmbeddingStore quantizedStore) {
+            quantizedStore.evaluate(20, 2).print();
+        }
 
-        // 5. Stockage des embeddings
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        embeddingStore.addAll(embeddings, segments);
-        System.out.println("Embeddings stockés en mémoire\n");
+        // 4. Surveillance du répertoire : une modification du PDF met à jour le store pendant la session
+        ingestor.watch(documentPath.toAbsolutePath().getParent());
+        System.out.println("Embeddings stockés en mémoire, document surveillé\n");
 
         System.out.println("=== PHASE 2 : Configuration de l'Assistant RAG ===");
 
-        // 6. Création du modèle de chat (utiliser ChatModel dans la version 1.8.0)
+        // 5. Création du modèle de chat en streaming : les tokens s'affichent dès leur génération
         System.out.println("Connexion au modèle Gemini...");
-        ChatModel chatModel = GoogleAiGeminiChatModel.builder()
+        StreamingChatModel chatModel = GoogleAiGeminiStreamingChatModel.builder()
                 .apiKey(geminiApiKey)
                 .modelName("gemini-2.0-flash-exp")
                 .temperature(0.7)
+                .listeners(List.of(Instrumentation.chatModelListener())) // Durée des appels et tokens
                 .build();
 
-        // 7. Création du Content Retriever
-        ContentRetriever contentRetriever = EmbeddingStoreContentRetriever.builder()
-                .embeddingStore(embeddingStore)
-                .embeddingModel(embeddingModel)
-                .maxResults(2)
-                .minScore(0.5)
+        // 6. Création du Content Retriever hybride (vectoriel + BM25), avec un cache des embeddings de questions
+        CachingEmbeddingModel queryEmbeddingModel = CachingEmbeddingModel.builder()
+                .delegate(embeddingModel)
+                .ignoreCase(true) // all-MiniLM-L6-v2 est un modèle "uncased"
+                .build();
+        // Reranking optionnel (-Drag.rerank.model=<répertoire du cross-encoder>) : le retriever ramène
+        // 10 candidats sans seuil, notés en un seul lot par le cross-encoder, qui garde les 2 meilleurs
+        BatchedReRankingAggregator reRanker = CrossEncoders.fromSystemProperty()
+                .map(crossEncoder -> BatchedReRankingAggregator.builder()
+                        .scoringModel(CachingScoringModel.builder().delegate(crossEncoder).build())
+                        .maxResults(2)
+                        .build())
+                .orElse(null);
+        HybridContentRetriever contentRetriever = HybridContentRetriever.builder()
+                .store(embeddingStore)
+                .embeddingModel(Instrumentation.embeddingModel(queryEmbeddingModel))
+                .maxResults(reRanker == null ? 2 : 10)
+                .candidates(20)
+                .minScore(reRanker == null ? 0.5 : 0.0)
+                // Sans reranker, un segment trouvé par BM25 seul n'entre que s'il est le premier résultat BM25 ;
+                // avec, tous les candidats BM25 sont notés par le cross-encoder
+                .lexicalOnlyMaxRank(reRanker == null ? 1 : 20)
                 .build();
         System.out.println("Récupérateur de contenu configuré");
 
-        // 8. Création de l'assistant avec AiServices (utiliser .chatModel() dans la version 1.8.0)
-        Assistant assistant = AiServices.builder(Assistant.class)
-                .chatModel(chatModel)
-                .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
-                .contentRetriever(contentRetriever)
+        // Contexte du prompt : segments consécutifs recousus, quasi-doublons écartés, budget de tokens
+        // (-Drag.context.tokens, 800 par défaut)
+        TokenBudgetContentAggregator contextAssembler = TokenBudgetContentAggregator.builder()
+                .delegate(reRanker == null ? new DefaultContentAggregator() : reRanker)
+                .tokenBudget(Integer.getInteger("rag.context.tokens", 800))
+                .build();
+
+        // Cache sémantique des réponses : une question proche d'une question déjà posée, avec le même contexte
+        // (segments renvoyés par le même retriever hybride), est servie sans appel à Gemini ; les réponses appuyées
+        // sur des segments modifiés sont invalidées, et les questions de suite ("peux-tu détailler cela ?")
+        // contournent le cache. L'assistant récupère ses segments à travers le cache : une seule recherche
+        // par question
+        ChatMemory chatMemory = MessageWindowChatMemory.withMaxMessages(10);
+        SemanticAnswerCache answerCache = SemanticAnswerCache.builder()
+                .embeddingModel(queryEmbeddingModel)
+                .contentRetriever(Instrumentation.contentRetriever("hybride", contentRetriever))
+                .chatMemory(chatMemory)
                 .build();
+
+        // 7. Création de l'assistant avec AiServices, branché sur le modèle en streaming (.streamingChatModel())
+        StreamingAssistant ragAssistant = AiServices.builder(StreamingAssistant.class)
+                .streamingChatModel(chatModel)
+                .chatMemory(chatMemory)
+                // Chaque étape de la récupération est mesurée (désactivable par -Drag.metrics=false)
+                .retrievalAugmentor(DefaultRetrievalAugmentor.builder()
+                        .queryRouter(Instrumentation.queryRouter(
+                                new DefaultQueryRouter(answerCache.contentRetriever())))
+                        .contentAggregator(contextAssembler)
+                        .contentInjector(Instrumentation.contentInjector(new DefaultContentInjector()))
+                        .build())
+                .build();
+
+        ingestor.addChangeListener(changeSet -> answerCache.invalidateSegments(changeSet.removedIds()));
+        TokenStreamPrinter printer = new TokenStreamPrinter(System.out);
         System.out.println("Assistant RAG prêt !\n");
 
-        // 9. Boucle de questions-réponses
+        // 8. Boucle de questions-réponses
         Scanner scanner = new Scanner(System.in);
         System.out.println("=== Assistant RAG Naïf - Tapez 'quitter' pour arrêter ===\n");
 
@@ -99,6 +158,16 @@ public class RagNaif {
 
             if (question.equalsIgnoreCase("quitter") || question.equalsIgnoreCase("exit")) {
                 System.out.println("\nAu revoir !");
+                System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel.stats());
+                System.out.println("Cache des réponses : " + answerCache.stats());
+                System.out.println("Recherche hybride : " + contentRetriever.stats());
+                if (reRanker != null) {
+                    System.out.println("Reranking : " + reRanker.stats());
+                }
+                System.out.println("Contexte : " + contextAssembler.stats());
+                if (RagMetrics.enabled()) {
+                    System.out.println("Latences par étape :" + RagMetrics.summary());
+                }
                 break;
             }
 
@@ -107,11 +176,22 @@ public class RagNaif {
                 continue;
             }
 
-            try {
+            try (RequestTrace trace = RequestTrace.start()) {
                 System.out.println("Recherche et génération de la réponse...");
-                String reponse = assistant.chat(question);
                 System.out.println("\n--- Réponse ---");
-                System.out.println(reponse);
+                AtomicReference<TokenStreamPrinter.StreamingReport> streamed = new AtomicReference<>();
+                String reponse = answerCache.chat(question, q -> {
+                    TokenStreamPrinter.StreamingReport report = printer.print(ragAssistant.chat(q));
+                    streamed.set(report);
+                    return report.answer();
+                });
+                if (streamed.get() == null) {
+                    System.out.println(reponse);
+                    System.out.println("(réponse servie depuis le cache)");
+                } else {
+                    System.out.println("(" + streamed.get() + ")");
+                }
+                System.out.println(trace.breakdown());
                 System.out.println("---------------\n");
             } catch (Exception e) {
                 System.err.println("Erreur lors du traitement : " + e.getMessage());
@@ -119,5 +199,6 @@ public class RagNaif {
             }
         }
         scanner.close();
+        ingestor.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,12 @@
+package ma.emsi.test1;
+
+import dev.langchain4j.service.TokenStream;
+
+// StreamingAssistant.java
+public interface StreamingAssistant {
+    /**
+     * @param userMessage Le message/question de l'utilisateur.
+     * @return Le flux de la réponse : sources récupérées, puis tokens au fur et à mesure de leur génération.
+     */
+    TokenStream chat(String userMessage);
+}
@@ -5,49 +5,44 @@ import dev.langchain4j.data.document.DocumentParser;
 import dev.langchain4j.data.document.DocumentSplitter;
 import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
 import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.injector.DefaultContentInjector;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.rag.query.router.DefaultQueryRouter;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import ma.emsi.rag.embedding.CachingEmbeddingModel;
+import ma.emsi.rag.embedding.PooledEmbeddingEngine;
+import ma.emsi.rag.index.IndexEntry;
+import ma.emsi.rag.index.PersistentEmbeddingIndex;
+import ma.emsi.rag.logging.AsyncLogHandler;
+import ma.emsi.rag.logging.RagLogging;
+import ma.emsi.rag.observability.Instrumentation;
+import ma.emsi.rag.observability.RagMetrics;
+import ma.emsi.rag.observability.RequestTrace;
+import ma.emsi.rag.store.EmbeddingStores;
 import ma.emsi.test1.Assistant;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Optional;
 import java.util.Scanner;
-import java.util.logging.ConsoleHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 public class RagNaifAvecLogging {
 
-    /**
-     * Configure le logger pour afficher les détails des requêtes et réponses
-     */
-    private static void configureLogger() {
-        // Configure le logger sous-jacent (java.util.logging)
-        Logger packageLogger = Logger.getLogger("dev.langchain4j");
-        packageLogger.setLevel(Level.FINE); // Niveau de détail des logs
-
-        // Ajouter un handler pour la console pour faire afficher les logs
-        ConsoleHandler handler = new ConsoleHandler();
-        handler.setLevel(Level.FINE);
-        packageLogger.addHandler(handler);
-    }
-
     public static void main(String[] args) {
         // Configuration du logging en premier
-        configureLogger();
-        System.out.println("=== Logging configuré (Level.FINE) ===\n");
+        AsyncLogHandler logHandler = RagLogging.configure();
+        System.out.println("=== Logging asynchrone configuré (niveau " + logHandler.getLevel() + ") ===\n");
 
         String geminiApiKey = System.getenv("GEMINI");
         if (geminiApiKey == null || geminiApiKey.isEmpty()) {
@@ -57,30 +52,41 @@ public class RagNaifAvecLogging {
 
         System.out.println("=== PHASE 1 : Ingestion des documents ===");
 
-        // 1. Chargement du document
+        // 1. Index persistant : évite de re-parser et de ré-embedder le PDF à chaque démarrage
+        PersistentEmbeddingIndex index = PersistentEmbeddingIndex.defaultIndex();
         Path documentPath = Paths.get("src/main/resources/support_rag.pdf");
         System.out.println("Chargement du document : " + documentPath);
 
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
-        System.out.println("Document chargé avec succès");
-
-        // 2. Découpage en segments
-        DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
-        List<TextSegment> segments = splitter.split(document);
-        System.out.printf("Document découpé en %d segments\n", segments.size());
-
-        // 3. Création du modèle d'embedding
+        // 2. Création du modèle d'embedding
         System.out.println("Création du modèle d'embedding...");
-        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
-
-        // 4. Génération des embeddings
-        System.out.println("Génération des embeddings...");
-        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
-        System.out.printf("%d embeddings créés\n", embeddings.size());
+        EmbeddingModel embeddingModel = PooledEmbeddingEngine.shared();
+
+        List<TextSegment> segments;
+        List<Embedding> embeddings;
+        Optional<IndexEntry> cached = index.load(documentPath);
+        if (cached.isPresent()) {
+            segments = cached.get().segments();
+            embeddings = cached.get().embeddings();
+            System.out.printf("%d segments et embeddings chargés depuis l'index\n", segments.size());
+        } else {
+            // 3. Chargement et découpage en segments
+            DocumentParser parser = new ApacheTikaDocumentParser();
+            Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
+            System.out.println("Document chargé avec succès");
+
+            DocumentSplitter splitter = index.splitter();
+            segments = splitter.split(document);
+            System.out.printf("Document découpé en %d segments\n", segments.size());
+
+            // 4. Génération des embeddings, enregistrés dans l'index pour les prochains démarrages
+            System.out.println("Génération des embeddings...");
+            embeddings = embeddingModel.embedAll(segments).content();
+            index.save(documentPath, segments, embeddings);
+            System.out.printf("%d embeddings créés et indexés\n", embeddings.size());
+        }
 
         // 5. Stockage des embeddings
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
+        EmbeddingStore<TextSegment> embeddingStore = EmbeddingStores.create();
         embeddingStore.addAll(embeddings, segments);
         System.out.println("Embeddings stockés en mémoire\n");
 
@@ -92,23 +98,35 @@ public class RagNaifAvecLogging {
                 .apiKey(geminiApiKey)
                 .modelName("gemini-2.0-flash-exp")
                 .temperature(0.7)
-                .logRequestsAndResponses(true) // Active le logging des requêtes/réponses
+                .logRequestsAndResponses(RagLogging.logPayloads()) // Active le logging des requêtes/réponses
+                .listeners(List.of(Instrumentation.chatModelListener())) // Durée des appels et tokens
                 .build();
 
-        // 7. Création du Content Retriever
+        // 7. Création du Content Retriever, avec un cache des embeddings de questions
+        CachingEmbeddingModel queryEmbeddingModel = CachingEmbeddingModel.builder()
+                .delegate(embeddingModel)
+                .ignoreCase(true) // all-MiniLM-L6-v2 est un modèle "uncased"
+                .build();
         ContentRetriever contentRetriever = EmbeddingStoreContentRetriever.builder()
                 .embeddingStore(embeddingStore)
-                .embeddingModel(embeddingModel)
+                .embeddingModel(Instrumentation.embeddingModel(queryEmbeddingModel))
                 .maxResults(2)
                 .minScore(0.5)
                 .build();
         System.out.println("Récupérateur de contenu configuré");
 
+        // Chaque étape de la récupération est mesurée (désactivable par -Drag.metrics=false)
+        RetrievalAugmentor retrievalAugmentor = DefaultRetrievalAugmentor.builder()
+                .queryRouter(Instrumentation.queryRouter(
+                        new DefaultQueryRouter(Instrumentation.contentRetriever("pdf", contentRetriever))))
+                .contentInjector(Instrumentation.contentInjector(new DefaultContentInjector()))
+                .build();
+
         // 8. Création de l'assistant (version 1.8.0 utilise .chatModel())
         Assistant assistant = AiServices.builder(Assistant.class)
                 .chatModel(chatModel) // Version 1.8.0
                 .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
-                .contentRetriever(contentRetriever)
+                .retrievalAugmentor(retrievalAugmentor)
                 .build();
         System.out.println("Assistant RAG prêt avec logging activé !\n");
 
@@ -123,6 +141,11 @@ public class RagNaifAvecLogging {
 
             if (question.equalsIgnoreCase("quitter") || question.equalsIgnoreCase("exit")) {
                 System.out.println("\nAu revoir !");
+                System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel.stats());
+                System.out.println("Journal : " + logHandler.stats());
+                if (RagMetrics.enabled()) {
+                    System.out.println("Latences par étape :" + RagMetrics.summary());
+                }
                 break;
             }
 
@@ -131,13 +154,14 @@ public class RagNaifAvecLogging {
                 continue;
             }
 
-            try {
+            try (RequestTrace trace = RequestTrace.start()) {
                 System.out.println("\n[Recherche et génération - Logs détaillés ci-dessous]");
                 System.out.println("=".repeat(70));
                 String reponse = assistant.chat(question);
                 System.out.println("=".repeat(70));
                 System.out.println("\n--- Réponse ---");
                 System.out.println(reponse);
+                System.out.println(trace.breakdown());
                 System.out.println("---------------\n");
             } catch (Exception e) {
                 System.err.println("Erreur lors du traitement : " + e.getMessage());
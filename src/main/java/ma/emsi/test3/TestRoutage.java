@@ -1,74 +1,32 @@
 package ma.emsi.test3;
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
-import dev.langchain4j.rag.query.router.LanguageModelQueryRouter;
-import dev.langchain4j.rag.query.router.QueryRouter;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import ma.emsi.rag.embedding.CachingEmbeddingModel;
+import ma.emsi.rag.embedding.PooledEmbeddingEngine;
+import ma.emsi.rag.index.PersistentEmbeddingIndex;
+import ma.emsi.rag.ingestion.IngestionPipeline;
+import ma.emsi.rag.logging.RagLogging;
+import ma.emsi.rag.routing.EmbeddingQueryRouter;
+import ma.emsi.rag.store.EmbeddingStores;
 import ma.emsi.test1.Assistant;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.logging.ConsoleHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 public class TestRoutage {
 
-    /**
-     * Configure le logger pour voir les détails du routage
-     */
-    private static void configureLogger() {
-        Logger packageLogger = Logger.getLogger("dev.langchain4j");
-        packageLogger.setLevel(Level.FINE);
-        ConsoleHandler handler = new ConsoleHandler();
-        handler.setLevel(Level.FINE);
-        packageLogger.addHandler(handler);
-    }
-
-    /**
-     * Ingère un document : charge, découpe, crée les embeddings et les stocke
-     */
-    private static EmbeddingStore<TextSegment> ingestDocument(
-            Path documentPath,
-            EmbeddingModel embeddingModel,
-            DocumentParser parser,
-            DocumentSplitter splitter) {
-
-        System.out.println("Ingestion du document : " + documentPath.getFileName());
-        Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
-        List<TextSegment> segments = splitter.split(document);
-        System.out.println("  - " + segments.size() + " segments créés");
-
-        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        embeddingStore.addAll(embeddings, segments);
-        System.out.println("  - Embeddings stockés\n");
-
-        return embeddingStore;
-    }
-
     /**
      * Crée un ContentRetriever pour un EmbeddingStore donné
      */
@@ -86,7 +44,7 @@ public class TestRoutage {
 
     public static void main(String[] args) {
         // Configure le logging pour voir le routage
-        configureLogger();
+        RagLogging.configure();
         System.out.println("=== Test 3 : Routage entre plusieurs sources ===\n");
 
         String geminiApiKey = System.getenv("GEMINI");
@@ -101,7 +59,7 @@ public class TestRoutage {
                 .apiKey(geminiApiKey)
                 .modelName("gemini-2.0-flash-exp")
                 .temperature(0.7)
-                .logRequestsAndResponses(true)
+                .logRequestsAndResponses(RagLogging.logPayloads())
                 .build();
         System.out.println("Modèle connecté\n");
 
@@ -112,40 +70,56 @@ public class TestRoutage {
         System.out.println("=== PHASE 1 : Ingestion des documents ===\n");
 
         // Initialisation commune
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
-        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        EmbeddingModel embeddingModel = PooledEmbeddingEngine.shared();
+        IngestionPipeline pipeline = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .index(PersistentEmbeddingIndex.defaultIndex())
+                .build();
 
-        // Ingestion des deux documents
-        EmbeddingStore<TextSegment> embeddingStore1 = ingestDocument(
-                documentIA, embeddingModel, parser, splitter);
-        EmbeddingStore<TextSegment> embeddingStore2 = ingestDocument(
-                documentAutre, embeddingModel, parser, splitter);
+        // Ingestion des deux documents en parallèle, chacun dans son propre store
+        EmbeddingStore<TextSegment> embeddingStore1 = EmbeddingStores.create();
+        EmbeddingStore<TextSegment> embeddingStore2 = EmbeddingStores.create();
+        Map<Path, EmbeddingStore<TextSegment>> stores = Map.of(
+                documentIA, embeddingStore1,
+                documentAutre, embeddingStore2);
+        pipeline.ingest(stores.keySet(), stores::get).print();
+        System.out.println();
 
         System.out.println("=== PHASE 2 : Configuration du routage ===\n");
 
-        // Création des ContentRetrievers
-        ContentRetriever retriever1 = createContentRetriever(embeddingStore1, embeddingModel);
-        ContentRetriever retriever2 = createContentRetriever(embeddingStore2, embeddingModel);
-
-        // Description des sources pour le QueryRouter
-        Map<ContentRetriever, String> retrieverDescriptions = new HashMap<>();
-        retrieverDescriptions.put(retriever1,
-                "Documents techniques sur l'intelligence artificielle, le RAG (Retrieval-Augmented Generation), " +
-                        "LangChain4j, les modèles de langage (LLM), les embeddings, les techniques avancées de RAG, " +
-                        "le machine learning et les réseaux de neurones");
-        retrieverDescriptions.put(retriever2,
-                "Documents sur le développement d'applications mobiles, Android, Kotlin, " +
-                        "les coroutines, les Flows, Room database, et l'architecture des applications mobiles");
+        // Création des ContentRetrievers, qui partagent un cache des embeddings de questions
+        CachingEmbeddingModel queryEmbeddingModel = CachingEmbeddingModel.builder()
+                .delegate(embeddingModel)
+                .ignoreCase(true) // all-MiniLM-L6-v2 est un modèle "uncased"
+                .build();
+        ContentRetriever retriever1 = createContentRetriever(embeddingStore1, queryEmbeddingModel);
+        ContentRetriever retriever2 = createContentRetriever(embeddingStore2, queryEmbeddingModel);
+
+        // QueryRouter local : chaque source est résumée par le centroïde de sa description et d'un échantillon
+        // de ses segments ; la question est routée par similarité, sans appel au LLM
+        EmbeddingQueryRouter queryRouter = EmbeddingQueryRouter.builder()
+                .embeddingModel(queryEmbeddingModel)
+                .source("Document IA", retriever1,
+                        "Documents techniques sur l'intelligence artificielle, le RAG (Retrieval-Augmented Generation), " +
+                                "LangChain4j, les modèles de langage (LLM), les embeddings, les techniques avancées de RAG, " +
+                                "le machine learning et les réseaux de neurones",
+                        embeddingStore1)
+                .source("Document Mobile", retriever2,
+                        "Documents sur le développement d'applications mobiles, Android, Kotlin, " +
+                                "les coroutines, les Flows, Room database, et l'architecture des applications mobiles",
+                        embeddingStore2)
+                .margin(0.03)
+                .onDecision(decision -> System.out.printf("%n[Routage] Sources : %s (similarités %s, %d µs)%n",
+                        decision.sources(), decision.similarities().stream()
+                                .map(similarity -> String.format("%.3f", similarity)).toList(),
+                        decision.latencyNanos() / 1000))
+                .build();
 
         System.out.println("Sources configurées :");
         System.out.println("  1. Document IA : " + documentIA.getFileName());
         System.out.println("  2. Document Mobile : " + documentAutre.getFileName());
         System.out.println();
 
-        // Création du QueryRouter qui utilisera le LLM pour choisir la bonne source
-        QueryRouter queryRouter = new LanguageModelQueryRouter(chatModel, retrieverDescriptions);
-
         // Création du RetrievalAugmentor avec le QueryRouter
         RetrievalAugmentor retrievalAugmentor = DefaultRetrievalAugmentor.builder()
                 .queryRouter(queryRouter)
@@ -159,7 +133,7 @@ public class TestRoutage {
                 .build();
 
         System.out.println("=== Assistant RAG avec Routage prêt ! ===\n");
-        System.out.println("Le LLM choisira automatiquement la bonne source selon votre question.");
+        System.out.println("La bonne source est choisie automatiquement selon votre question.");
         System.out.println("Consultez les logs pour voir le processus de décision.\n");
 
         // Boucle de questions-réponses
@@ -172,6 +146,8 @@ public class TestRoutage {
 
             if (question.equalsIgnoreCase("quitter") || question.equalsIgnoreCase("exit")) {
                 System.out.println("\nAu revoir !");
+                System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel.stats());
+                System.out.println("Routage : " + queryRouter.stats());
                 break;
             }
 
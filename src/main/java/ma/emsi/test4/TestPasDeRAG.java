@@ -1,17 +1,9 @@
 package ma.emsi.test4;
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
 import dev.langchain4j.model.input.Prompt;
 import dev.langchain4j.model.input.PromptTemplate;
@@ -19,55 +11,23 @@ import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
-import dev.langchain4j.rag.query.Query;
-import dev.langchain4j.rag.query.router.QueryRouter;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import ma.emsi.rag.embedding.CachingEmbeddingModel;
+import ma.emsi.rag.embedding.PooledEmbeddingEngine;
+import ma.emsi.rag.index.PersistentEmbeddingIndex;
+import ma.emsi.rag.ingestion.IngestionPipeline;
+import ma.emsi.rag.logging.RagLogging;
+import ma.emsi.rag.routing.ClassifyingQueryRouter;
+import ma.emsi.rag.store.EmbeddingStores;
 import ma.emsi.test1.Assistant;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.logging.ConsoleHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 public class TestPasDeRAG {
 
-    /**
-     * Configure le logger pour voir les détails du routage
-     */
-    private static void configureLogger() {
-        Logger packageLogger = Logger.getLogger("dev.langchain4j");
-        packageLogger.setLevel(Level.FINE);
-        ConsoleHandler handler = new ConsoleHandler();
-        handler.setLevel(Level.FINE);
-        packageLogger.addHandler(handler);
-    }
-
-    /**
-     * Ingère un document et retourne l'EmbeddingStore
-     */
-    private static EmbeddingStore<TextSegment> ingestDocument(
-            Path documentPath,
-            EmbeddingModel embeddingModel,
-            DocumentParser parser,
-            DocumentSplitter splitter) {
-
-        System.out.println("Ingestion du document : " + documentPath.getFileName());
-        Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
-        List<TextSegment> segments = splitter.split(document);
-        System.out.println("  - " + segments.size() + " segments créés");
-
-        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        embeddingStore.addAll(embeddings, segments);
-        System.out.println("  - Embeddings stockés\n");
-
-        return embeddingStore;
-    }
-
     /**
      * Crée un ContentRetriever
      */
@@ -84,7 +44,7 @@ public class TestPasDeRAG {
     }
 
     public static void main(String[] args) {
-        configureLogger();
+        RagLogging.configure();
         System.out.println("=== Test 4 : Routage intelligent - RAG ou pas RAG ===\n");
 
         String geminiApiKey = System.getenv("GEMINI");
@@ -99,7 +59,7 @@ public class TestPasDeRAG {
                 .apiKey(geminiApiKey)
                 .modelName("gemini-2.0-flash-exp")
                 .temperature(0.7)
-                .logRequestsAndResponses(true)
+                .logRequestsAndResponses(RagLogging.logPayloads())
                 .build();
         System.out.println("Modèle connecté\n");
 
@@ -107,51 +67,75 @@ public class TestPasDeRAG {
 
         // Ingestion du document sur l'IA
         Path documentIA = Paths.get("src/main/resources/support_rag.pdf");
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
-        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        EmbeddingModel embeddingModel = PooledEmbeddingEngine.shared();
+        IngestionPipeline pipeline = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .index(PersistentEmbeddingIndex.defaultIndex())
+                .build();
 
-        EmbeddingStore<TextSegment> embeddingStore = ingestDocument(
-                documentIA, embeddingModel, parser, splitter);
-        ContentRetriever contentRetriever = createContentRetriever(embeddingStore, embeddingModel);
+        System.out.println("Ingestion du document : " + documentIA.getFileName());
+        EmbeddingStore<TextSegment> embeddingStore = EmbeddingStores.create();
+        pipeline.ingest(List.of(documentIA), embeddingStore).print();
+        System.out.println();
+        CachingEmbeddingModel queryEmbeddingModel = CachingEmbeddingModel.builder()
+                .delegate(embeddingModel)
+                .ignoreCase(true) // all-MiniLM-L6-v2 est un modèle "uncased"
+                .build();
+        ContentRetriever contentRetriever = createContentRetriever(embeddingStore, queryEmbeddingModel);
 
         System.out.println("=== PHASE 2 : Configuration du QueryRouter personnalisé ===\n");
 
-        // Template de prompt pour décider si la question porte sur l'IA
+        // Template de prompt pour décider si la question porte sur l'IA (cas où le classifieur hésite)
         PromptTemplate promptTemplate = PromptTemplate.from(
                 "Est-ce que la requête '{{question}}' porte sur l'IA ? " +
                         "Réponds seulement par 'oui', 'non' ou 'peut-être'."
         );
 
-        // QueryRouter personnalisé avec classe anonyme
-        // Ce router décide d'utiliser le RAG ou non selon le sujet de la question
-        QueryRouter queryRouter = new QueryRouter() {
-            @Override
-            public Collection<ContentRetriever> route(Query query) {
-                // Création du prompt avec la question de l'utilisateur
-                Map<String, Object> variables = new HashMap<>();
-                variables.put("question", query.text());
-                Prompt prompt = promptTemplate.apply(variables);
-
-                // Demande au LLM si la question porte sur l'IA
-                String answer = chatModel.chat(prompt.text()).trim().toLowerCase();
-
-                System.out.println("\n[QueryRouter] Question analysée : " + query.text());
-                System.out.println("[QueryRouter] Réponse du LLM : '" + answer + "'");
-
-                // Stratégie conservative : seul un "oui" clair active le RAG
-                if (answer.contains("oui")) {
-                    System.out.println("[QueryRouter] ✓ RAG ACTIVÉ - La question porte sur l'IA");
-                    System.out.println("[QueryRouter] Les documents seront consultés\n");
-                    return Collections.singletonList(contentRetriever);
-                }
-
-                // Pour "non" ou "peut-être", pas de RAG
-                System.out.println("[QueryRouter] ✗ RAG DÉSACTIVÉ - Question hors sujet");
-                System.out.println("[QueryRouter] Réponse directe du LLM sans consultation des documents\n");
-                return Collections.emptyList();
-            }
-        };
+        // QueryRouter personnalisé : un classifieur local (similarité avec des questions étiquetées) décide
+        // d'utiliser le RAG ou non ; le LLM n'est interrogé que lorsque le classifieur hésite
+        ClassifyingQueryRouter queryRouter = ClassifyingQueryRouter.builder()
+                .embeddingModel(queryEmbeddingModel)
+                .retrievers(contentRetriever)
+                .positiveExamples(List.of(
+                        "Qu'est-ce que le RAG ?",
+                        "Comment fonctionnent les embeddings ?",
+                        "Qu'est-ce qu'un modèle de langage (LLM) ?",
+                        "Comment découper un document en segments pour la recherche ?",
+                        "Quelle est la différence entre le RAG naïf et le RAG avancé ?",
+                        "Comment LangChain4j utilise-t-il un EmbeddingStore ?",
+                        "Qu'est-ce qu'un réseau de neurones ?",
+                        "Comment fonctionne le machine learning ?"))
+                .negativeExamples(List.of(
+                        "Quel temps fait-il aujourd'hui ?",
+                        "Quelle est la capitale de l'Espagne ?",
+                        "Donne-moi une recette de couscous.",
+                        "Qui a gagné la coupe du monde de football en 2018 ?",
+                        "Bonjour, comment vas-tu ?",
+                        "Raconte-moi une blague.",
+                        "Combien font 12 fois 7 ?",
+                        "Quels sont les monuments à visiter à Marrakech ?"))
+                .fallback(question -> {
+                    // Demande au LLM si la question porte sur l'IA
+                    Map<String, Object> variables = new HashMap<>();
+                    variables.put("question", question);
+                    Prompt prompt = promptTemplate.apply(variables);
+                    String answer = chatModel.chat(prompt.text()).trim().toLowerCase();
+                    System.out.println("\n[QueryRouter] Classifieur incertain, réponse du LLM : '" + answer + "'");
+                    // Stratégie conservative : seul un "oui" clair active le RAG
+                    return answer.contains("oui");
+                })
+                .onDecision(decision -> {
+                    System.out.println("\n[QueryRouter] Question analysée : " + decision.question());
+                    System.out.printf("[QueryRouter] Décision : %s (marge %.3f)%n", decision.source(), decision.margin());
+                    if (decision.useRetrievers()) {
+                        System.out.println("[QueryRouter] ✓ RAG ACTIVÉ - La question porte sur l'IA");
+                        System.out.println("[QueryRouter] Les documents seront consultés\n");
+                    } else {
+                        System.out.println("[QueryRouter] ✗ RAG DÉSACTIVÉ - Question hors sujet");
+                        System.out.println("[QueryRouter] Réponse directe du LLM sans consultation des documents\n");
+                    }
+                })
+                .build();
 
         System.out.println("QueryRouter personnalisé configuré");
         System.out.println("  - Il décidera d'utiliser le RAG uniquement pour les questions sur l'IA\n");
@@ -184,6 +168,8 @@ public class TestPasDeRAG {
 
             if (question.equalsIgnoreCase("quitter") || question.equalsIgnoreCase("exit")) {
                 System.out.println("\nAu revoir !");
+                System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel.stats());
+                System.out.println("Routage : " + queryRouter.stats());
                 break;
             }
 
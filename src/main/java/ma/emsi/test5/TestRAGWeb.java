@@ -1,17 +1,9 @@
 package ma.emsi.test5;
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
@@ -22,48 +14,26 @@ import dev.langchain4j.rag.query.router.DefaultQueryRouter;
 import dev.langchain4j.rag.query.router.QueryRouter;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
-import dev.langchain4j.web.search.WebSearchEngine;
 import dev.langchain4j.web.search.tavily.TavilyWebSearchEngine;
+import ma.emsi.rag.embedding.CachingEmbeddingModel;
+import ma.emsi.rag.embedding.PooledEmbeddingEngine;
+import ma.emsi.rag.index.PersistentEmbeddingIndex;
+import ma.emsi.rag.ingestion.IngestionPipeline;
+import ma.emsi.rag.logging.RagLogging;
+import ma.emsi.rag.retrieval.ParallelFanOutRetriever;
+import ma.emsi.rag.store.EmbeddingStores;
+import ma.emsi.rag.web.CachingWebSearchEngine;
 import ma.emsi.test1.Assistant;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 import java.util.Scanner;
-import java.util.logging.ConsoleHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.TimeUnit;
 
 public class TestRAGWeb {
 
-    private static void configureLogger() {
-        Logger packageLogger = Logger.getLogger("dev.langchain4j");
-        packageLogger.setLevel(Level.FINE);
-        ConsoleHandler handler = new ConsoleHandler();
-        handler.setLevel(Level.FINE);
-        packageLogger.addHandler(handler);
-    }
-
-    private static EmbeddingStore<TextSegment> ingestDocument(
-            Path documentPath,
-            EmbeddingModel embeddingModel,
-            DocumentParser parser,
-            DocumentSplitter splitter) {
-
-        System.out.println("  Ingestion : " + documentPath.getFileName());
-        Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
-        List<TextSegment> segments = splitter.split(document);
-        System.out.println("    - " + segments.size() + " segments crees");
-
-        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        embeddingStore.addAll(embeddings, segments);
-        System.out.println("    - Embeddings stockes");
-
-        return embeddingStore;
-    }
-
     private static ContentRetriever createContentRetriever(
             EmbeddingStore<TextSegment> embeddingStore,
             EmbeddingModel embeddingModel) {
@@ -77,7 +47,7 @@ public class TestRAGWeb {
     }
 
     public static void main(String[] args) {
-        configureLogger();
+        RagLogging.configure();
         System.out.println("=== Test 5 : RAG hybride (PDF + Web) ===\n");
 
         String geminiApiKey = System.getenv("GEMINI");
@@ -86,8 +56,11 @@ public class TestRAGWeb {
             return;
         }
 
+        // -Drag.web=replay : recherches Web rejouees depuis web-cache/, sans reseau ni cle Tavily
+        CachingWebSearchEngine.Mode webMode =
+                CachingWebSearchEngine.Mode.valueOf(System.getProperty("rag.web", "cache").toUpperCase());
         String tavilyApiKey = System.getenv("Tvly");
-        if (tavilyApiKey == null || tavilyApiKey.isEmpty()) {
+        if (webMode == CachingWebSearchEngine.Mode.CACHE && (tavilyApiKey == null || tavilyApiKey.isEmpty())) {
             System.err.println("Erreur : La variable d'environnement TAVILY_API_KEY n'est pas definie.");
             System.err.println("Creez un compte sur https://tavily.com/ et definissez votre cle.");
             return;
@@ -99,29 +72,41 @@ public class TestRAGWeb {
                 .apiKey(geminiApiKey)
                 .modelName("gemini-2.0-flash-exp")
                 .temperature(0.7)
-                .logRequestsAndResponses(true)
+                .logRequestsAndResponses(RagLogging.logPayloads())
                 .build();
         System.out.println("ChatModel Gemini configure\n");
 
         System.out.println("=== PHASE 1 : Ingestion du document PDF ===\n");
 
         Path documentIA = Paths.get("src/main/resources/support_rag.pdf");
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
-        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        EmbeddingModel embeddingModel = PooledEmbeddingEngine.shared();
+        IngestionPipeline pipeline = IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .index(PersistentEmbeddingIndex.defaultIndex())
+                .build();
 
-        EmbeddingStore<TextSegment> embeddingStore = ingestDocument(
-                documentIA, embeddingModel, parser, splitter);
+        System.out.println("  Ingestion : " + documentIA.getFileName());
+        EmbeddingStore<TextSegment> embeddingStore = EmbeddingStores.create();
+        pipeline.ingest(List.of(documentIA), embeddingStore).print();
 
-        ContentRetriever pdfContentRetriever = createContentRetriever(embeddingStore, embeddingModel);
+        CachingEmbeddingModel queryEmbeddingModel = CachingEmbeddingModel.builder()
+                .delegate(embeddingModel)
+                .ignoreCase(true) // all-MiniLM-L6-v2 est un modèle "uncased"
+                .build();
+        ContentRetriever pdfContentRetriever = createContentRetriever(embeddingStore, queryEmbeddingModel);
         System.out.println("ContentRetriever PDF cree\n");
 
         System.out.println("=== PHASE 2 : Configuration de la recherche Web ===\n");
 
-        WebSearchEngine webSearchEngine = TavilyWebSearchEngine.builder()
-                .apiKey(tavilyApiKey)
+        CachingWebSearchEngine webSearchEngine = CachingWebSearchEngine.builder()
+                .delegate(webMode == CachingWebSearchEngine.Mode.CACHE
+                        ? TavilyWebSearchEngine.builder().apiKey(tavilyApiKey).build()
+                        : null)
+                .directory(Paths.get("web-cache"))
+                .mode(webMode)
+                .ttl(Duration.ofHours(24))
                 .build();
-        System.out.println("WebSearchEngine Tavily cree");
+        System.out.println("WebSearchEngine Tavily cree (cache disque, mode " + webMode + ")");
 
         ContentRetriever webContentRetriever = WebSearchContentRetriever.builder()
                 .webSearchEngine(webSearchEngine)
@@ -130,8 +115,20 @@ public class TestRAGWeb {
 
         System.out.println("=== PHASE 3 : Configuration du RAG hybride ===\n");
 
-        QueryRouter queryRouter = new DefaultQueryRouter(pdfContentRetriever, webContentRetriever);
-        System.out.println("QueryRouter cree avec 2 ContentRetrievers");
+        // Les deux sources sont interrogees en parallele, chacune avec son delai. La recherche Web part des le
+        // debut, et son resultat est abandonne si le PDF a trouve un segment assez pertinent (score >= 0,75).
+        ParallelFanOutRetriever fanOutRetriever = ParallelFanOutRetriever.builder()
+                .source("PDF", pdfContentRetriever, Duration.ofMillis(500))
+                .fallbackSource("Web", webContentRetriever, Duration.ofSeconds(3))
+                .deadline(Duration.ofSeconds(3))
+                .skipFallbackAboveScore(0.75)
+                .speculativeFallback(true)
+                .onRetrieval(retrieval -> System.out.printf("[Recuperation] %s en %d ms%n",
+                        retrieval.outcomes(), TimeUnit.NANOSECONDS.toMillis(retrieval.latencyNanos())))
+                .build();
+
+        QueryRouter queryRouter = new DefaultQueryRouter(fanOutRetriever);
+        System.out.println("QueryRouter cree avec 2 ContentRetrievers interroges en parallele");
 
         RetrievalAugmentor retrievalAugmentor = DefaultRetrievalAugmentor.builder()
                 .queryRouter(queryRouter)
@@ -160,6 +157,9 @@ public class TestRAGWeb {
 
             if (question.equalsIgnoreCase("quitter") || question.equalsIgnoreCase("exit")) {
                 System.out.println("\nAu revoir !");
+                System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel.stats());
+                System.out.println("Sources : " + fanOutRetriever.stats());
+                System.out.println("Cache des recherches Web : " + webSearchEngine.stats());
                 break;
             }
 
@@ -183,5 +183,6 @@ public class TestRAGWeb {
             }
         }
         scanner.close();
+        fanOutRetriever.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+package ma.emsi.test6;
+
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.content.aggregator.DefaultContentAggregator;
+import dev.langchain4j.rag.content.injector.DefaultContentInjector;
+import dev.langchain4j.rag.query.router.DefaultQueryRouter;
+import dev.langchain4j.service.AiServices;
+import ma.emsi.rag.context.TokenBudgetContentAggregator;
+import ma.emsi.rag.embedding.BatchingEmbeddingModel;
+import ma.emsi.rag.embedding.CachingEmbeddingModel;
+import ma.emsi.rag.embedding.PooledEmbeddingEngine;
+import ma.emsi.rag.index.PersistentEmbeddingIndex;
+import ma.emsi.rag.ingestion.IngestionPipeline;
+import ma.emsi.rag.memory.ChatMemoryStats;
+import ma.emsi.rag.memory.FileChatMemoryStore;
+import ma.emsi.rag.memory.TokenBudgetChatMemory;
+import ma.emsi.rag.observability.Instrumentation;
+import ma.emsi.rag.rerank.BatchedReRankingAggregator;
+import ma.emsi.rag.rerank.CachingScoringModel;
+import ma.emsi.rag.rerank.CrossEncoders;
+import ma.emsi.rag.retrieval.HybridContentRetriever;
+import ma.emsi.rag.server.RagHttpServer;
+import ma.emsi.rag.server.SessionChatMemoryProvider;
+import ma.emsi.rag.store.EmbeddingStores;
+import ma.emsi.rag.store.LexicalIndexingEmbeddingStore;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Assistant RAG servi en HTTP à plusieurs utilisateurs à la fois.
+ * <p>
+ * Le store, le modèle d'embedding et le modèle de chat sont partagés par toutes les requêtes ; seule la mémoire
+ * de conversation est propre à chaque session. Options : {@code -Drag.port} (8080 par défaut) et
+ * {@code -Drag.maxInFlight}, nombre maximal d'appels simultanés à Gemini (32 par défaut). Les latences par étape
+ * sont servies sur {@code /metrics}, sauf avec {@code -Drag.metrics=false}. {@code -Drag.rerank.model} active le
+ * reranking des segments par un cross-encoder local ({@link CrossEncoders}). Les conversations sont enregistrées
+ * dans {@code -Drag.memory.dir} ("sessions" par défaut) et survivent à un redémarrage.
+ */
+public class RagServer {
+
+    public static void main(String[] args) {
+        String geminiApiKey = System.getenv("GEMINI");
+        if (geminiApiKey == null || geminiApiKey.isEmpty()) {
+            System.err.println("Erreur : La variable d'environnement GEMINI n'est pas définie.");
+            return;
+        }
+
+        System.out.println("=== PHASE 1 : Ingestion des documents ===");
+
+        Path documentPath = Paths.get("src/main/resources/support_rag.pdf");
+        PooledEmbeddingEngine embeddingModel = PooledEmbeddingEngine.shared();
+        // Store vectoriel et index BM25 des mêmes segments, pour la recherche hybride
+        LexicalIndexingEmbeddingStore embeddingStore = new LexicalIndexingEmbeddingStore(EmbeddingStores.create());
+        IngestionPipeline.builder()
+                .embeddingModel(embeddingModel)
+                .index(PersistentEmbeddingIndex.defaultIndex())
+                .build()
+                .ingest(List.of(documentPath), embeddingStore)
+                .print();
+
+        System.out.println("\n=== PHASE 2 : Configuration de l'Assistant RAG ===");
+
+        ChatModel chatModel = GoogleAiGeminiChatModel.builder()
+                .apiKey(geminiApiKey)
+                .modelName("gemini-2.0-flash-exp")
+                .temperature(0.7)
+                .listeners(List.of(Instrumentation.chatModelListener()))
+                .build();
+        // Modèle des résumés de mémoire, sans instrumentation : appelés en tâche de fond, les résumés ne
+        // doivent compter ni dans la latence ni dans les tokens des questions
+        ChatModel summaryModel = GoogleAiGeminiChatModel.builder()
+                .apiKey(geminiApiKey)
+                .modelName("gemini-2.0-flash-exp")
+                .temperature(0.2)
+                .build();
+
+        // Les questions simultanées absentes du cache sont embeddées par lots (3 ms d'attente au plus)
+        BatchingEmbeddingModel batchingEmbeddingModel = BatchingEmbeddingModel.builder()
+                .delegate(embeddingModel)
+                .maxBatchSize(32)
+                .maxWait(Duration.ofMillis(3))
+                .build();
+        CachingEmbeddingModel queryEmbeddingModel = CachingEmbeddingModel.builder()
+                .delegate(batchingEmbeddingModel)
+                .ignoreCase(true) // all-MiniLM-L6-v2 est un modèle "uncased"
+                .build();
+        // Reranking optionnel (-Drag.rerank.model) : 10 candidats notés par lot, les 2 meilleurs gardés
+        BatchedReRankingAggregator reRanker = CrossEncoders.fromSystemProperty()
+                .map(crossEncoder -> BatchedReRankingAggregator.builder()
+                        .scoringModel(CachingScoringModel.builder().delegate(crossEncoder).build())
+                        .maxResults(2)
+                        .build())
+                .orElse(null);
+        HybridContentRetriever contentRetriever = HybridContentRetriever.builder()
+                .store(embeddingStore)
+                .embeddingModel(Instrumentation.embeddingModel(queryEmbeddingModel))
+                .maxResults(reRanker == null ? 2 : 10)
+                .candidates(20)
+                .minScore(reRanker == null ? 0.5 : 0.0)
+                // Sans reranker, un segment trouvé par BM25 seul n'entre que s'il est le premier résultat BM25 ;
+                // avec, tous les candidats BM25 sont notés par le cross-encoder
+                .lexicalOnlyMaxRank(reRanker == null ? 1 : 20)
+                .build();
+
+        // Contexte du prompt : segments consécutifs recousus, quasi-doublons écartés, budget de tokens
+        // (-Drag.context.tokens, 800 par défaut)
+        TokenBudgetContentAggregator contextAssembler = TokenBudgetContentAggregator.builder()
+                .delegate(reRanker == null ? new DefaultContentAggregator() : reRanker)
+                .tokenBudget(Integer.getInteger("rag.context.tokens", 800))
+                .build();
+
+        // Mémoire de chaque session bornée en tokens (-Drag.memory.tokens, 1500 par défaut) : contexte RAG retiré
+        // des tours passés, tours anciens résumés en tâche de fond. Une session inactive depuis 30 minutes quitte
+        // la mémoire et sera relue du disque ; sur disque, elle est supprimée après 7 jours d'inactivité
+        FileChatMemoryStore memoryStore = new FileChatMemoryStore(
+                Paths.get(System.getProperty("rag.memory.dir", "sessions")), Duration.ofDays(7));
+        ChatMemoryStats memoryStats = new ChatMemoryStats();
+        int memoryTokens = Integer.getInteger("rag.memory.tokens", 1500);
+        SessionChatMemoryProvider memories = new SessionChatMemoryProvider(sessionId -> TokenBudgetChatMemory.builder()
+                .id(sessionId)
+                .store(memoryStore)
+                .summaryModel(summaryModel)
+                .tokenBudget(memoryTokens)
+                .stats(memoryStats)
+                .build(), 10_000, Duration.ofMinutes(30));
+        SessionAssistant assistant = AiServices.builder(SessionAssistant.class)
+                .chatModel(chatModel)
+                .chatMemoryProvider(memories)
+                .retrievalAugmentor(DefaultRetrievalAugmentor.builder()
+                        .queryRouter(Instrumentation.queryRouter(
+                                new DefaultQueryRouter(Instrumentation.contentRetriever("hybride", contentRetriever))))
+                        .contentAggregator(contextAssembler)
+                        .contentInjector(Instrumentation.contentInjector(new DefaultContentInjector()))
+                        .build())
+                .build();
+        // AiServices garde la mémoire de chaque session : il doit l'oublier quand le fournisseur l'oublie
+        memories.onEviction(assistant::evictChatMemory);
+
+        RagHttpServer server = RagHttpServer.builder()
+                .assistant(assistant::chat)
+                .memories(memories)
+                .port(Integer.getInteger("rag.port", 8080))
+                .maxInFlight(Integer.getInteger("rag.maxInFlight", 32))
+                .admissionTimeout(Duration.ofSeconds(10))
+                .build();
+        // Le serveur n'accepte de requêtes qu'une fois le modèle d'embedding préchauffé
+        embeddingModel.awaitReady(Duration.ofMinutes(2));
+        System.out.println("Moteur d'embedding : " + embeddingModel.warmUpReport());
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(Duration.ofSeconds(5));
+            System.out.println("\nServeur arrêté : " + server.stats());
+            System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel.stats());
+            System.out.println("Lots d'embeddings : " + batchingEmbeddingModel.stats());
+            System.out.println("Recherche hybride : " + contentRetriever.stats());
+            if (reRanker != null) {
+                System.out.println("Reranking : " + reRanker.stats());
+            }
+            System.out.println("Contexte : " + contextAssembler.stats());
+            System.out.println("Mémoire : " + memoryStats + " ; " + memoryStore.stats());
+            batchingEmbeddingModel.close();
+        }));
+
+        System.out.println("Assistant RAG prêt sur le port " + server.port() + " !\n");
+        System.out.println("Exemple :");
+        System.out.println("  curl -H '" + RagHttpServer.SESSION_HEADER + ": alice' --data 'Qu'\\''est-ce que le RAG ?' "
+                + "http://localhost:" + server.port() + "/chat");
+        System.out.println("  curl http://localhost:" + server.port() + "/stats");
+        System.out.println("  curl http://localhost:" + server.port() + "/metrics");
+        System.out.println("Ctrl+C pour arrêter.");
+    }
+}
@@ -0,0 +1,16 @@
+package ma.emsi.test6;
+
+import dev.langchain4j.service.MemoryId;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.service.memory.ChatMemoryAccess;
+
+// SessionAssistant.java
+// ChatMemoryAccess : le serveur retire de l'assistant la mémoire des sessions expirées
+public interface SessionAssistant extends ChatMemoryAccess {
+    /**
+     * @param sessionId   Identifiant de la session : chaque session a sa propre mémoire de conversation.
+     * @param userMessage Le message/question de l'utilisateur.
+     * @return La réponse générée par l'assistant.
+     */
+    String chat(@MemoryId String sessionId, @UserMessage String userMessage);
+}